@@ -0,0 +1,253 @@
+package com.tacitknowledge.maven.plugin.crx.benchmark;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.json.JSONObject;
+
+import org.apache.commons.io.FileUtils;
+
+import com.tacitknowledge.maven.plugin.crx.CrxPackageDeployer;
+import com.tacitknowledge.maven.plugin.crx.CrxTarget;
+import com.tacitknowledge.maven.plugin.crx.DeploymentOptions;
+import com.tacitknowledge.maven.plugin.crx.DeploymentResult;
+
+/**
+ * End-to-end deployment benchmark against a {@link FakeCrxServer}. Deploys
+ * packages of every configured size with every configured number of nodes to
+ * delete, and prints the median and 95th percentile of the whole deployment
+ * and the median of each phase. Runs offline, e.g.
+ * <pre>
+ * java -cp ... com.tacitknowledge.maven.plugin.crx.benchmark.DeployBenchmark \
+ *     sizes=1,64,1024 deletes=1,100,1000 iterations=5 latency=2 bandwidth=100
+ * </pre>
+ * Arguments, all optional:
+ * <ul>
+ * <li><code>sizes</code>: package sizes in megabytes, default <code>1,16,256,1024</code></li>
+ * <li><code>deletes</code>: numbers of nodes to delete, default <code>1,10,100,1000</code></li>
+ * <li><code>iterations</code>: measured deployments per case, default 5, after one warm up</li>
+ * <li><code>latency</code>: milliseconds added to every response, default 0</li>
+ * <li><code>bandwidth</code>: megabytes per second, 0 for no limit, default 0</li>
+ * <li><code>installTime</code>: milliseconds an install takes, default 0</li>
+ * <li><code>failureRate</code>: share of failing calls, default 0</li>
+ * <li><code>failingPages</code>: pages the failures are limited to, e.g. <code>list.jsp,unpack.jsp</code></li>
+ * <li><code>backup</code>: whether to back the package up first, default false</li>
+ * <li><code>deleteParallelism</code>: subtrees removed at the same time, default 1</li>
+ * <li><code>uploadChunkSize</code>: upload chunk size in megabytes, 0 for one request, default 0</li>
+ * </ul>
+ */
+public class DeployBenchmark
+{
+	private static final long MEGABYTE = 1024 * 1024;
+
+	private final Map<String, String> arguments = new HashMap<String, String>();
+
+	private final FakeCrxServer server = new FakeCrxServer();
+
+	private final File workFolder;
+
+	public DeployBenchmark(String[] args) throws IOException
+	{
+		for (String arg : args)
+		{
+			int separator = arg.indexOf('=');
+			if (separator < 0)
+			{
+				throw new IllegalArgumentException("Expected name=value, got " + arg);
+			}
+			arguments.put(arg.substring(0, separator), arg.substring(separator + 1));
+		}
+		workFolder = File.createTempFile("crx-benchmark", "");
+		workFolder.delete();
+		workFolder.mkdirs();
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		// keep the http client quiet, its redirect notices would drown the results
+		System.setProperty("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.NoOpLog");
+		new DeployBenchmark(args).run();
+	}
+
+	/**
+	 * Runs every case and prints one line per case.
+	 * @throws Exception if the server cannot be started or a package cannot be created
+	 */
+	public void run() throws Exception
+	{
+		server.setLatency(getLong("latency", 0));
+		server.setBandwidth(getLong("bandwidth", 0) * MEGABYTE);
+		server.setInstallTime(getLong("installTime", 0));
+		server.setFailureRate(Double.parseDouble(getString("failureRate", "0")));
+		if (arguments.containsKey("failingPages"))
+		{
+			server.setFailingPages(getString("failingPages", "").split(","));
+		}
+		server.start(16);
+		try
+		{
+			System.out.println(String.format("%8s %8s %6s %10s %10s  %s", "size MB", "deletes", "failed", "median ms",
+					"p95 ms", "median ms per phase"));
+			for (long size : getLongs("sizes", "1,16,256,1024"))
+			{
+				File jar = createPackage(size * MEGABYTE);
+				server.setPackageSize(size * MEGABYTE);
+				try
+				{
+					for (long deletes : getLongs("deletes", "1,10,100,1000"))
+					{
+						runCase(jar, size, (int) deletes);
+					}
+				}
+				finally
+				{
+					jar.delete();
+				}
+			}
+		}
+		finally
+		{
+			server.stop();
+			FileUtils.deleteDirectory(workFolder);
+		}
+	}
+
+	private void runCase(File jar, long size, int deletes)
+	{
+		DeploymentOptions options = createOptions(jar, deletes);
+		CrxTarget target = new CrxTarget(server.getCrxPath(), "admin", "admin", "crx.default");
+		int iterations = (int) getLong("iterations", 5);
+
+		// warm up
+		deploy(target, options);
+
+		List<Long> totals = new ArrayList<Long>();
+		Map<String, List<Long>> phases = new LinkedHashMap<String, List<Long>>();
+		int failed = 0;
+		for (int i = 0; i < iterations; i++)
+		{
+			DeploymentResult result = deploy(target, options);
+			if (!result.isSuccessful())
+			{
+				failed++;
+			}
+			totals.add(result.getElapsedMillis());
+			for (JSONObject phase : result.getMetrics().getPhases())
+			{
+				String name = phase.getString("name");
+				if (!phases.containsKey(name))
+				{
+					phases.put(name, new ArrayList<Long>());
+				}
+				phases.get(name).add(phase.getLong("millis"));
+			}
+		}
+
+		StringBuilder perPhase = new StringBuilder();
+		for (Map.Entry<String, List<Long>> phase : phases.entrySet())
+		{
+			perPhase.append(phase.getKey()).append('=').append(percentile(phase.getValue(), 50)).append(' ');
+		}
+		System.out.println(String.format("%8d %8d %6d %10d %10d  %s", size, deletes, failed,
+				percentile(totals, 50), percentile(totals, 95), perPhase.toString().trim()));
+	}
+
+	private DeploymentResult deploy(CrxTarget target, DeploymentOptions options)
+	{
+		return new CrxPackageDeployer(target, options, new File(workFolder, "backup"), new SilentLog()).call();
+	}
+
+	private DeploymentOptions createOptions(File jar, int deletes)
+	{
+		DeploymentOptions options = new DeploymentOptions();
+		options.setJarfile(jar.getAbsolutePath());
+		StringBuilder paths = new StringBuilder();
+		for (int i = 0; i < deletes; i++)
+		{
+			paths.append(i == 0 ? "" : ",").append("/content/benchmark/node").append(i);
+		}
+		options.setDeleteNodePaths(paths.toString());
+		options.setEnableBackup(Boolean.parseBoolean(getString("backup", "false")));
+		options.setMaxConnections(4);
+		options.setConnectionTimeout(5000);
+		options.setDeleteParallelism((int) getLong("deleteParallelism", 1));
+		options.setUploadChunkSize(getLong("uploadChunkSize", 0) * MEGABYTE);
+		options.setUploadRetries(3);
+		options.setUploadRetryDelay(100);
+		options.setInstallProgressInterval(60000);
+		return options;
+	}
+
+	/**
+	 * Creates a sparse package file, filled with zeros.
+	 */
+	private File createPackage(long length) throws IOException
+	{
+		File jar = new File(workFolder, "benchmark-" + length + ".zip");
+		RandomAccessFile file = new RandomAccessFile(jar, "rw");
+		try
+		{
+			file.setLength(length);
+		}
+		finally
+		{
+			file.close();
+		}
+		return jar;
+	}
+
+	private static long percentile(List<Long> values, int percent)
+	{
+		if (values.isEmpty())
+		{
+			return 0;
+		}
+		List<Long> sorted = new ArrayList<Long>(values);
+		Collections.sort(sorted);
+		int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+		return sorted.get(Math.max(0, index));
+	}
+
+	private String getString(String name, String defaultValue)
+	{
+		return arguments.containsKey(name) ? arguments.get(name) : defaultValue;
+	}
+
+	private long getLong(String name, long defaultValue)
+	{
+		return Long.parseLong(getString(name, String.valueOf(defaultValue)));
+	}
+
+	private List<Long> getLongs(String name, String defaultValue)
+	{
+		List<Long> values = new ArrayList<Long>();
+		for (String value : getString(name, defaultValue).split(","))
+		{
+			values.add(Long.valueOf(value.trim()));
+		}
+		return values;
+	}
+}
@@ -0,0 +1,457 @@
+package com.tacitknowledge.maven.plugin.crx.benchmark;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for a CRX 2 instance, serving the pages the plugin
+ * calls under <code>/crx</code>: <code>login.jsp</code>,
+ * <code>packmgr/list.jsp</code>, <code>packmgr/unpack.jsp</code>,
+ * <code>packmgr/service.jsp</code>, <code>browser/delete_recursive.jsp</code>,
+ * <code>browser/definition.jsp</code> and <code>browser/content.jsp</code>,
+ * accepts Sling POST requests below <code>/etc</code> and serves pages below
+ * <code>/content</code>, answering 503 for a warm-up time after each install.
+ * Backups are valid zip files of one stored entry of zeros.
+ * Every response is delayed by a fixed latency, bodies are transferred no
+ * faster than the configured bandwidth and a share of the calls, optionally
+ * limited to some pages, fails with 503 Service Unavailable, the way a busy
+ * load balancer answers.
+ */
+public class FakeCrxServer
+{
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final byte[] ENTRY_NAME = { 'b', 'a', 'c', 'k', 'u', 'p' };
+
+	/**
+	 * Bytes of the local header, central directory entry and end record of a one entry zip.
+	 */
+	private static final int ZIP_OVERHEAD = 30 + 46 + 22 + 2 * ENTRY_NAME.length;
+
+	private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	private final Set<String> failingPages = Collections.synchronizedSet(new HashSet<String>());
+
+	private final Random random = new Random(42);
+
+	private HttpServer server;
+
+	private ExecutorService executor;
+
+	private volatile long latency;
+
+	private volatile long bandwidth;
+
+	private volatile double failureRate;
+
+	private volatile long installTime;
+
+	private volatile long packageSize = 1024 * 1024;
+
+	private volatile String versionablePrefix;
+
+	private volatile long warmupTime;
+
+	private volatile long lastInstall;
+
+	/**
+	 * Starts the server on a free local port.
+	 * @param threads number of requests served at the same time
+	 * @throws IOException if the server cannot be bound
+	 */
+	public void start(int threads) throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		HttpHandler handler = new HttpHandler()
+		{
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				try
+				{
+					serve(exchange);
+				}
+				finally
+				{
+					exchange.close();
+				}
+			}
+		};
+		server.createContext("/crx/", handler);
+		server.createContext("/etc/", handler);
+		server.createContext("/content/", handler);
+		server.start();
+	}
+
+	/**
+	 * Stops the server.
+	 */
+	public void stop()
+	{
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return the url to configure as <code>crxPath</code>, e.g. <code>http://127.0.0.1:4711/crx</code>
+	 */
+	public String getCrxPath()
+	{
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/crx";
+	}
+
+	/**
+	 * @param latency milliseconds each response is delayed by
+	 */
+	public void setLatency(long latency)
+	{
+		this.latency = latency;
+	}
+
+	/**
+	 * @param bandwidth maximum bytes per second of request and response bodies, 0 for no limit
+	 */
+	public void setBandwidth(long bandwidth)
+	{
+		this.bandwidth = bandwidth;
+	}
+
+	/**
+	 * @param failureRate share of the calls answered with a server error, between 0 and 1
+	 */
+	public void setFailureRate(double failureRate)
+	{
+		this.failureRate = failureRate;
+	}
+
+	/**
+	 * Limits the failure injection to some pages.
+	 * @param pages page names, e.g. <code>unpack.jsp</code>; none to fail any page
+	 */
+	public void setFailingPages(String... pages)
+	{
+		failingPages.clear();
+		Collections.addAll(failingPages, pages);
+	}
+
+	/**
+	 * @param installTime milliseconds an install takes on top of the latency
+	 */
+	public void setInstallTime(long installTime)
+	{
+		this.installTime = installTime;
+	}
+
+	/**
+	 * @param packageSize size in bytes of the package served for backups
+	 */
+	public void setPackageSize(long packageSize)
+	{
+		this.packageSize = packageSize;
+	}
+
+	/**
+	 * @param versionablePrefix nodes below this path are reported <code>mix:versionable</code>,
+	 *            <code>null</code> for none
+	 */
+	public void setVersionablePrefix(String versionablePrefix)
+	{
+		this.versionablePrefix = versionablePrefix;
+	}
+
+	/**
+	 * @param warmupTime milliseconds pages below <code>/content</code> answer 503 after an install
+	 */
+	public void setWarmupTime(long warmupTime)
+	{
+		this.warmupTime = warmupTime;
+	}
+
+	/**
+	 * @return number of requests served per page, sorted by page
+	 */
+	public Map<String, Integer> getRequestCounts()
+	{
+		Map<String, Integer> counts = new TreeMap<String, Integer>();
+		for (Map.Entry<String, AtomicInteger> entry : requests.entrySet())
+		{
+			counts.put(entry.getKey(), entry.getValue().get());
+		}
+		return counts;
+	}
+
+	public long getBytesReceived()
+	{
+		return bytesReceived.get();
+	}
+
+	public long getBytesSent()
+	{
+		return bytesSent.get();
+	}
+
+	/**
+	 * Forgets the request and byte counts.
+	 */
+	public void reset()
+	{
+		requests.clear();
+		bytesReceived.set(0);
+		bytesSent.set(0);
+	}
+
+	private void serve(HttpExchange exchange) throws IOException
+	{
+		String path = exchange.getRequestURI().getPath();
+		String page = path.startsWith("/etc/") ? "sling" : path.startsWith("/content/") ? "content"
+				: path.substring(path.lastIndexOf('/') + 1);
+		String query = exchange.getRequestURI().getRawQuery();
+		requests.putIfAbsent(page, new AtomicInteger());
+		AtomicInteger count = requests.get(page);
+		count.incrementAndGet();
+
+		consume(exchange.getRequestBody());
+		pause(latency);
+		if (isFailing(page))
+		{
+			respond(exchange, 503, "<html><body><span class=\"error_line\">injected failure</span></body></html>");
+			return;
+		}
+
+		if ("content".equals(page))
+		{
+			if (System.currentTimeMillis() - lastInstall < warmupTime)
+			{
+				respond(exchange, 503, "<html><body>starting</body></html>");
+			}
+			else
+			{
+				respond(exchange, 200, "<html><body>" + path + "</body></html>");
+			}
+		}
+		else if ("sling".equals(page))
+		{
+			if ("POST".equals(exchange.getRequestMethod()))
+			{
+				respond(exchange, 200, "<html><body>ok</body></html>");
+			}
+			else
+			{
+				respond(exchange, 404, "not found");
+			}
+		}
+		else if ("login.jsp".equals(page))
+		{
+			if ("POST".equals(exchange.getRequestMethod()))
+			{
+				redirect(exchange, "/crx/index.jsp");
+			}
+			else
+			{
+				exchange.getResponseHeaders().add("Set-Cookie", "JSESSIONID=fake" + count.get() + "; Path=/");
+				respond(exchange, 200, "<html><body>login</body></html>");
+			}
+		}
+		else if ("list.jsp".equals(page))
+		{
+			redirect(exchange, "/crx/packmgr/list.jsp");
+		}
+		else if ("unpack.jsp".equals(page))
+		{
+			pause(installTime);
+			lastInstall = System.currentTimeMillis();
+			respond(exchange, 200, "<html><body>Installing content...<br>Package installed in " + installTime
+					+ "ms.</body></html>");
+		}
+		else if ("service.jsp".equals(page) && query != null && query.contains("cmd=get"))
+		{
+			sendPackage(exchange);
+		}
+		else if ("service.jsp".equals(page))
+		{
+			respond(exchange, 200, "<crx><response><data><packages/></data><status code=\"200\">ok</status>"
+					+ "</response></crx>");
+		}
+		else if ("definition.jsp".equals(page))
+		{
+			String node = query == null ? "" : query.replaceAll(".*Path=([^&]*).*", "$1");
+			boolean versionable = versionablePrefix != null && node.startsWith(versionablePrefix);
+			respond(exchange, 200, "<html><body>nt:unstructured" + (versionable ? " mix:versionable" : "")
+					+ "</body></html>");
+		}
+		else if ("delete_recursive.jsp".equals(page) || "content.jsp".equals(page))
+		{
+			respond(exchange, 200, "<html><body>ok</body></html>");
+		}
+		else
+		{
+			respond(exchange, 404, "not found");
+		}
+	}
+
+	private boolean isFailing(String page)
+	{
+		if (failureRate <= 0 || (!failingPages.isEmpty() && !failingPages.contains(page)))
+		{
+			return false;
+		}
+		synchronized (random)
+		{
+			return random.nextDouble() < failureRate;
+		}
+	}
+
+	private void redirect(HttpExchange exchange, String location) throws IOException
+	{
+		exchange.getResponseHeaders().add("Location", location);
+		exchange.sendResponseHeaders(302, -1);
+	}
+
+	private void respond(HttpExchange exchange, int status, String body) throws IOException
+	{
+		byte[] bytes = body.getBytes("UTF-8");
+		exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream output = exchange.getResponseBody();
+		output.write(bytes);
+		bytesSent.addAndGet(bytes.length);
+	}
+
+	/**
+	 * Reads a request body at no more than the configured bandwidth.
+	 */
+	private void consume(InputStream input) throws IOException
+	{
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long start = System.nanoTime();
+		long total = 0;
+		int read;
+		while ((read = input.read(buffer)) != -1)
+		{
+			total += read;
+			throttle(start, total);
+		}
+		bytesReceived.addAndGet(total);
+	}
+
+	/**
+	 * Writes a zip of <code>packageSize</code> bytes holding one stored entry of zeros.
+	 */
+	private void sendPackage(HttpExchange exchange) throws IOException
+	{
+		long size = Math.max(packageSize, ZIP_OVERHEAD);
+		long data = size - ZIP_OVERHEAD;
+		CRC32 crc = new CRC32();
+		byte[] zeros = new byte[BUFFER_SIZE];
+		for (long left = data; left > 0; left -= zeros.length)
+		{
+			crc.update(zeros, 0, (int) Math.min(zeros.length, left));
+		}
+
+		ByteBuffer local = ByteBuffer.allocate(30 + ENTRY_NAME.length).order(ByteOrder.LITTLE_ENDIAN);
+		local.putInt(0x04034b50).putShort((short) 10).putShort((short) 0).putShort((short) 0).putInt(0);
+		local.putInt((int) crc.getValue()).putInt((int) data).putInt((int) data);
+		local.putShort((short) ENTRY_NAME.length).putShort((short) 0).put(ENTRY_NAME);
+
+		ByteBuffer trailer = ByteBuffer.allocate(46 + 22 + ENTRY_NAME.length).order(ByteOrder.LITTLE_ENDIAN);
+		trailer.putInt(0x02014b50).putShort((short) 20).putShort((short) 10).putShort((short) 0);
+		trailer.putShort((short) 0).putInt(0).putInt((int) crc.getValue()).putInt((int) data).putInt((int) data);
+		trailer.putShort((short) ENTRY_NAME.length).putShort((short) 0).putShort((short) 0).putShort((short) 0);
+		trailer.putShort((short) 0).putInt(0).putInt(0).put(ENTRY_NAME);
+		trailer.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) 1).putShort((short) 1);
+		trailer.putInt(46 + ENTRY_NAME.length).putInt((int) (local.capacity() + data)).putShort((short) 0);
+
+		exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+		exchange.sendResponseHeaders(200, size);
+		OutputStream output = exchange.getResponseBody();
+		output.write(local.array());
+		send(output, data);
+		output.write(trailer.array());
+		bytesSent.addAndGet(local.capacity() + trailer.capacity());
+	}
+
+	/**
+	 * Writes a response body of zeros at no more than the configured bandwidth.
+	 */
+	private void send(OutputStream output, long length) throws IOException
+	{
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long start = System.nanoTime();
+		long total = 0;
+		while (total < length)
+		{
+			int chunk = (int) Math.min(buffer.length, length - total);
+			output.write(buffer, 0, chunk);
+			total += chunk;
+			throttle(start, total);
+		}
+		bytesSent.addAndGet(total);
+	}
+
+	private void throttle(long start, long transferred)
+	{
+		if (bandwidth > 0)
+		{
+			long due = transferred * 1000 / bandwidth;
+			pause(due - (System.nanoTime() - start) / 1000000);
+		}
+	}
+
+	private static void pause(long millis)
+	{
+		if (millis <= 0)
+		{
+			return;
+		}
+		try
+		{
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
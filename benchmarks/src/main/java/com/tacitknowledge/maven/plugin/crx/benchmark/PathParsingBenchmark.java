@@ -0,0 +1,109 @@
+package com.tacitknowledge.maven.plugin.crx.benchmark;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of <code>deleteNodePaths</code>: groups separated by <code>;</code>
+ * holding paths separated by <code>,</code>, as done before removing and
+ * checking the nodes in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathParsingBenchmark
+{
+	/**
+	 * Number of configured paths.
+	 */
+	@Param({ "1", "100", "1000" })
+	public int paths;
+
+	private String deleteNodePaths;
+
+	@Setup
+	public void createPaths()
+	{
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < paths; i++)
+		{
+			if (i > 0)
+			{
+				value.append(i % 10 == 0 ? ';' : ',');
+			}
+			value.append("/content/site/en/section").append(i % 50).append("/page").append(i);
+		}
+		deleteNodePaths = value.toString();
+	}
+
+	@Benchmark
+	public List<String> tokenizerAndSplit()
+	{
+		List<String> nodePaths = new ArrayList<String>();
+		StringTokenizer tokens = new StringTokenizer(deleteNodePaths, ";");
+		while (tokens.hasMoreTokens())
+		{
+			nodePaths.addAll(Arrays.asList(tokens.nextToken().split(",")));
+		}
+		return nodePaths;
+	}
+
+	@Benchmark
+	public List<String> regexSplit()
+	{
+		return Arrays.asList(deleteNodePaths.split("[;,]"));
+	}
+
+	@Benchmark
+	public List<String> indexOfScan()
+	{
+		List<String> nodePaths = new ArrayList<String>();
+		int start = 0;
+		for (int i = 0; i <= deleteNodePaths.length(); i++)
+		{
+			if (i == deleteNodePaths.length() || deleteNodePaths.charAt(i) == ';' || deleteNodePaths.charAt(i) == ',')
+			{
+				if (i > start)
+				{
+					nodePaths.add(deleteNodePaths.substring(start, i));
+				}
+				start = i + 1;
+			}
+		}
+		return nodePaths;
+	}
+}
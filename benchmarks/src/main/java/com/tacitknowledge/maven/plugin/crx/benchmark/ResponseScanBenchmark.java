@@ -0,0 +1,118 @@
+package com.tacitknowledge.maven.plugin.crx.benchmark;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.tacitknowledge.maven.plugin.crx.ResponseScanner;
+
+/**
+ * Scanning of CRX responses: the error extraction of
+ * <code>logResponseDetails</code> and the <code>mix:versionable</code> check
+ * of <code>isVersionable</code>, each as the former whole body regular
+ * expression or lower case copy and as the streaming {@link ResponseScanner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseScanBenchmark
+{
+	private static final Pattern ERROR_PATTERN = Pattern.compile("(?<=<span class=\"error_line\">)(.+)(?=</span>)",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.MULTILINE);
+
+	/**
+	 * Size of the response body in bytes.
+	 */
+	@Param({ "4096", "262144", "4194304" })
+	public int responseSize;
+
+	/**
+	 * Number of error lines in the response.
+	 */
+	@Param({ "0", "10" })
+	public int errors;
+
+	private byte[] response;
+
+	@Setup
+	public void createResponse()
+	{
+		StringBuilder body = new StringBuilder("<html><head><title>CRX</title></head><body>\n");
+		int line = 0;
+		while (body.length() < responseSize)
+		{
+			body.append("<div class=\"node\">/content/site/page").append(line)
+					.append(" nt:unstructured sling:resourceType=site/components/page</div>\n");
+			if (errors > 0 && line % Math.max(1, responseSize / 80 / errors) == 0)
+			{
+				body.append("<span class=\"error_line\">javax.jcr.RepositoryException: failed at ").append(line)
+						.append("</span>\n");
+			}
+			line++;
+		}
+		body.append("mix:versionable</body></html>");
+		response = body.toString().getBytes();
+	}
+
+	@Benchmark
+	public void regexErrors(Blackhole blackhole) throws IOException
+	{
+		Matcher matcher = ERROR_PATTERN.matcher(new String(response, "UTF-8"));
+		while (matcher.find())
+		{
+			blackhole.consume(matcher.group());
+		}
+	}
+
+	@Benchmark
+	public Object streamingErrors() throws IOException
+	{
+		return ResponseScanner.scan(new ByteArrayInputStream(response), "UTF-8", null).getErrors();
+	}
+
+	@Benchmark
+	public boolean lowerCaseContains() throws IOException
+	{
+		return new String(response, "UTF-8").toLowerCase().contains("mix:versionable");
+	}
+
+	@Benchmark
+	public boolean streamingMarker() throws IOException
+	{
+		return ResponseScanner.scan(new ByteArrayInputStream(response), "UTF-8", "mix:versionable").isMarkerFound();
+	}
+}
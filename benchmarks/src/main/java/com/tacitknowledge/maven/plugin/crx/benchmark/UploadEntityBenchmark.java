@@ -0,0 +1,127 @@
+package com.tacitknowledge.maven.plugin.crx.benchmark;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.methods.multipart.FilePart;
+import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
+import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tacitknowledge.maven.plugin.crx.FileChannelRequestEntity;
+
+/**
+ * Writing of the upload request body of <code>uploadPackage</code> to a
+ * stream discarding it, as the former <code>FilePart</code> multipart entity
+ * and as the {@link FileChannelRequestEntity}. The package is in the page
+ * cache after the first iteration, so the copy path itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadEntityBenchmark
+{
+	/**
+	 * Size of the package in megabytes.
+	 */
+	@Param({ "16", "256" })
+	public int packageSize;
+
+	private File file;
+
+	@Setup
+	public void createPackage() throws IOException
+	{
+		file = File.createTempFile("upload", ".zip");
+		byte[] block = new byte[1024 * 1024];
+		OutputStream output = new FileOutputStream(file);
+		try
+		{
+			for (int i = 0; i < packageSize; i++)
+			{
+				output.write(block);
+			}
+		}
+		finally
+		{
+			output.close();
+		}
+	}
+
+	@TearDown
+	public void deletePackage()
+	{
+		file.delete();
+	}
+
+	@Benchmark
+	public long filePart() throws IOException
+	{
+		Part[] parts = { new FilePart("file", file) };
+		MultipartRequestEntity entity = new MultipartRequestEntity(parts, new HttpMethodParams());
+		CountingOutputStream output = new CountingOutputStream();
+		entity.writeRequest(output);
+		return output.count;
+	}
+
+	@Benchmark
+	public long fileChannel() throws IOException
+	{
+		FileChannelRequestEntity entity = new FileChannelRequestEntity(file, "file", file.getName(), new SilentLog());
+		CountingOutputStream output = new CountingOutputStream();
+		entity.writeRequest(output);
+		return output.count;
+	}
+
+	/**
+	 * Discards what is written, the way a socket stream would take it.
+	 */
+	private static class CountingOutputStream extends OutputStream
+	{
+		private long count;
+
+		public void write(int b)
+		{
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len)
+		{
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.tacitknowledge.maven.plugin.vlt.benchmark;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tacitknowledge.maven.plugin.crx.benchmark.SilentLog;
+import com.tacitknowledge.maven.plugin.vlt.VltFileCleanerPlugin;
+
+/**
+ * The <code>vlt:clean</code> walk over a synthetic checkout: directories of
+ * {@link #FILES_PER_FOLDER} files, one of them a <code>.vlt</code> file, ten
+ * sub folders per folder. The removed <code>.vlt</code> files are restored
+ * before every run, the tree itself is built once per trial. Trees of a
+ * million files take a while to build, select them with
+ * <code>-p files=1000000</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VltCleanerBenchmark
+{
+	private static final int FILES_PER_FOLDER = 20;
+
+	private static final int FOLDERS_PER_FOLDER = 10;
+
+	/**
+	 * Number of files in the tree.
+	 */
+	@Param({ "10000", "100000" })
+	public int files;
+
+	private File root;
+
+	private final List<File> vltFiles = new ArrayList<File>();
+
+	private VltFileCleanerPlugin cleaner;
+
+	@Setup(Level.Trial)
+	public void createTree() throws Exception
+	{
+		root = File.createTempFile("vlt-benchmark", "");
+		root.delete();
+		List<File> folders = new ArrayList<File>();
+		folders.add(root);
+		int created = 0;
+		for (int next = 0; created < files; next++)
+		{
+			File folder = folders.get(next);
+			folder.mkdirs();
+			vltFiles.add(new File(folder, ".vlt"));
+			for (int i = 1; i < FILES_PER_FOLDER && created < files; i++, created++)
+			{
+				FileUtils.touch(new File(folder, "file" + i + ".xml"));
+			}
+			created++;
+			for (int i = 0; i < FOLDERS_PER_FOLDER; i++)
+			{
+				folders.add(new File(folder, "folder" + i));
+			}
+		}
+
+		cleaner = new VltFileCleanerPlugin();
+		cleaner.setLog(new SilentLog());
+		Field sourceDirectory = VltFileCleanerPlugin.class.getDeclaredField("sourceDirectory");
+		sourceDirectory.setAccessible(true);
+		sourceDirectory.set(cleaner, root.getAbsolutePath());
+	}
+
+	@Setup(Level.Invocation)
+	public void restoreVltFiles() throws IOException
+	{
+		for (File vltFile : vltFiles)
+		{
+			FileUtils.touch(vltFile);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteTree() throws IOException
+	{
+		FileUtils.deleteDirectory(root);
+	}
+
+	@Benchmark
+	public void clean() throws MojoExecutionException
+	{
+		cleaner.execute();
+	}
+}
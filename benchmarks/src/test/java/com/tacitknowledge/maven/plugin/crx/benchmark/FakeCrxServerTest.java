@@ -0,0 +1,169 @@
+package com.tacitknowledge.maven.plugin.crx.benchmark;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+
+import com.tacitknowledge.maven.plugin.crx.CrxPackageDeployer;
+import com.tacitknowledge.maven.plugin.crx.CrxTarget;
+import com.tacitknowledge.maven.plugin.crx.DeploymentOptions;
+import com.tacitknowledge.maven.plugin.crx.DeploymentResult;
+
+public class FakeCrxServerTest extends TestCase
+{
+	private FakeCrxServer server;
+
+	private File folder;
+
+	protected void setUp() throws Exception
+	{
+		server = new FakeCrxServer();
+		server.start(4);
+		folder = File.createTempFile("fakecrx", "");
+		folder.delete();
+		folder.mkdirs();
+	}
+
+	protected void tearDown() throws Exception
+	{
+		server.stop();
+		FileUtils.deleteDirectory(folder);
+	}
+
+	public void testServesAWholeDeployment() throws IOException
+	{
+		DeploymentResult result = deploy(options());
+
+		assertTrue(String.valueOf(result.getError()), result.isSuccessful());
+		assertEquals(Integer.valueOf(1), server.getRequestCounts().get("unpack.jsp"));
+		assertTrue(server.getRequestCounts().containsKey("login.jsp"));
+		assertTrue(server.getBytesReceived() > 0);
+	}
+
+	public void testInjectedFailureOfOnePageFailsTheDeployment() throws IOException
+	{
+		server.setFailureRate(1);
+		server.setFailingPages("unpack.jsp");
+
+		DeploymentResult result = deploy(options());
+
+		assertFalse(result.isSuccessful());
+		assertTrue(server.getRequestCounts().containsKey("login.jsp"));
+	}
+
+	public void testBackupIsAZipOfThePackageSize() throws IOException
+	{
+		server.setPackageSize(100000);
+		DeploymentOptions options = options();
+		options.setEnableBackup(true);
+
+		assertTrue(deploy(options).isSuccessful());
+
+		Collection<File> backups = FileUtils.listFiles(new File(folder, "backups"), new SuffixFileFilter(".zip"),
+				TrueFileFilter.INSTANCE);
+		assertEquals(1, backups.size());
+		File backup = backups.iterator().next();
+		assertEquals(100000, backup.length());
+		ZipFile zip = new ZipFile(backup);
+		try
+		{
+			assertNotNull(zip.getEntry("backup"));
+		}
+		finally
+		{
+			zip.close();
+		}
+	}
+
+	public void testLatencyDelaysEveryResponse() throws IOException
+	{
+		server.setLatency(200);
+		GetMethod get = new GetMethod(server.getCrxPath() + "/login.jsp");
+		long start = System.currentTimeMillis();
+		try
+		{
+			assertEquals(200, new HttpClient().executeMethod(get));
+		}
+		finally
+		{
+			get.releaseConnection();
+		}
+		assertTrue(System.currentTimeMillis() - start >= 200);
+	}
+
+	public void testReportsVersionableNodesBelowThePrefix() throws IOException
+	{
+		server.setVersionablePrefix("/content/site");
+
+		assertTrue(definition("/content/site/en").contains("mix:versionable"));
+		assertFalse(definition("/apps/site").contains("mix:versionable"));
+	}
+
+	private String definition(String path) throws IOException
+	{
+		GetMethod get = new GetMethod(server.getCrxPath() + "/browser/definition.jsp?Path=" + path);
+		try
+		{
+			new HttpClient().executeMethod(get);
+			return get.getResponseBodyAsString();
+		}
+		finally
+		{
+			get.releaseConnection();
+		}
+	}
+
+	private DeploymentOptions options() throws IOException
+	{
+		File jar = new File(folder, "mypackage.zip");
+		ZipOutputStream output = new ZipOutputStream(FileUtils.openOutputStream(jar));
+		try
+		{
+			output.putNextEntry(new ZipEntry("jcr_root/apps/site/.content.xml"));
+			output.write("<site/>".getBytes("UTF-8"));
+			output.closeEntry();
+		}
+		finally
+		{
+			output.close();
+		}
+		DeploymentOptions options = new DeploymentOptions();
+		options.setJarfile(jar.getPath());
+		options.setMaxConnections(2);
+		options.setInstallProgressInterval(60000);
+		return options;
+	}
+
+	private DeploymentResult deploy(DeploymentOptions options)
+	{
+		CrxTarget target = new CrxTarget(server.getCrxPath(), "admin", "admin", "crx.default");
+		return new CrxPackageDeployer(target, options, new File(folder, "backups"), new SilentLog()).call();
+	}
+}
@@ -0,0 +1,4 @@
+package com.tacitknowledge.maven.plugin.crx.benchmark.generated;
+public class PathParsingBenchmark_jmhType extends PathParsingBenchmark_jmhType_B3 {
+}
+
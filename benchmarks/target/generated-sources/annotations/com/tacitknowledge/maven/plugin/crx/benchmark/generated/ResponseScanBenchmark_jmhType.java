@@ -0,0 +1,4 @@
+package com.tacitknowledge.maven.plugin.crx.benchmark.generated;
+public class ResponseScanBenchmark_jmhType extends ResponseScanBenchmark_jmhType_B3 {
+}
+
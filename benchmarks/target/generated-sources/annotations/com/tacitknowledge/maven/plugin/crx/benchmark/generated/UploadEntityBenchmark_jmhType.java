@@ -0,0 +1,4 @@
+package com.tacitknowledge.maven.plugin.crx.benchmark.generated;
+public class UploadEntityBenchmark_jmhType extends UploadEntityBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package com.tacitknowledge.maven.plugin.vlt.benchmark.generated;
+public class VltCleanerBenchmark_jmhType extends VltCleanerBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,146 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * What is known about the remote package at the time of its last backup:
+ * the validators returned with the download (<code>ETag</code>,
+ * <code>Last-Modified</code>) and the package manager metadata. Kept as
+ * <code>&lt;name&gt;.backup.properties</code> next to the backups, it lets
+ * the next backup be skipped while the remote package has not changed.
+ */
+public class BackupState
+{
+	private static final String BACKUP = "backup";
+
+	private static final String ETAG = "etag";
+
+	private static final String LAST_MODIFIED = "lastModified";
+
+	private static final String METADATA = "metadata";
+
+	private static final String CHECKED = "checked";
+
+	private final File file;
+
+	private final Properties properties = new Properties();
+
+	/**
+	 * @param backupFolder the backup folder
+	 * @param baseName the package base name
+	 * @throws IOException if an existing state cannot be read
+	 */
+	public BackupState(File backupFolder, String baseName) throws IOException
+	{
+		this.file = new File(backupFolder, baseName + ".backup.properties");
+		if (file.exists())
+		{
+			InputStream input = new FileInputStream(file);
+			try
+			{
+				properties.load(input);
+			}
+			finally
+			{
+				IOUtils.closeQuietly(input);
+			}
+		}
+	}
+
+	/**
+	 * @return the last backup, <code>null</code> if none or if it was deleted.
+	 */
+	public File getBackup()
+	{
+		String name = properties.getProperty(BACKUP);
+		if (name == null)
+		{
+			return null;
+		}
+		File backup = new File(file.getParentFile(), name);
+		return backup.exists() ? backup : null;
+	}
+
+	public String getEtag()
+	{
+		return properties.getProperty(ETAG);
+	}
+
+	public String getLastModified()
+	{
+		return properties.getProperty(LAST_MODIFIED);
+	}
+
+	public String getMetadata()
+	{
+		return properties.getProperty(METADATA);
+	}
+
+	/**
+	 * Remembers a new backup.
+	 * @param backup the backup file
+	 * @param etag the <code>ETag</code> of the download, may be <code>null</code>
+	 * @param lastModified the <code>Last-Modified</code> of the download, may be <code>null</code>
+	 * @param metadata the package manager metadata of the package, may be <code>null</code>
+	 * @throws IOException if the state cannot be written
+	 */
+	public void update(File backup, String etag, String lastModified, String metadata) throws IOException
+	{
+		properties.clear();
+		properties.setProperty(BACKUP, backup.getName());
+		set(ETAG, etag);
+		set(LAST_MODIFIED, lastModified);
+		set(METADATA, metadata);
+		markChecked();
+	}
+
+	/**
+	 * Records that the last backup was found to still match the remote package.
+	 * @throws IOException if the state cannot be written
+	 */
+	public void markChecked() throws IOException
+	{
+		properties.setProperty(CHECKED, String.valueOf(System.currentTimeMillis()));
+		OutputStream output = FileUtils.openOutputStream(file);
+		try
+		{
+			properties.store(output, "state of the remote package at its last backup");
+		}
+		finally
+		{
+			IOUtils.closeQuietly(output);
+		}
+	}
+
+	private void set(String key, String value)
+	{
+		if (value != null)
+		{
+			properties.setProperty(key, value);
+		}
+	}
+}
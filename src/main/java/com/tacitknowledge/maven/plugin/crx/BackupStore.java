@@ -0,0 +1,341 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Content addressed backup folder. Each distinct package content is stored
+ * once as <code>blobs/&lt;sha-256&gt;.zip</code>, hashed while it streams to
+ * disk, and every backup is a <code>&lt;name&gt;_&lt;timestamp&gt;.zip</code>
+ * hard link to its blob (a copy where hard links are not supported). An
+ * <code>index.properties</code> file maps each backup to its blob, so that
+ * blobs no longer referenced are removed when backups are pruned. Every
+ * change of the index and the blobs happens under a lock of the folder, held
+ * by one thread of this JVM and one process at a time.
+ */
+public class BackupStore
+{
+	private static final String BLOBS = "blobs";
+
+	private static final String INDEX = "index.properties";
+
+	/**
+	 * One lock object per canonical backup folder, shared by every store of this JVM.
+	 */
+	private static final Map<String, Object> LOCKS = new HashMap<String, Object>();
+
+	private final File folder;
+
+	private final Log log;
+
+	/**
+	 * @param folder the backup folder
+	 * @param log the log to report to
+	 */
+	public BackupStore(File folder, Log log)
+	{
+		this.folder = folder;
+		this.log = log;
+	}
+
+	/**
+	 * Stores a backup, keeping a single blob per distinct content.
+	 * @param input the package content, closed by this method
+	 * @param backupName the file name of the backup, e.g. <code>mypackage_20120101-1200.zip</code>
+	 * @return the backup file
+	 * @throws IOException if the backup cannot be written
+	 */
+	public File store(InputStream input, final String backupName) throws IOException
+	{
+		final File blobs = new File(folder, BLOBS);
+		FileUtils.forceMkdir(blobs);
+		// the download runs outside of the lock, its temporary file is never taken for a blob
+		final File temporary = File.createTempFile("download", ".tmp", blobs);
+		try
+		{
+			MessageDigest sha = newDigest();
+			CRXPackageInstallerPlugin.copyStreamToFile(new DigestInputStream(input, sha), temporary);
+			final String digest = new String(Hex.encodeHex(sha.digest()));
+			final File backup = new File(folder, backupName);
+			updateIndex(new IndexUpdate()
+			{
+				public void update(Properties index) throws IOException
+				{
+					File blob = new File(blobs, digest + ".zip");
+					if (blob.exists())
+					{
+						log.info("Backup content unchanged, reusing " + blob.getName());
+					}
+					else if (!temporary.renameTo(blob))
+					{
+						throw new IOException("Cannot move " + temporary + " to " + blob);
+					}
+					link(blob, backup);
+					index.setProperty(backupName, digest);
+				}
+			});
+			return backup;
+		}
+		finally
+		{
+			temporary.delete();
+		}
+	}
+
+	/**
+	 * Removes the backups of a package exceeding the retention limits, oldest
+	 * first, then the blobs no backup refers to anymore.
+	 * @param baseName the package base name
+	 * @param keep number of most recent backups always kept, 0 for no limit
+	 * @param maxAgeDays backups older than this many days are removed, 0 for no limit
+	 * @param maxSizeBytes maximum disk use of the blobs, 0 for no limit
+	 * @throws IOException if the index cannot be updated
+	 */
+	public void prune(final String baseName, final int keep, final int maxAgeDays, final long maxSizeBytes)
+			throws IOException
+	{
+		updateIndex(new IndexUpdate()
+		{
+			public void update(Properties index) throws IOException
+			{
+				prune(index, baseName, keep, maxAgeDays, maxSizeBytes);
+			}
+		});
+	}
+
+	private void prune(Properties index, String baseName, int keep, int maxAgeDays, long maxSizeBytes)
+			throws IOException
+	{
+		List<String> backups = new ArrayList<String>();
+		for (String name : index.stringPropertyNames())
+		{
+			if (name.matches(Pattern.quote(baseName) + "_\\d{8}-\\d{4}\\.zip"))
+			{
+				backups.add(name);
+			}
+		}
+		// the timestamp format sorts chronologically, newest first
+		Collections.sort(backups, Collections.reverseOrder());
+
+		// the age comes from the name: a backup links to a blob that may have been stored long before
+		long oldest = System.currentTimeMillis() - maxAgeDays * 24L * 60 * 60 * 1000;
+		for (int i = 0; i < backups.size(); i++)
+		{
+			boolean tooMany = keep > 0 && i >= keep;
+			boolean tooOld = maxAgeDays > 0 && i > 0 && getBackupTime(backups.get(i)) < oldest;
+			if (tooMany || tooOld)
+			{
+				remove(index, backups.get(i));
+			}
+		}
+
+		// always keep the latest backup, whatever its size
+		for (int i = backups.size() - 1; i > 0 && maxSizeBytes > 0 && blobsSize(index) > maxSizeBytes; i--)
+		{
+			if (index.containsKey(backups.get(i)))
+			{
+				remove(index, backups.get(i));
+			}
+		}
+		removeUnreferencedBlobs(index);
+	}
+
+	/**
+	 * @param backupName a backup name ending with <code>_yyyyMMdd-HHmm.zip</code>
+	 * @return the time the backup was taken, from its name
+	 * @throws IOException if the name holds no timestamp
+	 */
+	static long getBackupTime(String backupName) throws IOException
+	{
+		int start = backupName.length() - ".zip".length() - CRXPackageInstallerPlugin.DATE_FORMAT_NOW.length();
+		try
+		{
+			return new SimpleDateFormat(CRXPackageInstallerPlugin.DATE_FORMAT_NOW).parse(
+					backupName.substring(Math.max(0, start), backupName.length() - ".zip".length())).getTime();
+		}
+		catch (ParseException e)
+		{
+			throw new IOException("Backup " + backupName + " has no timestamp in its name");
+		}
+	}
+
+	private void remove(Properties index, String backupName)
+	{
+		log.info("Removing backup " + backupName);
+		new File(folder, backupName).delete();
+		index.remove(backupName);
+	}
+
+	private long blobsSize(Properties index)
+	{
+		Set<String> digests = new HashSet<String>();
+		for (String name : index.stringPropertyNames())
+		{
+			digests.add(index.getProperty(name));
+		}
+		long size = 0;
+		for (String digest : digests)
+		{
+			size += new File(new File(folder, BLOBS), digest + ".zip").length();
+		}
+		return size;
+	}
+
+	private void removeUnreferencedBlobs(Properties index)
+	{
+		Set<String> referenced = new HashSet<String>();
+		for (String name : index.stringPropertyNames())
+		{
+			referenced.add(index.getProperty(name) + ".zip");
+		}
+		File[] blobs = new File(folder, BLOBS).listFiles();
+		if (blobs == null)
+		{
+			return;
+		}
+		for (File blob : blobs)
+		{
+			if (blob.getName().endsWith(".zip") && !referenced.contains(blob.getName()))
+			{
+				log.info("Removing unreferenced backup content " + blob.getName());
+				blob.delete();
+			}
+		}
+	}
+
+	/**
+	 * Makes the backup file a hard link to the blob, or a copy of it when the
+	 * file system does not support hard links.
+	 */
+	private void link(File blob, File backup) throws IOException
+	{
+		backup.delete();
+		try
+		{
+			Files.createLink(backup.toPath(), blob.toPath());
+		}
+		catch (UnsupportedOperationException e)
+		{
+			FileUtils.copyFile(blob, backup);
+		}
+		catch (IOException e)
+		{
+			log.debug("Hard link not possible, copying: " + e.getMessage());
+			FileUtils.copyFile(blob, backup);
+		}
+	}
+
+	/**
+	 * Reads, changes and writes the index while holding the lock of the folder
+	 * in this JVM and a file lock on the index for other processes.
+	 */
+	private void updateIndex(IndexUpdate update) throws IOException
+	{
+		FileUtils.forceMkdir(folder);
+		synchronized (getLock(folder))
+		{
+			RandomAccessFile file = new RandomAccessFile(new File(folder, INDEX), "rw");
+			try
+			{
+				FileLock lock = file.getChannel().lock();
+				try
+				{
+					byte[] content = new byte[(int) file.length()];
+					file.readFully(content);
+					Properties index = new Properties();
+					index.load(new ByteArrayInputStream(content));
+
+					update.update(index);
+
+					ByteArrayOutputStream output = new ByteArrayOutputStream();
+					index.store(output, "backup name to content digest");
+					file.setLength(0);
+					file.write(output.toByteArray());
+				}
+				finally
+				{
+					lock.release();
+				}
+			}
+			finally
+			{
+				file.close();
+			}
+		}
+	}
+
+	private static Object getLock(File folder) throws IOException
+	{
+		String path = folder.getCanonicalPath();
+		synchronized (LOCKS)
+		{
+			Object lock = LOCKS.get(path);
+			if (lock == null)
+			{
+				lock = new Object();
+				LOCKS.put(path, lock);
+			}
+			return lock;
+		}
+	}
+
+	private static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("SHA-256 not supported by this JVM");
+		}
+	}
+
+	/**
+	 * A change of the index made under the lock of the folder.
+	 */
+	private interface IndexUpdate
+	{
+		void update(Properties index) throws IOException;
+	}
+}
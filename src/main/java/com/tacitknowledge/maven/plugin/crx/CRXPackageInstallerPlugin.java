@@ -20,52 +20,58 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import org.apache.commons.httpclient.Cookie;
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.HttpMethodBase;
-import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.cookie.CookiePolicy;
-import org.apache.commons.httpclient.methods.GetMethod;
-import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.methods.multipart.FilePart;
-import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
-import org.apache.commons.httpclient.methods.multipart.Part;
-import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
 
 /**
  * Goal which installs a CRX package on the target host.
  *
  * @goal post
  * @phase integration-test
+ * @requiresDependencyResolution runtime
  */
 public class CRXPackageInstallerPlugin extends AbstractMojo
 {
+	public static final String DATE_FORMAT_NOW = "yyyyMMdd-HHmm";
+
 	/**
-	 * the connection default timeout is set to 5 seconds.
+	 * Maximum number of bytes moved by one channel transfer.
 	 */
-	private static final int CONNECTION_DEFAULT_TIMEOUT = 5000;
-
-	public static final String DATE_FORMAT_NOW = "yyyyMMdd-HHmm";
+	private static final long TRANSFER_SIZE = 8 * 1024 * 1024;
 
 	/**
 	 * Whether to skip this step even though it has been configured in the
 	 * project to be executed. This property may be set by the
 	 * <code>crxpackage.install.skip</code> comparable to the
 	 * <code>maven.test.skip</code> property to prevent running the unit tests.
+	 * In an aggregated deployment the package of a skipped module is not
+	 * registered, but the last module of the build still deploys the packages
+	 * of the others.
 	 * 
 	 * @parameter expression="${crxpackage.skip}" default-value="false"
 	 * @required
@@ -173,6 +179,424 @@ public class CRXPackageInstallerPlugin extends AbstractMojo
 	 */
 	private String packagePath = "";
 
+	/**
+	 * Whether to check the package before connecting to any host: the zip
+	 * must be complete, <code>META-INF/vault/filter.xml</code> and
+	 * <code>properties.xml</code> must parse, and removed nodes outside of the
+	 * filter roots are reported. Off by default, as in earlier releases.
+	 * This property may be set by the <code>crxpackage.validate</code>
+	 * @parameter expression="${crxpackage.validate}" default-value="false"
+	 */
+	private boolean validate;
+
+	/**
+	 * Maximum number of pooled, persistent connections kept open to the CRX host.
+	 * This property may be set by the <code>crx.http.maxConnections</code>
+	 * @parameter expression="${crx.http.maxConnections}" default-value="4"
+	 */
+	private int maxConnections = 4;
+
+	/**
+	 * Connect timeout in milliseconds. This property may be set by the
+	 * <code>crx.http.connectionTimeout</code>
+	 * @parameter expression="${crx.http.connectionTimeout}" default-value="5000"
+	 */
+	private int connectionTimeout = 5000;
+
+	/**
+	 * Socket read timeout in milliseconds, 0 means no timeout. This property may be set by the
+	 * <code>crx.http.socketTimeout</code>
+	 * @parameter expression="${crx.http.socketTimeout}" default-value="0"
+	 */
+	private int socketTimeout;
+
+	/**
+	 * Number of retries of the idempotent calls (login, backup download,
+	 * package list, node definition and upload status) failing with a
+	 * transport error or a 502, 503 or 504 response, 0 for none. This
+	 * property may be set by the <code>crx.http.retries</code>
+	 * @parameter expression="${crx.http.retries}" default-value="0"
+	 */
+	private int retries;
+
+	/**
+	 * Delay before the first retry in milliseconds, doubled on each retry up
+	 * to <code>retryMaxDelay</code>, of which a random half is jittered. This
+	 * property may be set by the <code>crx.http.retryDelay</code>
+	 * @parameter expression="${crx.http.retryDelay}" default-value="500"
+	 */
+	private long retryDelay = 500;
+
+	/**
+	 * Longest delay between two retries in milliseconds. This property may be
+	 * set by the <code>crx.http.retryMaxDelay</code>
+	 * @parameter expression="${crx.http.retryMaxDelay}" default-value="10000"
+	 */
+	private long retryMaxDelay = 10000;
+
+	/**
+	 * Number of consecutive failed calls after which a host is not called
+	 * anymore for <code>breakerOpenTime</code> seconds, every call failing at
+	 * once instead, 0 to keep calling. This property may be set by the
+	 * <code>crx.http.breakerThreshold</code>
+	 * @parameter expression="${crx.http.breakerThreshold}" default-value="0"
+	 */
+	private int breakerThreshold;
+
+	/**
+	 * Seconds a host is not called once <code>breakerThreshold</code> is
+	 * reached, after which one trial call is let through. This property may
+	 * be set by the <code>crx.http.breakerOpenTime</code>
+	 * @parameter expression="${crx.http.breakerOpenTime}" default-value="60"
+	 */
+	private int breakerOpenTime = 60;
+
+	/**
+	 * Hosts to deploy to concurrently. When empty the package is deployed to
+	 * <code>crxPath</code> only. Credentials and workspace left empty in a
+	 * target are taken from <code>login</code>, <code>password</code> and
+	 * <code>workspace</code>.
+	 * @parameter
+	 */
+	private CrxTarget[] targets;
+
+	/**
+	 * Maximum number of hosts deployed to at the same time. This property may be set by the
+	 * <code>crx.parallelism</code>
+	 * @parameter expression="${crx.parallelism}" default-value="4"
+	 */
+	private int parallelism = 4;
+
+	/**
+	 * When several targets are configured, decides which failures fail the build:
+	 * <code>all</code> (every host has to succeed), <code>quorum</code> (a majority
+	 * has to succeed) or <code>best-effort</code>. This property may be set by the
+	 * <code>crx.failurePolicy</code>
+	 * @parameter expression="${crx.failurePolicy}" default-value="all"
+	 */
+	private String failurePolicy = "all";
+
+	/**
+	 * Whether to skip the node removal, upload and install when the very same
+	 * package (same SHA-256) was already installed on the host by this plugin.
+	 * This property may be set by the <code>crxpackage.skipUnchanged</code>
+	 * @parameter expression="${crxpackage.skipUnchanged}" default-value="false"
+	 */
+	private boolean skipUnchanged;
+
+	/**
+	 * Ledger recording the digest of the packages installed on each host, used by
+	 * <code>skipUnchanged</code>. This property may be set by the
+	 * <code>crxpackage.ledger</code>
+	 * @parameter expression="${crxpackage.ledger}" default-value="${user.home}/.crx-packager/deployments.properties"
+	 */
+	private File deploymentLedger;
+
+	/**
+	 * When greater than 0, the package is uploaded in chunks of this many bytes
+	 * straight to its repository path, using the Sling chunked upload, and only
+	 * failed chunks are retried. This property may be set by the
+	 * <code>crxpackage.upload.chunkSize</code>
+	 * @parameter expression="${crxpackage.upload.chunkSize}" default-value="0"
+	 */
+	private long uploadChunkSize;
+
+	/**
+	 * Number of retries of a failed upload chunk. This property may be set by the
+	 * <code>crxpackage.upload.retries</code>
+	 * @parameter expression="${crxpackage.upload.retries}" default-value="3"
+	 */
+	private int uploadRetries = 3;
+
+	/**
+	 * Delay in milliseconds before the first retry of a chunk, doubled on each retry.
+	 * This property may be set by the <code>crxpackage.upload.retryDelay</code>
+	 * @parameter expression="${crxpackage.upload.retryDelay}" default-value="1000"
+	 */
+	private long uploadRetryDelay = 1000;
+
+	/**
+	 * Machine readable report of the deployment: per host outcome, phase
+	 * timings and throughput, and every HTTP call with its status, time and
+	 * size. This property may be set by the <code>crxpackage.report</code>
+	 * @parameter expression="${crxpackage.report}" default-value="${project.build.directory}/crx-deploy-report.json"
+	 */
+	private File reportFile;
+
+	/**
+	 * When set, the phase timings and call counts are also written to this file
+	 * in the Prometheus text format, e.g. <code>target/crx-deploy-metrics.prom</code>.
+	 * This property may be set by the <code>crxpackage.report.prometheus</code>
+	 * @parameter expression="${crxpackage.report.prometheus}"
+	 */
+	private File prometheusReportFile;
+
+	/**
+	 * Maximum number of independent subtrees of <code>deleteNodePaths</code>
+	 * removed at the same time. Nested paths are always removed one after the
+	 * other, and all removals are saved together once every path is done.
+	 * This property may be set by the <code>crxpackage.delete.parallelism</code>
+	 * @parameter expression="${crxpackage.delete.parallelism}" default-value="1"
+	 */
+	private int deleteParallelism = 1;
+
+	/**
+	 * Seconds between two progress reports while the install log is streamed
+	 * back by the server. This property may be set by the
+	 * <code>crxpackage.install.progressInterval</code>
+	 * @parameter expression="${crxpackage.install.progressInterval}" default-value="10"
+	 */
+	private int installProgressInterval = 10;
+
+	/**
+	 * Maximum duration of the install in seconds, 0 for no limit. The install
+	 * request is aborted and the build fails when it is exceeded. This property
+	 * may be set by the <code>crxpackage.install.timeout</code>
+	 * @parameter expression="${crxpackage.install.timeout}" default-value="0"
+	 */
+	private int installTimeout;
+
+	/**
+	 * Whether backups are kept in a content addressed store: each distinct
+	 * package content is written once under <code>blobs/</code> and every
+	 * timestamped backup is a hard link to it. This property may be set by the
+	 * <code>crxpackage.backup.deduplicate</code>
+	 * @parameter expression="${crxpackage.backup.deduplicate}" default-value="false"
+	 */
+	private boolean backupDeduplicate;
+
+	/**
+	 * Number of most recent backups of the package kept by the deduplicating
+	 * store, 0 for no limit. This property may be set by the
+	 * <code>crxpackage.backup.keep</code>
+	 * @parameter expression="${crxpackage.backup.keep}" default-value="0"
+	 */
+	private int backupKeep;
+
+	/**
+	 * Backups older than this many days are removed by the deduplicating store,
+	 * the latest one excepted, 0 for no limit. This property may be set by the
+	 * <code>crxpackage.backup.maxAge</code>
+	 * @parameter expression="${crxpackage.backup.maxAge}" default-value="0"
+	 */
+	private int backupMaxAge;
+
+	/**
+	 * Maximum disk use of the deduplicating store in megabytes, oldest backups
+	 * are removed first, 0 for no limit. This property may be set by the
+	 * <code>crxpackage.backup.maxSize</code>
+	 * @parameter expression="${crxpackage.backup.maxSize}" default-value="0"
+	 */
+	private long backupMaxSize;
+
+	/**
+	 * Whether to download the backup only when the remote package changed since
+	 * the last backup, judging by the package manager metadata and the
+	 * <code>ETag</code>/<code>Last-Modified</code> of the previous download,
+	 * kept in <code>&lt;name&gt;.backup.properties</code> next to the backups.
+	 * This property may be set by the <code>crxpackage.backup.ifChanged</code>
+	 * @parameter expression="${crxpackage.backup.ifChanged}" default-value="false"
+	 */
+	private boolean backupIfChanged;
+
+	/**
+	 * Whether to download the backup while the new package is uploaded, under
+	 * a <code>-staging</code> name. The staged package is moved to its final
+	 * name and installed only once both transfers are over and the backup is
+	 * verified to be a readable package; nodes are removed after that too.
+	 * This property may be set by the <code>crxpackage.backup.pipeline</code>
+	 * @parameter expression="${crxpackage.backup.pipeline}" default-value="false"
+	 */
+	private boolean backupPipeline;
+
+	/**
+	 * Whether to deploy a delta package holding only the filter roots changed
+	 * since the last deployment to the host. A copy of every deployed package
+	 * is kept in the <code>deployed</code> sub folder of the backup folder as
+	 * the base of the next delta; the full package is deployed when there is
+	 * none, or when the package definition changed. With backups or
+	 * <code>skipUnchanged</code> enabled, the full package is also uploaded,
+	 * not installed, after the delta install, so that the package they refer
+	 * to matches the installed content.
+	 * This property may be set by the <code>crxpackage.delta</code>
+	 * @parameter expression="${crxpackage.delta}" default-value="false"
+	 */
+	private boolean deltaDeploy;
+
+	/**
+	 * Whether to reuse the session of an earlier execution of this build on
+	 * the same host, user and workspace. The session is checked with one
+	 * request, a new login happens only once it expired.
+	 * This property may be set by the <code>crxpackage.reuseSession</code>
+	 * @parameter expression="${crxpackage.reuseSession}" default-value="false"
+	 */
+	private boolean reuseSession;
+
+	/**
+	 * Whether to deploy the packages of every module of the build together.
+	 * Each module registers its package and settings, the last module of the
+	 * build executing this goal deploys them all with one login, uploads them
+	 * at the same time and installs them in dependency order. In a parallel
+	 * build it first waits for the other modules executing this goal. The
+	 * settings of each package, e.g. its node removals, backup and delta
+	 * deployment, are the ones of its module; the targets, login, connection,
+	 * retry, upload parallelism, install parallelism, smoke check, backup
+	 * folder and report settings are the ones of the last module.
+	 * This property may be set by the <code>crxpackage.aggregate</code>
+	 * @parameter expression="${crxpackage.aggregate}" default-value="false"
+	 */
+	private boolean aggregate;
+
+	/**
+	 * Seconds the last module of an aggregated deployment waits for the other
+	 * modules to register their package; the build fails when one is missing.
+	 * This property may be set by the <code>crxpackage.aggregate.timeout</code>
+	 * @parameter expression="${crxpackage.aggregate.timeout}" default-value="3600"
+	 */
+	private int aggregateTimeout = 3600;
+
+	/**
+	 * Maximum number of packages of the aggregated deployment installed at the
+	 * same time, among packages that do not depend on each other.
+	 * This property may be set by the <code>crxpackage.installParallelism</code>
+	 * @parameter expression="${crxpackage.installParallelism}" default-value="1"
+	 */
+	private int installParallelism = 1;
+
+	/**
+	 * Maximum number of uploads and backup downloads running at the same time
+	 * against one host, across every module of a parallel build, 0 for no
+	 * limit. Waiting transfers are served in arrival order.
+	 * This property may be set by the <code>crxpackage.host.transfers</code>
+	 * @parameter expression="${crxpackage.host.transfers}" default-value="4"
+	 */
+	private int hostTransfers = 4;
+
+	/**
+	 * Maximum number of installs, and of removals or check-ins with their
+	 * <code>saveAll</code>, running at the same time against one host, across
+	 * every module of a parallel build, 0 for no limit. It also bounds
+	 * <code>installParallelism</code>.
+	 * This property may be set by the <code>crxpackage.host.writes</code>
+	 * @parameter expression="${crxpackage.host.writes}" default-value="1"
+	 */
+	private int hostWrites = 1;
+
+	/**
+	 * Urls requested once the package is installed, separated by commas,
+	 * semicolons or white space; paths are relative to the host of each
+	 * target, e.g. <code>/content/site/en.html</code>. Each url must answer
+	 * with <code>smokeStatus</code> within <code>smokeTimeout</code> seconds,
+	 * then is requested <code>smokeRequests</code> times to check its
+	 * latencies. This property may be set by the <code>crxpackage.smoke.urls</code>
+	 * @parameter expression="${crxpackage.smoke.urls}"
+	 */
+	private String smokeUrls;
+
+	/**
+	 * Number of timed requests per smoke check url. This property may be set
+	 * by the <code>crxpackage.smoke.requests</code>
+	 * @parameter expression="${crxpackage.smoke.requests}" default-value="10"
+	 */
+	private int smokeRequests = 10;
+
+	/**
+	 * Maximum number of smoke check requests at the same time. This property
+	 * may be set by the <code>crxpackage.smoke.parallelism</code>
+	 * @parameter expression="${crxpackage.smoke.parallelism}" default-value="4"
+	 */
+	private int smokeParallelism = 4;
+
+	/**
+	 * Seconds the smoke check urls have to become ready in after the install.
+	 * This property may be set by the <code>crxpackage.smoke.timeout</code>
+	 * @parameter expression="${crxpackage.smoke.timeout}" default-value="120"
+	 */
+	private int smokeTimeout = 120;
+
+	/**
+	 * The status every smoke check response must have. This property may be
+	 * set by the <code>crxpackage.smoke.status</code>
+	 * @parameter expression="${crxpackage.smoke.status}" default-value="200"
+	 */
+	private int smokeStatus = 200;
+
+	/**
+	 * Highest p95 latency of a smoke check url in milliseconds, 0 for no
+	 * limit. This property may be set by the <code>crxpackage.smoke.maxP95</code>
+	 * @parameter expression="${crxpackage.smoke.maxP95}" default-value="0"
+	 */
+	private long smokeMaxP95;
+
+	/**
+	 * Highest latency of a smoke check request in milliseconds, 0 for no
+	 * limit. This property may be set by the <code>crxpackage.smoke.maxLatency</code>
+	 * @parameter expression="${crxpackage.smoke.maxLatency}" default-value="0"
+	 */
+	private long smokeMaxLatency;
+
+	/**
+	 * Folder of the deployment history: every deployment appends the hash and
+	 * size of the package, the outcome and the phase timings to the file of
+	 * its host. The <code>history</code> goal reports on it.
+	 * This property may be set by the <code>crxpackage.history</code>
+	 * @parameter expression="${crxpackage.history}" default-value="${user.home}/.crx-packager/history"
+	 */
+	private File historyFolder;
+
+	/**
+	 * Whether not to record the deployment in the history.
+	 * This property may be set by the <code>crxpackage.history.skip</code>
+	 * @parameter expression="${crxpackage.history.skip}" default-value="false"
+	 */
+	private boolean skipHistory;
+
+	/**
+	 * The module being built.
+	 * @parameter expression="${project}"
+	 * @readonly
+	 */
+	private MavenProject project;
+
+	/**
+	 * The modules of the build, in build order.
+	 * @parameter expression="${reactorProjects}"
+	 * @readonly
+	 */
+	private List<MavenProject> reactorProjects;
+
+	/**
+	 * The dependencies of the module, keyed by <code>groupId:artifactId</code>.
+	 * @parameter expression="${project.artifactMap}"
+	 * @readonly
+	 */
+	private Map<String, Artifact> artifactMap;
+
+	/**
+	 * Start of the build, telling the builds run by one JVM apart.
+	 * @parameter expression="${session.startTime}"
+	 * @readonly
+	 */
+	private Date buildStartTime;
+
+	/**
+	 * @parameter expression="${plugin.artifactId}"
+	 * @readonly
+	 */
+	private String pluginArtifactId;
+
+	/**
+	 * @parameter expression="${project.groupId}"
+	 * @readonly
+	 */
+	private String groupId;
+
+	/**
+	 * @parameter expression="${project.artifactId}"
+	 * @readonly
+	 */
+	private String artifactId;
+
 	/**
 	 * inherited.
 	 * 
@@ -186,626 +610,446 @@ public class CRXPackageInstallerPlugin extends AbstractMojo
 		if (skip)
 		{
 			getLog().info("Skipping crxpackage installation as instructed");
-			return;
-		}
-		
-		Cookie[] cookies = getCookies();
-		if (cookies != null)
-		{
-			getSession(cookies);
-			for (int i = 0; i < cookies.length; i++)
+			if (!aggregate)
 			{
-				getLog().info(cookies[i].getName() + "=" + cookies[i].getValue());
+				// an aggregated deployment does not wait for this module
+				DeploymentPlan.getShared(buildStartTime).arrive(getModuleId());
+				return;
 			}
-			if (enableBackup)
+		}
+		else if (!aggregate)
+		{
+			DeploymentPlan.getShared(buildStartTime).arrive(getModuleId());
+		}
+
+		DeploymentOptions options = getDeploymentOptions();
+		// a module without package only takes part in an aggregated deployment
+		if (!skip && validate && !backupOnly && !skipInstall && !(aggregate && !new File(jarfile).isFile()))
+		{
+			PackageValidator validator = new PackageValidator(new File(jarfile), getLog());
+			try
 			{
-				backUp(cookies);
+				validator.validate(deleteNodePaths);
 			}
-			if (!backupOnly)
+			catch (MojoExecutionException e)
 			{
-				if (deleteNodePaths != null && deleteNodePaths.startsWith("/"))
+				if (aggregate)
 				{
-					StringTokenizer paths = new StringTokenizer(deleteNodePaths, ";");
-					while (paths.hasMoreTokens())
-					{
-						deleteNode(cookies, paths.nextToken());
-					}
-					saveAll(cookies);
+					DeploymentPlan.getShared(buildStartTime).fail(getModuleId(), e.getMessage());
 				}
-
-				// don't install anything, if this step is to be skipped
-				if (skipInstall)
+				throw e;
+			}
+			options.setPackageEntries(validator.getContentEntryCount());
+		}
+		// hashed once, for the ledger of every host and for the history
+		if (!skip && !backupOnly && (skipUnchanged || !skipHistory) && new File(jarfile).isFile())
+		{
+			try
+			{
+				options.setPackageDigest(DeploymentLedger.digest(new File(jarfile)));
+			}
+			catch (IOException e)
+			{
+				if (aggregate)
 				{
-					getLog().info("Skipping crxpackage installation as instructed");
-					return;
+					DeploymentPlan.getShared(buildStartTime).fail(getModuleId(), e.getMessage());
 				}
-				else
+				throw new MojoExecutionException("Error computing the digest of " + jarfile, e);
+			}
+		}
+		List<PlannedPackage> plan = null;
+		if (aggregate)
+		{
+			plan = register(options);
+			if (plan == null)
+			{
+				if (!skip)
 				{
-					uploadPackage(cookies);
-					installPackage(cookies);
+					getLog().info("Package " + jarfile + " registered, the last module of the build deploys it");
 				}
-				checkin(cookies);
+				return;
 			}
 		}
-	}
-	
-	private void checkin(Cookie[] cookies) throws MojoExecutionException
-	{
-		if (deleteNodePaths != null && deleteNodePaths.startsWith("/"))
-		{
-			HttpClient client = new HttpClient();
-			client.getState().setCookiePolicy(CookiePolicy.COMPATIBILITY);
-			client.getState().addCookies(cookies);
-			client.getHttpConnectionManager().getParams().setConnectionTimeout(
-					CONNECTION_DEFAULT_TIMEOUT);
-			
-			StringTokenizer paths = new StringTokenizer(deleteNodePaths, ";");
-			while (paths.hasMoreTokens())
-			{
-				String[] pathes = paths.nextToken().split(",");
 
-				for (String path : pathes)
+		if (targets == null || targets.length == 0)
+		{
+			CrxTarget target = new CrxTarget(crxPath, login, password, workspace);
+			DeploymentResult result = createDeployment(target, options, plan, backupFolder, getLog()).call();
+			writeReports(Collections.singletonList(result), plan);
+			recordHistory(Collections.singletonList(result), options, plan);
+			if (!result.isSuccessful())
+			{
+				if (result.getError() instanceof MojoExecutionException)
 				{
-					try
-					{
-						if (isVersionable(cookies, path, client))
-						{
-							getLog().info("Node at : " + path + " is mix:versionable.");
-							checkin(cookies, path, client);
-						}
-					}
-					catch (Exception e)
-					{
-						getLog().error("ERROR: " + e.getClass().getName() + " " + e.getMessage());
-					}
+					throw (MojoExecutionException) result.getError();
 				}
+				throw new MojoExecutionException(result.getError().getMessage(), result.getError());
 			}
-			saveAll(cookies);
+			return;
 		}
-	}
-	
-	/**
-	 * Get the path to install the package to.
-	 * @param file package file
-	 * @return the path to install the package to.
-	 */
-	private String getPackagePath(File file)
-	{
-		return StringUtils.isNotEmpty(this.packagePath) ?
-				this.packagePath + "/" + file.getName() : "/etc/packages/" + file.getName();
-	}
 
-	/**
-	 * @return the cookies return from this request on the login page.
-	 * @throws MojoExecutionException
-	 *             if any error occurs during this process.
-	 */
-	private Cookie[] getCookies() throws MojoExecutionException
-	{
-		Cookie[] cookie = null;
-		GetMethod loginGet = new GetMethod(crxPath + "/login.jsp");
-		loginGet.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
+		FailurePolicy policy;
 		try
 		{
-			getLog().info("login to " + loginGet.getURI());
-			HttpClient client = new HttpClient();
-			client.getHttpConnectionManager().getParams().setConnectionTimeout(CONNECTION_DEFAULT_TIMEOUT);
-			int status = client.executeMethod(loginGet);
-			// log the status
-			getLog().info("Response status: " + status + ", statusText: " + HttpStatus.getStatusText(status) + "\r\n");
-			if (status == HttpStatus.SC_OK)
-			{
-				getLog().info("Login page accessed");
-				cookie = client.getState().getCookies();
-			}
-			else
-			{
-				logResponseDetails(loginGet);
-				throw new MojoExecutionException("Login failed, response=" + HttpStatus.getStatusText(status));
-			}
+			policy = FailurePolicy.parse(failurePolicy);
 		}
-		catch (Exception ex)
+		catch (IllegalArgumentException e)
 		{
-			getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
-			throw new MojoExecutionException(ex.getMessage());
+			throw new MojoExecutionException("Unknown failurePolicy " + failurePolicy
+					+ ", expected all, quorum or best-effort");
 		}
-		finally
+
+		List<DeploymentResult> results = deployAll(options, plan);
+		writeReports(results, plan);
+		recordHistory(results, options, plan);
+		int succeeded = logResults(results);
+		if (policy.isFailure(succeeded, results.size()))
 		{
-			loginGet.releaseConnection();
+			throw new MojoExecutionException("Deployment failed on " + (results.size() - succeeded) + " of "
+					+ results.size() + " hosts, failure policy is " + failurePolicy);
 		}
-		return cookie;
 	}
 
 	/**
-	 * @param cookies
-	 *            get a session using the same existing previously requested
-	 *            response cookies.
-	 * @throws MojoExecutionException
-	 *             if any error occurred during this process.
+	 * @return the host independent settings of this execution.
 	 */
-	@SuppressWarnings("deprecation")
-	private void getSession(final Cookie[] cookies) throws MojoExecutionException
+	private DeploymentOptions getDeploymentOptions()
 	{
-		PostMethod loginPost = new PostMethod(crxPath + "/login.jsp");
-		loginPost.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
-		try
-		{
-			getLog().info("login to " + loginPost.getPath());
-			loginPost.setParameter("Workspace", workspace);
-			loginPost.setParameter("UserId", login);
-			loginPost.setParameter("Password", password);
-			HttpClient client = new HttpClient();
-			client.getState().setCookiePolicy(CookiePolicy.COMPATIBILITY);
-			client.getState().addCookies(cookies);
-			client.getHttpConnectionManager().getParams().setConnectionTimeout(CONNECTION_DEFAULT_TIMEOUT);
-			int status = client.executeMethod(loginPost);
-			// log the status
-			getLog().info("Response status: " + status + ", statusText: " + HttpStatus.getStatusText(status) + "\r\n");
-			if (status == HttpStatus.SC_MOVED_TEMPORARILY)
-			{
-				getLog().info("Login successful");
-			}
-			else
-			{
-				logResponseDetails(loginPost);
-				throw new MojoExecutionException("Login failed, response=" + HttpStatus.getStatusText(status));
-			}
-		}
-		catch (Exception ex)
-		{
-			getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
-			throw new MojoExecutionException(ex.getMessage());
-		}
-		finally
+		DeploymentOptions options = new DeploymentOptions();
+		options.setJarfile(jarfile);
+		options.setDeleteNodePaths(deleteNodePaths);
+		options.setPackagePath(packagePath);
+		options.setAclIgnore(aclIgnore);
+		options.setEnableBackup(enableBackup);
+		options.setBackupOnly(backupOnly);
+		options.setSkipInstall(skipInstall);
+		options.setMaxConnections(maxConnections);
+		options.setConnectionTimeout(connectionTimeout);
+		options.setSocketTimeout(socketTimeout);
+		options.setRetryPolicy(retries > 0 ? new RetryPolicy(retries, retryDelay, retryMaxDelay) : null);
+		options.setBreakerThreshold(breakerThreshold);
+		options.setBreakerOpenTime(breakerOpenTime * 1000L);
+		options.setUploadChunkSize(uploadChunkSize);
+		options.setUploadRetries(uploadRetries);
+		options.setUploadRetryDelay(uploadRetryDelay);
+		options.setDeleteParallelism(deleteParallelism);
+		options.setInstallProgressInterval(installProgressInterval * 1000L);
+		options.setInstallTimeout(installTimeout * 1000L);
+		options.setBackupDeduplicate(backupDeduplicate);
+		options.setBackupKeep(backupKeep);
+		options.setBackupMaxAge(backupMaxAge);
+		options.setBackupMaxSize(backupMaxSize * 1024 * 1024);
+		options.setBackupIfChanged(backupIfChanged);
+		options.setBackupPipeline(backupPipeline);
+		options.setDeltaDeploy(deltaDeploy);
+		options.setSessionCache(reuseSession ? SessionCache.getShared() : null);
+		options.setInstallParallelism(installParallelism);
+		options.setHostCoordinator(hostTransfers > 0 || hostWrites > 0 ? HostCoordinator.getShared() : null);
+		options.setHostTransfers(hostTransfers);
+		options.setHostWrites(hostWrites);
+		options.setSmokeUrls(smokeUrls);
+		options.setSmokeRequests(smokeRequests);
+		options.setSmokeParallelism(smokeParallelism);
+		options.setSmokeTimeout(smokeTimeout * 1000L);
+		options.setSmokeStatus(smokeStatus);
+		options.setSmokeMaxP95(smokeMaxP95);
+		options.setSmokeMaxLatency(smokeMaxLatency);
+		if (skipUnchanged)
 		{
-			loginPost.releaseConnection();
+			options.setLedger(new DeploymentLedger(deploymentLedger));
 		}
+		return options;
 	}
 
 	/**
-	 * @param cookies
-	 *            the previous requests cookies to keep in the same session.
-	 * @throws MojoExecutionException
-	 *             if any error occurs during this process.
+	 * Registers the package of this module in the shared deployment plan. The
+	 * last module taking part waits for the others, then takes the plan, even
+	 * if it is skipped itself.
+	 * @param options the settings of this module
+	 * @return the packages to deploy if this is the last module of the build,
+	 *         <code>null</code> otherwise.
+	 * @throws MojoExecutionException if the plan was already deployed, or a module failed or did not arrive in time
 	 */
-	@SuppressWarnings("deprecation")
-	private void uploadPackage(final Cookie[] cookies) throws MojoExecutionException
+	private List<PlannedPackage> register(DeploymentOptions options) throws MojoExecutionException
 	{
-		PostMethod filePost = new PostMethod(crxPath + "/packmgr/list.jsp");
-		filePost.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
-		try
+		String module = getModuleId();
+		int order = reactorProjects == null ? 0 : reactorProjects.indexOf(project);
+		List<String> modules = getAggregatedModules();
+		DeploymentPlan plan = DeploymentPlan.getShared(buildStartTime);
+		plan.expect(modules);
+		if (skip)
+		{
+			plan.arrive(module);
+		}
+		else if (new File(jarfile).isFile())
 		{
-			getLog().info("Uploading " + jarfile + " to " + filePost.getPath());
-			File jarFile = new File(jarfile);
-			Part[] parts = { new FilePart("file", jarFile) };
-			filePost.setRequestEntity(new MultipartRequestEntity(parts, filePost.getParams()));
-			HttpClient client = new HttpClient();
-			client.getState().setCookiePolicy(CookiePolicy.COMPATIBILITY);
-			client.getState().addCookies(cookies);
-			client.getHttpConnectionManager().getParams().setConnectionTimeout(CONNECTION_DEFAULT_TIMEOUT);
-			int status = client.executeMethod(filePost);
-			// log the status
-			getLog().info("Response status: " + status + ", statusText: " + HttpStatus.getStatusText(status) + "\r\n");
-			if (status == HttpStatus.SC_MOVED_TEMPORARILY)
+			Set<String> dependencies = new HashSet<String>();
+			if (artifactMap != null)
 			{
-				getLog().info("Upload complete");
+				dependencies.addAll(artifactMap.keySet());
 			}
-			else
+			try
 			{
-				logResponseDetails(filePost);
-				throw new MojoExecutionException("Package upload failed, response=" + HttpStatus.getStatusText(status));
+				plan.add(new PlannedPackage(module, order, dependencies, options));
+			}
+			catch (IllegalStateException e)
+			{
+				throw new MojoExecutionException(e.getMessage());
 			}
 		}
-		catch (Exception ex)
+		else
 		{
-			getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
-			throw new MojoExecutionException(ex.getMessage());
+			getLog().info("No package " + jarfile + " in this module");
+			plan.arrive(module);
 		}
-		finally
+		if (!module.equals(modules.get(modules.size() - 1)))
 		{
-			filePost.releaseConnection();
+			return null;
 		}
-	}
 
-	/**
-	 * Logs response details to debug and logs error message as error if found
-	 * @param filePost
-	 * @throws IOException
-	 */
-	private void logResponseDetails(HttpMethodBase filePost) throws IOException
-	{
-		InputStream stream = filePost.getResponseBodyAsStream();
-		if (stream == null)
+		Set<String> missing;
+		try
 		{
-			throw new IOException("Null response stream");
+			missing = plan.awaitModules(aggregateTimeout * 1000L, getLog());
 		}
-
-		String responseBody = IOUtils.toString(stream);
-		getLog().debug("Response body: " + responseBody);
-
-		String errorPattern = "(?<=<span class=\"error_line\">)(.+)(?=</span>)";
-		Pattern regex = Pattern.compile(errorPattern, Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.MULTILINE);
-		Matcher matcher = regex.matcher(responseBody);
-
-		StringBuilder errorMessage = new StringBuilder();
-
-		while (matcher.find())
+		catch (InterruptedException e)
 		{
-			errorMessage.append(matcher.group() + " ");
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while waiting for the modules of the build");
 		}
-
-		if (!StringUtils.isEmpty(errorMessage.toString()))
+		if (!plan.getFailures().isEmpty())
+		{
+			throw new MojoExecutionException("Not deploying the packages of the build, modules failed: "
+					+ plan.getFailures());
+		}
+		if (!missing.isEmpty())
 		{
-			getLog().error(errorMessage.toString());
+			throw new MojoExecutionException("Modules " + missing + " did not register their package within "
+					+ aggregateTimeout + " s, not deploying the packages of the build");
 		}
+		return plan.drain(module);
 	}
 
 	/**
-	 * @param cookies
-	 *            the previous request response existing cookies to keep the
-	 *            session information.
-	 * @throws MojoExecutionException
-	 *             in case of any errors during this process.
+	 * @return the modules taking part in the aggregated deployment, in build
+	 *         order: the ones binding this goal, or every module of the build
+	 *         when the goal is run from the command line.
 	 */
-	@SuppressWarnings("deprecation")
-	private void installPackage(final Cookie[] cookies) throws MojoExecutionException
+	private List<String> getAggregatedModules()
 	{
-		File file = new File(jarfile);
-		String url = crxPath + "/packmgr/unpack.jsp?Path=" + getPackagePath(file)
-				+ (aclIgnore ? "" : "&acHandling=overwrite");
-
-		GetMethod loginPost = new GetMethod(url);
-		loginPost.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
-		try
+		if (reactorProjects == null)
 		{
-			getLog().info("installing: " + url);
-			HttpClient client = new HttpClient();
-			client.getState().setCookiePolicy(CookiePolicy.COMPATIBILITY);
-			client.getState().addCookies(cookies);
-			client.getHttpConnectionManager().getParams().setConnectionTimeout(CONNECTION_DEFAULT_TIMEOUT);
-			int status = client.executeMethod(loginPost);
-			// log the status
-			getLog().info("Response status: " + status + ", statusText: " + HttpStatus.getStatusText(status) + "\r\n");
-			// if it's ok, proceed
-			if (status == HttpStatus.SC_OK)
-			{
-				InputStream response = loginPost.getResponseBodyAsStream();
-				if (response != null)
-				{
-					String responseBody = IOUtils.toString(response);
-					if (responseBody.contains("Package installed in"))
-					{
-						getLog().info("Install successful");
-					}
-					else
-					{
-						logResponseDetails(loginPost);
-						throw new MojoExecutionException("Error installing package on crx");
-					}
-				}
-				else
-				{
-					throw new MojoExecutionException("Null response when installing package on crx");
-				}
-			}
-			else
-			{
-				logResponseDetails(loginPost);
-				throw new MojoExecutionException("Installation failed");
-			}
+			return Collections.singletonList(getModuleId());
 		}
-		catch (Exception ex)
+		List<String> bound = new ArrayList<String>();
+		List<String> all = new ArrayList<String>();
+		for (MavenProject reactorProject : reactorProjects)
 		{
-			getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
-			throw new MojoExecutionException(ex.getMessage());
-		}
-		finally
-		{
-			loginPost.releaseConnection();
+			String id = reactorProject.getGroupId() + ":" + reactorProject.getArtifactId();
+			all.add(id);
+			if (isGoalBound(reactorProject))
+			{
+				bound.add(id);
+			}
 		}
+		return bound.contains(getModuleId()) ? bound : all;
 	}
 
 	/**
-	 * @param cookies
-	 *            the previous request response existing cookies to keep the
-	 *            session information.
-	 * @param path
-	 *            the node path to delete.
-	 * @throws MojoExecutionException
-	 *             in case of any errors during this process.
+	 * @return whether a module binds the <code>post</code> goal of this plugin to its build.
 	 */
-	@SuppressWarnings("deprecation")
-	private void deleteNode(final Cookie[] cookies, final String pathInput) throws MojoExecutionException
+	private boolean isGoalBound(MavenProject reactorProject)
 	{
-		String[] pathes = pathInput.split(",");
-
-		for (String path : pathes)
+		for (Object buildPlugin : reactorProject.getBuildPlugins())
 		{
-			GetMethod removeCall = new GetMethod(crxPath + "/browser/delete_recursive.jsp?Path=" + path
-					+ "&action=delete");
-			removeCall.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
-			try
+			Plugin plugin = (Plugin) buildPlugin;
+			if (!plugin.getArtifactId().equals(pluginArtifactId))
 			{
-				getLog().info("removing " + path);
-				getLog().info(crxPath + "/browser/delete_recursive.jsp?Path=" + path + "&action=delete");
-
-				HttpClient client = new HttpClient();
-				client.getState().setCookiePolicy(CookiePolicy.COMPATIBILITY);
-				client.getState().addCookies(cookies);
-				client.getHttpConnectionManager().getParams().setConnectionTimeout(CONNECTION_DEFAULT_TIMEOUT);
-				removeCall.setFollowRedirects(false);
-
-				if (isVersionable(cookies, path, client))
-				{
-					getLog().info("Node at : " + path + " is mix:versionable.");
-					checkout(cookies, path, client);
-				}
-
-				else
-				{
-					
-					getLog().info("removing " + path);
-					getLog().info(
-							crxPath + "/browser/delete_recursive.jsp?Path="
-									+ path + "&action=delete");
-
-					int status = client.executeMethod(removeCall);
-
-					if (status == HttpStatus.SC_OK)
-					{
-						getLog().info("Node deleted");
-						// log the status
-						getLog().info(
-								"Response status: " + status
-										+ ", statusText: "
-										+ HttpStatus.getStatusText(status)
-										+ "\r\n");
-					}
-					else
-					{
-						logResponseDetails(removeCall);
-						throw new MojoExecutionException("Removing node "
-								+ path + " failed, response="
-								+ HttpStatus.getStatusText(status));
-					}
-					getLog().info(
-							"Response status: " + status + ", statusText: "
-									+ HttpStatus.getStatusText(status)
-									+ "\r\n");
-				}
+				continue;
 			}
-			catch (Exception ex)
+			for (Object execution : plugin.getExecutions())
 			{
-				getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
-				throw new MojoExecutionException(ex.getMessage());
-			}
-			finally
-			{
-				removeCall.releaseConnection();
+				if (((PluginExecution) execution).getGoals().contains("post"))
+				{
+					return true;
+				}
 			}
 		}
+		return false;
+	}
 
+	private String getModuleId()
+	{
+		return groupId + ":" + artifactId;
+	}
+
+	/**
+	 * @return the deployment of this module's package, or of the plan if given, to a host.
+	 */
+	private HostDeployment createDeployment(CrxTarget target, DeploymentOptions options,
+			List<PlannedPackage> plan, File hostBackupFolder, Log log)
+	{
+		if (plan != null)
+		{
+			return new PlanDeployer(target, plan, options, hostBackupFolder, log);
+		}
+		return new CrxPackageDeployer(target, options, hostBackupFolder, log);
 	}
 
 	/**
-	 * @param cookies
-	 *            the previous request response existing cookies to keep the
-	 *            session information.
-	 * @throws MojoExecutionException
-	 *             in case of any errors during this process.
+	 * Deploys to every configured target using a bounded pool of workers.
+	 * Each host keeps its backups in its own sub folder of <code>backupFolder</code>.
+	 * @param options the host independent settings
+	 * @param plan the packages of the build to deploy, <code>null</code> to deploy this module's one
+	 * @return one result per target, in configuration order
+	 * @throws MojoExecutionException if the deployment is interrupted
 	 */
-	@SuppressWarnings("deprecation")
-	private void saveAll(final Cookie[] cookies) throws MojoExecutionException
+	private List<DeploymentResult> deployAll(DeploymentOptions options, List<PlannedPackage> plan)
+			throws MojoExecutionException
 	{
-		GetMethod savePost = new GetMethod(crxPath + "/browser/content.jsp?Path=/&action_ops=saveAll");
-		savePost.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
+		CrxTarget defaults = new CrxTarget(crxPath, login, password, workspace);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, targets.length)));
 		try
 		{
-			getLog().info("save all changes");
-			HttpClient client = new HttpClient();
-			client.getState().setCookiePolicy(CookiePolicy.COMPATIBILITY);
-			client.getState().addCookies(cookies);
-			client.getHttpConnectionManager().getParams().setConnectionTimeout(CONNECTION_DEFAULT_TIMEOUT);
-			int status = client.executeMethod(savePost);
-			// log the status
-			getLog().info("Response status: " + status + ", statusText: " + HttpStatus.getStatusText(status) + "\r\n");
-			if (status == HttpStatus.SC_OK)
+			List<Future<DeploymentResult>> futures = new ArrayList<Future<DeploymentResult>>();
+			for (int i = 0; i < targets.length; i++)
 			{
-				getLog().info("All changes saved");
+				CrxTarget target = targets[i].inherit(defaults);
+				File hostBackupFolder = new File(backupFolder, target.getId());
+				futures.add(executor.submit(createDeployment(target, options, plan, hostBackupFolder,
+						new PrefixedLog(getLog(), target.getId()))));
 			}
-			else
+
+			List<DeploymentResult> results = new ArrayList<DeploymentResult>();
+			for (Future<DeploymentResult> future : futures)
 			{
-				logResponseDetails(savePost);
-				throw new MojoExecutionException("save all changes failed, response="
-						+ HttpStatus.getStatusText(status));
+				results.add(future.get());
 			}
+			return results;
 		}
-		catch (Exception ex)
+		catch (InterruptedException e)
 		{
-			getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
-			throw new MojoExecutionException(ex.getMessage());
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Deployment interrupted", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new MojoExecutionException("Deployment failed", e.getCause());
 		}
 		finally
 		{
-			savePost.releaseConnection();
+			executor.shutdownNow();
 		}
 	}
 
-	private boolean isVersionable(final Cookie[] cookies, String path, HttpClient client) throws HttpException,
-			IOException, MojoExecutionException
+	/**
+	 * Writes the JSON report and, if configured, the Prometheus one. Failing to
+	 * write them does not fail the build.
+	 * @param results one result per host
+	 * @param plan the aggregated packages, <code>null</code> if only this module's package was deployed
+	 */
+	private void writeReports(List<DeploymentResult> results, List<PlannedPackage> plan)
 	{
-		GetMethod definitionCall = new GetMethod(crxPath + "/browser/definition.jsp?Path=" + path);
-		definitionCall.setFollowRedirects(false);
-
-		getLog().info("Getting definitions for node : " + path);
-		getLog().info(crxPath + "/browser/definition.jsp?Path=" + path);
-
-		int status = client.executeMethod(definitionCall);
-
-		if (status == HttpStatus.SC_OK)
+		List<File> packages = new ArrayList<File>();
+		if (plan == null)
 		{
-			getLog().info("Successfully retrieved node definition.");
+			packages.add(new File(jarfile));
 		}
 		else
 		{
-			logResponseDetails(definitionCall);
-			throw new MojoExecutionException("Getting definitions for node " + path + " failed, response="
-					+ HttpStatus.getStatusText(status));
+			for (PlannedPackage planned : plan)
+			{
+				packages.add(new File(planned.getOptions().getJarfile()));
+			}
 		}
-
-		String response = definitionCall.getResponseBodyAsString().toLowerCase();
-
-		return StringUtils.contains(response, "mix:versionable");
-	}
-
-	private void checkout(final Cookie[] cookies, String path, HttpClient client) throws HttpException, IOException,
-			MojoExecutionException
-	{
-		getLog().info("Checking out " + path);
-		getLog().info(crxPath + "/browser/content.jsp?Path=" + path + "&action_ops=checkout");
-
-		PostMethod checkoutCall = new PostMethod(crxPath + "/browser/content.jsp");
-		checkoutCall.setFollowRedirects(false);
-
-		checkoutCall.addParameter("Path", path);
-		checkoutCall.addParameter("action_ops", "checkout");
-
-		int status = client.executeMethod(checkoutCall);
-
-		if (status == HttpStatus.SC_OK)
+		DeploymentReport report = new DeploymentReport(packages, results);
+		try
 		{
-			getLog().info("Successfully checked out.\r\n");
+			if (reportFile != null)
+			{
+				report.writeJson(reportFile);
+				getLog().info("Deployment report written to " + reportFile.getAbsolutePath());
+			}
+			if (prometheusReportFile != null)
+			{
+				report.writePrometheus(prometheusReportFile);
+				getLog().info("Deployment metrics written to " + prometheusReportFile.getAbsolutePath());
+			}
 		}
-		else
+		catch (IOException e)
 		{
-			logResponseDetails(checkoutCall);
-			throw new MojoExecutionException("Removing node " + path + " failed, response="
-					+ HttpStatus.getStatusText(status));
+			getLog().warn("Could not write the deployment report: " + e.getMessage());
 		}
 	}
 
-	private void checkin(final Cookie[] cookies, String path, HttpClient client)
-		throws HttpException, IOException, MojoExecutionException
+	/**
+	 * Appends the deployment to the history of every host. Failing to write
+	 * it does not fail the build.
+	 * @param results one result per host
+	 * @param options the settings of this execution, holding the digest of its package
+	 * @param plan the aggregated packages, <code>null</code> if only this module's package was deployed
+	 */
+	private void recordHistory(List<DeploymentResult> results, DeploymentOptions options, List<PlannedPackage> plan)
 	{
-		getLog().info("Checking in " + path);
-		getLog().info(
-				crxPath + "/browser/content.jsp?Path=" + path + "&action_ops=checkin");
-		
-		PostMethod checkinCall = new PostMethod(crxPath + "/browser/content.jsp");
-		checkinCall.setFollowRedirects(false);
-		
-		checkinCall.addParameter("Path", path);
-		checkinCall.addParameter("action_ops", "checkin");
-		
-		int status = client.executeMethod(checkinCall);
-		
-		if (status == HttpStatus.SC_OK)
-		{
-			getLog().info("Successfully checked in.\r\n");
+		if (skipHistory || historyFolder == null)
+		{
+			return;
 		}
-		else
+		Map<File, String> packages = new LinkedHashMap<File, String>();
+		if (plan == null)
 		{
-			logResponseDetails(checkinCall);
-			throw new MojoExecutionException("Removing node " + path + " failed, response="
-					+ HttpStatus.getStatusText(status));
+			packages.put(new File(jarfile), options.getPackageDigest());
 		}
-	}
-	
-	@SuppressWarnings("deprecation")
-	private void backUp(final Cookie[] cookies) throws MojoExecutionException
-	{
-		checkBackupFolder();
-		File file = new File(jarfile);
-		GetMethod backupPost = new GetMethod(crxPath + "/packmgr/service.jsp?cmd=get&_charset_=utf8&name="
-				+ FilenameUtils.getBaseName(file.getName()));
-		backupPost.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
-		try
+		else
 		{
-			getLog().info("backing up /etc/packages/" + file.getName());
-			HttpClient client = new HttpClient();
-			client.getState().setCookiePolicy(CookiePolicy.COMPATIBILITY);
-			client.getState().addCookies(cookies);
-			client.getHttpConnectionManager().getParams().setConnectionTimeout(CONNECTION_DEFAULT_TIMEOUT);
-			int status = client.executeMethod(backupPost);
-			// log the status
-			getLog().info("Response status: " + status + ", statusText: " + HttpStatus.getStatusText(status) + "\r\n");
-
-			String backUpFileName = formatbackUpFileName(file);
-
-			File backupFile = new File(backUpFileName);
-
-			if (status == HttpStatus.SC_OK)
+			for (PlannedPackage planned : plan)
 			{
-				copyStreamToFile(backupPost.getResponseBodyAsStream(), backupFile);
-				getLog().info("Back-up succesfull. The backup is " + backupFile.getAbsolutePath());
-			}
-			else
-			{
-				logResponseDetails(backupPost);
-				throw new MojoExecutionException("Back-up failed, response=" + HttpStatus.getStatusText(status));
+				packages.put(new File(planned.getOptions().getJarfile()), planned.getOptions().getPackageDigest());
 			}
 		}
-		catch (Exception ex)
+		try
 		{
-			getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
-			throw new MojoExecutionException(ex.getMessage());
+			new DeploymentHistory(historyFolder).record(packages, results);
+			getLog().debug("Deployment recorded in " + historyFolder.getAbsolutePath());
 		}
-		finally
+		catch (IOException e)
 		{
-			backupPost.releaseConnection();
+			getLog().warn("Could not record the deployment history: " + e.getMessage());
 		}
 	}
 
 	/**
-	 * Creates the name for the backup file.
-	 * @param file file
-	 * @return formatted file name
-	 */
-	private String formatbackUpFileName(File file)
-	{
-		String baseName = FilenameUtils.getBaseName(file.getName());
-		Calendar cal = Calendar.getInstance();
-		SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT_NOW);
-		String timeStamp = sdf.format(cal.getTime());
-		String backUpFileName = backupFolder.getAbsolutePath() + "/" + baseName + "_" + timeStamp + ".zip";
-		return backUpFileName;
-	}
-
-	/**
-	 * Performs checks on backup folder.
-	 * If backup folder does not exist, it attends to create it.
-	 * Then the folder is checked for write permission.
-	 * @throws MojoExecutionException exception
+	 * Logs one line per host with its outcome and duration.
+	 * @param results the results to log
+	 * @return the number of successful hosts
 	 */
-	private void checkBackupFolder() throws MojoExecutionException
+	private int logResults(List<DeploymentResult> results)
 	{
-		if (!backupFolder.exists())
+		int succeeded = 0;
+		getLog().info("Deployment results:");
+		for (DeploymentResult result : results)
 		{
-			try
+			String line = StringUtils.rightPad(result.getTarget().getCrxPath(), 40) + " "
+					+ StringUtils.rightPad(result.isSuccessful() ? "OK" : "FAILED", 7) + " "
+					+ StringUtils.leftPad(String.valueOf(result.getElapsedMillis()), 8) + " ms";
+			if (result.isSuccessful())
 			{
-				FileUtils.forceMkdir(backupFolder);
+				succeeded++;
+				getLog().info(line);
 			}
-			catch (IOException e)
+			else
 			{
-				getLog().error("Back-up failed. " + backupFolder.getAbsolutePath() + " cannot be created.");
-				throw new MojoExecutionException("Error backing up package " + jarfile, e);
+				getLog().error(line + " " + result.getError().getMessage());
 			}
 		}
-		if (!backupFolder.canWrite())
-		{
-			getLog().error("Back-up failed. " + backupFolder.getAbsolutePath() + " cannot be written.");
-			throw new MojoExecutionException("Error backing up package " + jarfile);
-		}
-
-		if (!backupFolder.isDirectory())
-		{
-			getLog().error("Back-up failed. " + backupFolder.getAbsolutePath() + " is not a directory.");
-			throw new MojoExecutionException("Error backing up package " + jarfile);
-		}
+		return succeeded;
 	}
 
 	/**
-	 * Copies stream to a file.
+	 * Copies stream to a file through the file channel. The source is a stream,
+	 * not a file, so the transfer is no zero-copy one: the JDK reads the
+	 * stream into a small buffer of its own and writes it to the file, but
+	 * the loop stays in the channel implementation and needs no buffer here.
 	 * @param input the input stream
 	 * @param destination  File to write to
 	 * @throws IOException exception
@@ -818,7 +1062,14 @@ public class CRXPackageInstallerPlugin extends AbstractMojo
 			FileOutputStream output = FileUtils.openOutputStream(destination);
 			try
 			{
-				IOUtils.copy(input, output);
+				FileChannel channel = output.getChannel();
+				ReadableByteChannel source = Channels.newChannel(input);
+				long position = 0;
+				long count;
+				while ((count = channel.transferFrom(source, position, TRANSFER_SIZE)) > 0)
+				{
+					position += count;
+				}
 			}
 			finally
 			{
@@ -0,0 +1,299 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import net.sf.json.JSONObject;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.multipart.FilePart;
+import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
+import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.StringPart;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Uploads a package in fixed size chunks using the Sling POST servlet chunked
+ * upload protocol (<code>name@Offset</code> and <code>name@Length</code>
+ * parameters). The repository joins the chunks into the file node once the
+ * last one is received. Each chunk is retried on its own with exponential
+ * backoff, and an interrupted upload left on the server by a previous run is
+ * resumed from the length the server reports. Once the last chunk is sent, the
+ * length of the joined file is checked; after a resume its SHA-256 is checked
+ * too, since the chunks stored before may come from another file of the same
+ * length, and the whole file is sent again if it differs.
+ */
+public class ChunkedUpload
+{
+	private final HttpClient client;
+
+	private final Log log;
+
+	private final String folderUrl;
+
+	private final File file;
+
+	private final long chunkSize;
+
+	private final int retries;
+
+	private final long retryDelay;
+
+	private final DeploymentMetrics metrics;
+
+	private String name;
+
+	/**
+	 * @param client the client holding the session
+	 * @param log the log to report progress to
+	 * @param folderUrl url of the repository folder the file is created in
+	 * @param file the file to upload
+	 * @param chunkSize size of each chunk in bytes
+	 * @param retries number of retries of a failed chunk
+	 * @param retryDelay delay before the first retry in milliseconds, doubled on each retry
+	 * @param metrics the metrics retries are counted in
+	 */
+	public ChunkedUpload(HttpClient client, Log log, String folderUrl, File file, long chunkSize, int retries,
+			long retryDelay, DeploymentMetrics metrics)
+	{
+		this.client = client;
+		this.log = log;
+		this.folderUrl = folderUrl;
+		this.file = file;
+		this.chunkSize = chunkSize;
+		this.retries = retries;
+		this.retryDelay = retryDelay;
+		this.metrics = metrics;
+		this.name = file.getName();
+	}
+
+	/**
+	 * @param name the name of the file node created in the folder, the local file name by default
+	 */
+	public void setName(String name)
+	{
+		this.name = name;
+	}
+
+	/**
+	 * Sends every chunk not yet stored on the server, then checks the file the server joined.
+	 * @throws MojoExecutionException if a chunk still fails after all retries, or the joined file differs
+	 */
+	public void upload() throws MojoExecutionException
+	{
+		long total = file.length();
+		long offset = getUploadedLength(total);
+		if (offset > 0)
+		{
+			log.info("Resuming upload of " + name + " at byte " + offset + " of " + total);
+		}
+		sendChunks(offset, total);
+		String difference = verify(total, offset > 0);
+		if (difference != null && offset > 0)
+		{
+			log.warn("Resumed upload of " + name + " does not match the local file, " + difference
+					+ ", uploading all of it again");
+			sendChunks(0, total);
+			difference = verify(total, true);
+		}
+		if (difference != null)
+		{
+			throw new MojoExecutionException("Upload of " + name + " does not match " + file + ", " + difference);
+		}
+		log.info("Upload complete");
+	}
+
+	private void sendChunks(long offset, long total) throws MojoExecutionException
+	{
+		long chunks = (total + chunkSize - 1) / chunkSize;
+		for (long position = offset; position < total; position += chunkSize)
+		{
+			sendChunk(position / chunkSize + 1, chunks, position, Math.min(chunkSize, total - position), total);
+		}
+	}
+
+	/**
+	 * Compares the file joined by the server with the local one: its length
+	 * and, if asked, its SHA-256, which takes downloading it.
+	 * @param total the length of the local file
+	 * @param compareDigest whether to compare the digests too
+	 * @return the difference found, <code>null</code> if none
+	 * @throws MojoExecutionException if the joined file cannot be read
+	 */
+	private String verify(long total, boolean compareDigest) throws MojoExecutionException
+	{
+		GetMethod contentGet = new GetMethod(folderUrl + "/" + name + "/jcr:content.json");
+		RetryPolicy.markIdempotent(contentGet);
+		try
+		{
+			int status = client.executeMethod(contentGet);
+			if (status != HttpStatus.SC_OK)
+			{
+				throw new MojoExecutionException("Cannot read the uploaded " + name + ", response="
+						+ HttpStatus.getStatusText(status));
+			}
+			// binary properties are rendered as their length
+			long length = JSONObject.fromObject(contentGet.getResponseBodyAsString()).optLong(":jcr:data", -1);
+			if (length != total)
+			{
+				return "the server holds " + length + " bytes instead of " + total;
+			}
+		}
+		catch (IOException e)
+		{
+			throw new MojoExecutionException("Cannot read the uploaded " + name + ": " + e.getMessage(), e);
+		}
+		finally
+		{
+			contentGet.releaseConnection();
+		}
+		if (!compareDigest)
+		{
+			return null;
+		}
+
+		GetMethod fileGet = new GetMethod(folderUrl + "/" + name);
+		RetryPolicy.markIdempotent(fileGet);
+		try
+		{
+			int status = client.executeMethod(fileGet);
+			if (status != HttpStatus.SC_OK)
+			{
+				throw new MojoExecutionException("Cannot download the uploaded " + name + ", response="
+						+ HttpStatus.getStatusText(status));
+			}
+			String remote = DeploymentLedger.digest(fileGet.getResponseBodyAsStream());
+			String local = DeploymentLedger.digest(file);
+			log.info("SHA-256 of the uploaded " + name + ": " + remote);
+			return remote.equals(local) ? null : "SHA-256 " + remote + " instead of " + local;
+		}
+		catch (IOException e)
+		{
+			throw new MojoExecutionException("Cannot download the uploaded " + name + ": " + e.getMessage(), e);
+		}
+		finally
+		{
+			fileGet.releaseConnection();
+		}
+	}
+
+	/**
+	 * Sends one chunk, retrying it with exponential backoff.
+	 */
+	private void sendChunk(long index, long chunks, long offset, long length, long total)
+			throws MojoExecutionException
+	{
+		long delay = retryDelay;
+		for (int attempt = 0;; attempt++)
+		{
+			long start = System.currentTimeMillis();
+			String failure;
+			PostMethod chunkPost = new PostMethod(folderUrl);
+			try
+			{
+				Part[] parts = {
+						new StringPart(name + "@Offset", String.valueOf(offset)),
+						new StringPart(name + "@Length", String.valueOf(total)),
+						new FilePart(name, new FileChunkPartSource(file, offset, length)) };
+				chunkPost.setRequestEntity(new MultipartRequestEntity(parts, chunkPost.getParams()));
+				int status = client.executeMethod(chunkPost);
+				if (status == HttpStatus.SC_OK || status == HttpStatus.SC_CREATED)
+				{
+					long elapsed = Math.max(1, System.currentTimeMillis() - start);
+					log.info("Chunk " + index + "/" + chunks + ": " + length + " bytes in " + elapsed + " ms ("
+							+ String.format("%.2f", DeploymentMetrics.megabytesPerSecond(length, elapsed))
+							+ " MB/s), retries: " + attempt);
+					return;
+				}
+				failure = "response=" + HttpStatus.getStatusText(status);
+			}
+			catch (IOException e)
+			{
+				failure = e.getClass().getName() + " " + e.getMessage();
+			}
+			finally
+			{
+				chunkPost.releaseConnection();
+			}
+
+			if (attempt >= retries)
+			{
+				throw new MojoExecutionException("Upload of chunk " + index + "/" + chunks + " failed after "
+						+ attempt + " retries, " + failure);
+			}
+			log.warn("Chunk " + index + "/" + chunks + " failed, " + failure + ", retrying in " + delay + " ms");
+			metrics.addRetry();
+			sleep(delay);
+			delay *= 2;
+		}
+	}
+
+	/**
+	 * Asks the server how much of an interrupted chunked upload of this file
+	 * it already stored.
+	 * @param total the length of the local file
+	 * @return the offset to resume at, 0 to start over
+	 */
+	private long getUploadedLength(long total)
+	{
+		GetMethod statusGet = new GetMethod(folderUrl + "/" + name + "/jcr:content.json");
+		RetryPolicy.markIdempotent(statusGet);
+		try
+		{
+			if (client.executeMethod(statusGet) != HttpStatus.SC_OK)
+			{
+				return 0;
+			}
+			JSONObject content = JSONObject.fromObject(statusGet.getResponseBodyAsString());
+			// only resume an upload of a file of the very same length, chunk aligned
+			long uploaded = content.optLong("sling:length");
+			if (content.optLong("sling:fileLength") == total && uploaded % chunkSize == 0 && uploaded < total)
+			{
+				return uploaded;
+			}
+			return 0;
+		}
+		catch (Exception e)
+		{
+			log.debug("No upload to resume: " + e.getMessage());
+			return 0;
+		}
+		finally
+		{
+			statusGet.releaseConnection();
+		}
+	}
+
+	private static void sleep(long millis) throws MojoExecutionException
+	{
+		try
+		{
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Upload interrupted", e);
+		}
+	}
+}
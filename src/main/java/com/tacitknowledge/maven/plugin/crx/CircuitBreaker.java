@@ -0,0 +1,127 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stops calling a host after a number of consecutive failed calls. While
+ * open, every call fails at once; once the open time elapsed a single trial
+ * call is let through, closing the breaker again if it succeeds. Breakers
+ * are kept per host for every execution of the plugin in this JVM.
+ */
+public class CircuitBreaker
+{
+	private static final Map<String, CircuitBreaker> SHARED = new HashMap<String, CircuitBreaker>();
+
+	private final String host;
+
+	private final int threshold;
+
+	private final long openTime;
+
+	private int failures;
+
+	private long openUntil;
+
+	private boolean trial;
+
+	/**
+	 * @param host the host url, for the error message
+	 * @param threshold consecutive failures opening the breaker
+	 * @param openTime milliseconds the breaker stays open
+	 */
+	public CircuitBreaker(String host, int threshold, long openTime)
+	{
+		this.host = host;
+		this.threshold = threshold;
+		this.openTime = openTime;
+	}
+
+	/**
+	 * @param target the host
+	 * @param threshold consecutive failures opening the breaker, 0 to never open; the first caller sets it
+	 * @param openTime milliseconds the breaker stays open; the first caller sets it
+	 * @return the breaker of the host shared by every execution of the plugin in this JVM, <code>null</code> if disabled
+	 */
+	public static CircuitBreaker getShared(CrxTarget target, int threshold, long openTime)
+	{
+		if (threshold <= 0)
+		{
+			return null;
+		}
+		synchronized (SHARED)
+		{
+			CircuitBreaker breaker = SHARED.get(target.getHostUrl());
+			if (breaker == null)
+			{
+				breaker = new CircuitBreaker(target.getHostUrl(), threshold, openTime);
+				SHARED.put(target.getHostUrl(), breaker);
+			}
+			return breaker;
+		}
+	}
+
+	/**
+	 * Lets a call through, or fails it while the breaker is open.
+	 * @throws IOException if the breaker is open
+	 */
+	public synchronized void check() throws IOException
+	{
+		if (failures < threshold)
+		{
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (now < openUntil || trial)
+		{
+			throw new IOException("Circuit open for " + host + " after " + failures
+					+ " consecutive failed calls, not calling it for another "
+					+ Math.max(0, openUntil - now) / 1000 + " s");
+		}
+		trial = true;
+	}
+
+	/**
+	 * Records the outcome of a call let through.
+	 * @param success <code>false</code> for a transport error or a transient error status
+	 */
+	public synchronized void record(boolean success)
+	{
+		trial = false;
+		if (success)
+		{
+			failures = 0;
+			return;
+		}
+		failures++;
+		if (failures >= threshold)
+		{
+			openUntil = System.currentTimeMillis() + openTime;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if calls currently fail at once.
+	 */
+	public synchronized boolean isOpen()
+	{
+		return failures >= threshold && (System.currentTimeMillis() < openUntil || trial);
+	}
+}
@@ -0,0 +1,87 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+/**
+ * Pooled connection manager shared by every step of one plugin execution.
+ * Keeps track of how many times a connection was taken from the pool already
+ * open (reused) versus how many times a fresh connection had to be opened.
+ */
+public class CountingConnectionManager extends MultiThreadedHttpConnectionManager
+{
+	private int opened;
+
+	private int reused;
+
+	/**
+	 * @param maxConnections maximum number of pooled connections per host
+	 * @param connectionTimeout connect timeout in milliseconds
+	 * @param socketTimeout socket read timeout in milliseconds, 0 means no timeout
+	 */
+	public CountingConnectionManager(int maxConnections, int connectionTimeout, int socketTimeout)
+	{
+		HttpConnectionManagerParams params = getParams();
+		params.setDefaultMaxConnectionsPerHost(maxConnections);
+		params.setMaxTotalConnections(Math.max(maxConnections, params.getMaxTotalConnections()));
+		params.setConnectionTimeout(connectionTimeout);
+		params.setSoTimeout(socketTimeout);
+		params.setStaleCheckingEnabled(true);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout)
+			throws ConnectionPoolTimeoutException
+	{
+		HttpConnection connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+		synchronized (this)
+		{
+			if (connection.isOpen())
+			{
+				reused++;
+			}
+			else
+			{
+				opened++;
+			}
+		}
+		return connection;
+	}
+
+	/**
+	 * @return number of connections that had to be opened.
+	 */
+	public synchronized int getOpenedCount()
+	{
+		return opened;
+	}
+
+	/**
+	 * @return number of requests served by an already open connection.
+	 */
+	public synchronized int getReusedCount()
+	{
+		return reused;
+	}
+}
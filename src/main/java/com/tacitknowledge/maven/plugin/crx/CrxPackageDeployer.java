@@ -0,0 +1,1953 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.ZipFile;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.httpclient.Cookie;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.cookie.CookiePolicy;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Runs the login, backup, delete, upload and install pipeline against one
+ * CRX host, using its own pooled client.
+ */
+public class CrxPackageDeployer implements HostDeployment
+{
+	private final CrxTarget target;
+
+	private final Log log;
+
+	private final String crxPath;
+
+	private final String login;
+
+	private final String password;
+
+	private final String workspace;
+
+	private final String jarfile;
+
+	private final String deleteNodePaths;
+
+	private final String packagePath;
+
+	private final boolean aclIgnore;
+
+	private final boolean enableBackup;
+
+	private final boolean backupOnly;
+
+	private final boolean skipInstall;
+
+	private final File backupFolder;
+
+	private final int maxConnections;
+
+	private final int connectionTimeout;
+
+	private final int socketTimeout;
+
+	private final DeploymentLedger ledger;
+
+	private final long uploadChunkSize;
+
+	private final int uploadRetries;
+
+	private final long uploadRetryDelay;
+
+	private final int deleteParallelism;
+
+	private final NodeDefinitionCache definitionCache;
+
+	private final long installProgressInterval;
+
+	private final long installTimeout;
+
+	private final boolean backupDeduplicate;
+
+	private final int backupKeep;
+
+	private final int backupMaxAge;
+
+	private final long backupMaxSize;
+
+	private final boolean backupIfChanged;
+
+	private final boolean deltaDeploy;
+
+	private final SessionCache sessionCache;
+
+	private final HostCoordinator hostCoordinator;
+
+	private final int hostTransfers;
+
+	private final int hostWrites;
+
+	private final RetryPolicy retryPolicy;
+
+	private final int breakerThreshold;
+
+	private final long breakerOpenTime;
+
+	private final boolean backupPipeline;
+
+	private final int packageEntries;
+
+	private final String smokeUrls;
+
+	private final int smokeRequests;
+
+	private final int smokeParallelism;
+
+	private final long smokeTimeout;
+
+	private final int smokeStatus;
+
+	private final long smokeMaxP95;
+
+	private final long smokeMaxLatency;
+
+	/**
+	 * The backup downloaded alongside the upload, <code>null</code> if none is running.
+	 */
+	private FutureTask<Long> pendingBackup;
+
+	/**
+	 * The backup written by the last download, <code>null</code> if the previous one is still current.
+	 */
+	private File lastBackup;
+
+	/**
+	 * Whether the package is uploaded under its staging name, to be moved to
+	 * its final name once the backup is verified.
+	 */
+	private boolean staged;
+
+	/**
+	 * The package uploaded and installed: the jar file itself or its delta.
+	 */
+	private File deployFile;
+
+	/**
+	 * SHA-256 of the local package, computed once by the mojo when the ledger
+	 * or the history is enabled.
+	 */
+	private String packageDigest;
+
+	/**
+	 * Connection pool shared by every request to this host.
+	 */
+	private CountingConnectionManager connectionManager;
+
+	/**
+	 * Client shared by every request to this host, it keeps the session cookies.
+	 */
+	private HttpClient client;
+
+	/**
+	 * Timings of the phases and calls made to this host.
+	 */
+	private final DeploymentMetrics metrics;
+
+	/**
+	 * @param target the host to deploy to
+	 * @param options the host independent settings
+	 * @param backupFolder the folder backups of this host are written to
+	 * @param log the log to report to
+	 */
+	public CrxPackageDeployer(CrxTarget target, DeploymentOptions options, File backupFolder, Log log)
+	{
+		this(target, options, backupFolder, log, new DeploymentMetrics());
+	}
+
+	/**
+	 * @param target the host to deploy to
+	 * @param options the settings of the package
+	 * @param backupFolder the folder backups of this host are written to
+	 * @param log the log to report to
+	 * @param metrics the timings to record to, shared by the packages of a plan
+	 */
+	CrxPackageDeployer(CrxTarget target, DeploymentOptions options, File backupFolder, Log log,
+			DeploymentMetrics metrics)
+	{
+		this.target = target;
+		this.metrics = metrics;
+		this.log = log;
+		this.crxPath = target.getCrxPath();
+		this.login = target.getLogin();
+		this.password = target.getPassword();
+		this.workspace = target.getWorkspace();
+		this.jarfile = options.getJarfile();
+		this.deleteNodePaths = options.getDeleteNodePaths();
+		this.packagePath = options.getPackagePath();
+		this.aclIgnore = options.isAclIgnore();
+		this.enableBackup = options.isEnableBackup();
+		this.backupOnly = options.isBackupOnly();
+		this.skipInstall = options.isSkipInstall();
+		this.backupFolder = backupFolder;
+		this.maxConnections = options.getMaxConnections();
+		this.connectionTimeout = options.getConnectionTimeout();
+		this.socketTimeout = options.getSocketTimeout();
+		this.ledger = options.getLedger();
+		this.packageDigest = options.getPackageDigest();
+		this.uploadChunkSize = options.getUploadChunkSize();
+		this.uploadRetries = options.getUploadRetries();
+		this.uploadRetryDelay = options.getUploadRetryDelay();
+		this.deleteParallelism = options.getDeleteParallelism();
+		this.definitionCache = options.getDefinitionCache();
+		this.installProgressInterval = options.getInstallProgressInterval();
+		this.installTimeout = options.getInstallTimeout();
+		this.backupDeduplicate = options.isBackupDeduplicate();
+		this.backupKeep = options.getBackupKeep();
+		this.backupMaxAge = options.getBackupMaxAge();
+		this.backupMaxSize = options.getBackupMaxSize();
+		this.backupIfChanged = options.isBackupIfChanged();
+		this.deltaDeploy = options.isDeltaDeploy();
+		this.sessionCache = options.getSessionCache();
+		this.hostCoordinator = options.getHostCoordinator();
+		this.hostTransfers = options.getHostTransfers();
+		this.hostWrites = options.getHostWrites();
+		this.retryPolicy = options.getRetryPolicy();
+		this.breakerThreshold = options.getBreakerThreshold();
+		this.breakerOpenTime = options.getBreakerOpenTime();
+		this.backupPipeline = options.isBackupPipeline();
+		this.packageEntries = options.getPackageEntries();
+		this.smokeUrls = options.getSmokeUrls();
+		this.smokeRequests = options.getSmokeRequests();
+		this.smokeParallelism = options.getSmokeParallelism();
+		this.smokeTimeout = options.getSmokeTimeout();
+		this.smokeStatus = options.getSmokeStatus();
+		this.smokeMaxP95 = options.getSmokeMaxP95();
+		this.smokeMaxLatency = options.getSmokeMaxLatency();
+		this.deployFile = new File(jarfile);
+	}
+
+	/**
+	 * @return the host this deployer works on.
+	 */
+	public CrxTarget getTarget()
+	{
+		return target;
+	}
+
+	/**
+	 * Deploys to the host, never throwing.
+	 * @return the outcome, including the error if the deployment failed.
+	 */
+	public DeploymentResult call()
+	{
+		long start = System.currentTimeMillis();
+		Throwable error = null;
+		try
+		{
+			deploy();
+		}
+		catch (Exception e)
+		{
+			error = e;
+		}
+		return new DeploymentResult(target, System.currentTimeMillis() - start, error, metrics,
+				Collections.singletonMap(new File(jarfile).getName(), getMode()));
+	}
+
+	/**
+	 * Runs the whole pipeline against the host, then releases its connections.
+	 * @throws MojoExecutionException if any step fails.
+	 */
+	public void deploy() throws MojoExecutionException
+	{
+		openClient();
+		try
+		{
+			runSteps();
+		}
+		finally
+		{
+			awaitPendingBackup();
+			closeClient();
+		}
+	}
+
+	/**
+	 * Creates the connection pool and the client of this host.
+	 */
+	void openClient()
+	{
+		// every concurrent removal needs its own connection
+		connectionManager = new CountingConnectionManager(Math.max(maxConnections, deleteParallelism),
+				connectionTimeout, socketTimeout);
+		MeteredHttpClient meteredClient = new MeteredHttpClient(connectionManager, metrics);
+		meteredClient.setRetryPolicy(retryPolicy, getLog());
+		meteredClient.setCircuitBreaker(CircuitBreaker.getShared(target, breakerThreshold, breakerOpenTime));
+		client = meteredClient;
+		client.getParams().setCookiePolicy(CookiePolicy.BROWSER_COMPATIBILITY);
+	}
+
+	/**
+	 * Uses the connection pool, client and session of another deployer to the same host.
+	 * @param owner the deployer that opened the client
+	 */
+	void shareClient(CrxPackageDeployer owner)
+	{
+		connectionManager = owner.connectionManager;
+		client = owner.client;
+	}
+
+	/**
+	 * Releases the connections of the client opened by this deployer.
+	 */
+	void closeClient()
+	{
+		getLog().info("HTTP connections opened: " + connectionManager.getOpenedCount() + ", reused: "
+				+ connectionManager.getReusedCount());
+		connectionManager.shutdown();
+	}
+
+	private Log getLog()
+	{
+		return log;
+	}
+
+	/**
+	 * Runs the login, backup, delete, upload and install steps against the shared client.
+	 * @throws MojoExecutionException if any step fails.
+	 */
+	private void runSteps() throws MojoExecutionException
+	{
+		boolean loggedIn;
+		metrics.startPhase("login");
+		try
+		{
+			loggedIn = login();
+		}
+		finally
+		{
+			metrics.endPhase(0);
+		}
+		if (loggedIn)
+		{
+			if (prepare())
+			{
+				long uploaded = 0;
+				metrics.startPhase("upload");
+				try
+				{
+					upload();
+					uploaded = deployFile.length();
+				}
+				finally
+				{
+					metrics.endPhase(uploaded);
+				}
+				metrics.startPhase("install");
+				try
+				{
+					install();
+				}
+				finally
+				{
+					metrics.endPhase(0);
+				}
+				metrics.startPhase("checkin");
+				try
+				{
+					finish();
+				}
+				finally
+				{
+					metrics.endPhase(0);
+				}
+				metrics.startPhase("smoke");
+				try
+				{
+					smokeCheck();
+				}
+				finally
+				{
+					metrics.endPhase(0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens a session on the host, reusing a cached one when still valid.
+	 * @return <code>false</code> if the login page returned no cookies.
+	 * @throws MojoExecutionException if the login fails.
+	 */
+	boolean login() throws MojoExecutionException
+	{
+		HostCoordinator.Slot slot = acquireLogin();
+		try
+		{
+			Cookie[] cookies = restoreSession();
+			if (cookies == null)
+			{
+				cookies = getCookies();
+				if (cookies != null)
+				{
+					getSession();
+					if (sessionCache != null)
+					{
+						sessionCache.put(target, client.getState().getCookies());
+					}
+					for (int i = 0; i < cookies.length; i++)
+					{
+						getLog().info(cookies[i].getName() + "=" + cookies[i].getValue());
+					}
+				}
+			}
+			return cookies != null;
+		}
+		finally
+		{
+			slot.release();
+		}
+	}
+
+	/**
+	 * Runs the backup and delete steps, and decides whether the package is to be installed.
+	 * @return <code>true</code> if the package is to be uploaded and installed.
+	 * @throws MojoExecutionException if any step fails.
+	 */
+	boolean prepare() throws MojoExecutionException
+	{
+		if (enableBackup && backupPipeline && !backupOnly)
+		{
+			return preparePipelined();
+		}
+		if (enableBackup)
+		{
+			long bytes = 0;
+			metrics.startPhase("backup");
+			try
+			{
+				HostCoordinator.Slot slot = acquireTransfer();
+				try
+				{
+					bytes = backUp();
+				}
+				finally
+				{
+					slot.release();
+				}
+			}
+			finally
+			{
+				metrics.endPhase(bytes);
+			}
+		}
+		if (backupOnly)
+		{
+			return false;
+		}
+		if (isUnchanged())
+		{
+			getLog().info("Package " + jarfile + " is already installed on " + crxPath
+					+ ", skipping upload and install");
+			return false;
+		}
+
+		if (deleteNodePaths != null && deleteNodePaths.startsWith("/"))
+		{
+			metrics.startPhase("delete");
+			try
+			{
+				deleteNodesAndSave();
+			}
+			finally
+			{
+				metrics.endPhase(0);
+			}
+		}
+
+		// don't install anything, if this step is to be skipped
+		if (skipInstall)
+		{
+			getLog().info("Skipping crxpackage installation as instructed");
+			return false;
+		}
+		if (deltaDeploy && !prepareDelta())
+		{
+			getLog().info("Package " + jarfile + " has no changes for " + crxPath
+					+ ", skipping upload and install");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Starts the backup in the background and decides whether the package is
+	 * to be installed. The removals wait for the verified backup: they run
+	 * here when nothing is to be installed, right before the install otherwise.
+	 * @return <code>true</code> if the package is to be uploaded, under its staging name, and installed.
+	 * @throws MojoExecutionException if any step fails.
+	 */
+	private boolean preparePipelined() throws MojoExecutionException
+	{
+		startBackup();
+		try
+		{
+			if (isUnchanged())
+			{
+				awaitBackup();
+				getLog().info("Package " + jarfile + " is already installed on " + crxPath
+						+ ", skipping upload and install");
+				return false;
+			}
+			if (!skipInstall && (!deltaDeploy || prepareDelta()))
+			{
+				staged = true;
+				return true;
+			}
+		}
+		catch (MojoExecutionException e)
+		{
+			awaitPendingBackup();
+			throw e;
+		}
+
+		awaitBackup();
+		if (deleteNodePaths != null && deleteNodePaths.startsWith("/"))
+		{
+			metrics.startPhase("delete");
+			try
+			{
+				deleteNodesAndSave();
+			}
+			finally
+			{
+				metrics.endPhase(0);
+			}
+		}
+		if (skipInstall)
+		{
+			getLog().info("Skipping crxpackage installation as instructed");
+		}
+		else
+		{
+			getLog().info("Package " + jarfile + " has no changes for " + crxPath
+					+ ", skipping upload and install");
+		}
+		return false;
+	}
+
+	/**
+	 * Downloads and verifies the backup on another thread.
+	 */
+	private void startBackup()
+	{
+		pendingBackup = new FutureTask<Long>(new Callable<Long>()
+		{
+			public Long call() throws Exception
+			{
+				long bytes = 0;
+				metrics.startThreadPhase("backup");
+				HostCoordinator.Slot slot = acquireTransfer();
+				try
+				{
+					bytes = backUp();
+					verifyBackup();
+					return bytes;
+				}
+				finally
+				{
+					slot.release();
+					metrics.endThreadPhase(bytes);
+				}
+			}
+		});
+		Thread thread = new Thread(pendingBackup, "crx-backup-" + target.getId());
+		thread.setDaemon(true);
+		thread.start();
+		getLog().info("Backing up " + jarfile + " from " + crxPath + " alongside the upload");
+	}
+
+	/**
+	 * Waits for the backup started by {@link #startBackup()}, if any.
+	 * @throws MojoExecutionException if the backup failed or could not be verified.
+	 */
+	private void awaitBackup() throws MojoExecutionException
+	{
+		if (pendingBackup == null)
+		{
+			return;
+		}
+		try
+		{
+			pendingBackup.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while waiting for the backup");
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof MojoExecutionException)
+			{
+				throw (MojoExecutionException) e.getCause();
+			}
+			throw new MojoExecutionException(e.getCause().getMessage(), e.getCause());
+		}
+		finally
+		{
+			pendingBackup = null;
+		}
+	}
+
+	/**
+	 * Waits for a backup still running after a failed step, so that it is
+	 * neither left half written nor cut off by the closing client.
+	 */
+	void awaitPendingBackup()
+	{
+		try
+		{
+			awaitBackup();
+		}
+		catch (MojoExecutionException e)
+		{
+			getLog().error("Backup failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Checks that the downloaded backup is a readable package.
+	 * @throws MojoExecutionException if it is not.
+	 */
+	private void verifyBackup() throws MojoExecutionException
+	{
+		if (lastBackup == null)
+		{
+			return;
+		}
+		ZipFile zip = null;
+		try
+		{
+			zip = new ZipFile(lastBackup);
+			if (zip.size() == 0)
+			{
+				throw new MojoExecutionException("Backup " + lastBackup.getAbsolutePath() + " is empty");
+			}
+			getLog().info("Backup verified: " + zip.size() + " entries in " + lastBackup.getAbsolutePath());
+		}
+		catch (IOException e)
+		{
+			throw new MojoExecutionException("Backup " + lastBackup.getAbsolutePath()
+					+ " is not a readable package: " + e.getMessage());
+		}
+		finally
+		{
+			if (zip != null)
+			{
+				try
+				{
+					zip.close();
+				}
+				catch (IOException e)
+				{
+					// nothing left to release
+				}
+			}
+		}
+	}
+
+	/**
+	 * Uploads the package, or its delta.
+	 * @throws MojoExecutionException if the upload fails.
+	 */
+	void upload() throws MojoExecutionException
+	{
+		HostCoordinator.Slot slot = acquireTransfer();
+		try
+		{
+			uploadPackage(deployFile, getUploadName());
+		}
+		finally
+		{
+			slot.release();
+		}
+	}
+
+	/**
+	 * Installs the uploaded package and records it as deployed.
+	 * @throws MojoExecutionException if the install fails.
+	 */
+	void install() throws MojoExecutionException
+	{
+		if (staged)
+		{
+			try
+			{
+				awaitBackup();
+			}
+			catch (MojoExecutionException e)
+			{
+				removeStagedPackage();
+				throw e;
+			}
+			if (deleteNodePaths != null && deleteNodePaths.startsWith("/"))
+			{
+				deleteNodesAndSave();
+			}
+		}
+		HostCoordinator.Slot slot = acquireWrite("install");
+		try
+		{
+			if (staged)
+			{
+				moveStagedPackage();
+			}
+			installPackage();
+		}
+		finally
+		{
+			slot.release();
+		}
+		uploadFullPackage();
+		recordDeployment();
+		rememberDeployedPackage();
+	}
+
+	/**
+	 * After a delta install, uploads the full package under its own name
+	 * without installing it, so that the backups and the ledger, which refer
+	 * to that name, describe what is installed.
+	 * @throws MojoExecutionException if the upload fails.
+	 */
+	private void uploadFullPackage() throws MojoExecutionException
+	{
+		File file = new File(jarfile);
+		if (deployFile.getPath().equals(jarfile) || !(enableBackup || ledger != null))
+		{
+			return;
+		}
+		long start = System.currentTimeMillis();
+		long uploaded = 0;
+		HostCoordinator.Slot slot = acquireTransfer();
+		try
+		{
+			getLog().info("Delta installed, replacing " + getPackagePath(file.getName()) + " by the full package");
+			uploadPackage(file, file.getName());
+			uploaded = file.length();
+		}
+		catch (MojoExecutionException e)
+		{
+			throw new MojoExecutionException("Delta of " + file.getName() + " installed on " + crxPath
+					+ ", but the full package could not be uploaded, so " + getPackagePath(file.getName())
+					+ " does not match the installed content: " + e.getMessage(), e);
+		}
+		finally
+		{
+			slot.release();
+			metrics.recordPhase("full-upload", System.currentTimeMillis() - start, uploaded, 0);
+		}
+	}
+
+	/**
+	 * Checks that the host serves the <code>smokeUrls</code>, with the
+	 * session of the deployment. The requests use their own connections and
+	 * bypass the retries and the circuit breaker, since failures are expected
+	 * until the host is ready.
+	 * @throws MojoExecutionException if a url is not ready in time, answers with another status or is too slow.
+	 */
+	void smokeCheck() throws MojoExecutionException
+	{
+		if (StringUtils.isBlank(smokeUrls))
+		{
+			return;
+		}
+		List<String> urls = new ArrayList<String>();
+		for (String url : StringUtils.split(smokeUrls, ",; \t\r\n"))
+		{
+			urls.add(url.startsWith("http://") || url.startsWith("https://") ? url : target.getHostUrl()
+					+ (url.startsWith("/") ? "" : "/") + url);
+		}
+		CountingConnectionManager smokeConnections = new CountingConnectionManager(Math.max(1, smokeParallelism),
+				connectionTimeout, socketTimeout > 0 ? socketTimeout : (int) Math.min(Integer.MAX_VALUE, smokeTimeout));
+		try
+		{
+			MeteredHttpClient smokeClient = new MeteredHttpClient(smokeConnections, metrics);
+			smokeClient.getParams().setCookiePolicy(CookiePolicy.BROWSER_COMPATIBILITY);
+			smokeClient.setState(client.getState());
+			getLog().info("Smoke checking " + urls.size() + " urls on " + crxPath);
+			new SmokeCheck(smokeClient, getLog(), urls, smokeRequests, smokeParallelism, smokeTimeout, smokeStatus,
+					smokeMaxP95, smokeMaxLatency).run();
+		}
+		finally
+		{
+			smokeConnections.shutdown();
+		}
+	}
+
+	/**
+	 * Moves the staged package over the package of its final name.
+	 * @throws MojoExecutionException if the move fails.
+	 */
+	private void moveStagedPackage() throws MojoExecutionException
+	{
+		PostMethod movePost = new PostMethod(target.getHostUrl() + getPackagePath(getStagingName()));
+		try
+		{
+			getLog().info("Moving " + movePost.getPath() + " to " + getPackagePath(deployFile.getName()));
+			movePost.addParameter(":operation", "move");
+			movePost.addParameter(":dest", getPackagePath(deployFile.getName()));
+			movePost.addParameter(":replace", "true");
+			int status = client.executeMethod(movePost);
+			if (status != HttpStatus.SC_OK && status != HttpStatus.SC_CREATED)
+			{
+				logResponseDetails(movePost);
+				throw new MojoExecutionException("Moving the staged package failed, response="
+						+ HttpStatus.getStatusText(status));
+			}
+			staged = false;
+		}
+		catch (IOException ex)
+		{
+			getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
+			throw new MojoExecutionException(ex.getMessage());
+		}
+		finally
+		{
+			movePost.releaseConnection();
+		}
+	}
+
+	/**
+	 * Removes the staged package after a failed backup, leaving the installed one untouched.
+	 */
+	private void removeStagedPackage()
+	{
+		PostMethod deletePost = new PostMethod(target.getHostUrl() + getPackagePath(getStagingName()));
+		try
+		{
+			deletePost.addParameter(":operation", "delete");
+			int status = client.executeMethod(deletePost);
+			// no content once removed, not found if the package is already gone
+			if (status != HttpStatus.SC_OK && status != HttpStatus.SC_NO_CONTENT && status != HttpStatus.SC_NOT_FOUND)
+			{
+				getLog().warn("Staged package " + deletePost.getPath() + " could not be removed, response="
+						+ HttpStatus.getStatusText(status));
+			}
+		}
+		catch (IOException ex)
+		{
+			getLog().warn("Staged package " + deletePost.getPath() + " could not be removed: " + ex.getMessage());
+		}
+		finally
+		{
+			deletePost.releaseConnection();
+		}
+	}
+
+	/**
+	 * @return the name the package is uploaded under while the backup is running, e.g. <code>site-staging.zip</code>
+	 */
+	private String getStagingName()
+	{
+		return FilenameUtils.getBaseName(deployFile.getName()) + "-staging."
+				+ FilenameUtils.getExtension(deployFile.getName());
+	}
+
+	/**
+	 * @return the name the package is uploaded under.
+	 */
+	private String getUploadName()
+	{
+		return staged ? getStagingName() : deployFile.getName();
+	}
+
+	/**
+	 * Checks the removed versionable nodes back in.
+	 * @throws MojoExecutionException if the changes cannot be saved.
+	 */
+	void finish() throws MojoExecutionException
+	{
+		checkin();
+	}
+
+	/**
+	 * Waits for the login slot of the host, when coordinated.
+	 * @return the slot to release once logged in.
+	 * @throws MojoExecutionException if interrupted while waiting.
+	 */
+	private HostCoordinator.Slot acquireLogin() throws MojoExecutionException
+	{
+		if (hostCoordinator == null)
+		{
+			return new HostCoordinator.Slot(null);
+		}
+		return hostCoordinator.acquireLogin(target, getLog());
+	}
+
+	/**
+	 * Waits for a transfer slot of the host, when coordinated.
+	 * @return the slot to release once the transfer is over.
+	 * @throws MojoExecutionException if interrupted while waiting.
+	 */
+	private HostCoordinator.Slot acquireTransfer() throws MojoExecutionException
+	{
+		if (hostCoordinator == null)
+		{
+			return new HostCoordinator.Slot(null);
+		}
+		return hostCoordinator.acquireTransfer(target, hostTransfers, getLog());
+	}
+
+	/**
+	 * Waits for a write slot of the host, when coordinated.
+	 * @param operation the operation waiting, for the log
+	 * @return the slot to release once the changes are saved.
+	 * @throws MojoExecutionException if interrupted while waiting.
+	 */
+	private HostCoordinator.Slot acquireWrite(String operation) throws MojoExecutionException
+	{
+		if (hostCoordinator == null)
+		{
+			return new HostCoordinator.Slot(null);
+		}
+		return hostCoordinator.acquireWrite(target, hostWrites, operation, getLog());
+	}
+
+	/**
+	 * @return the file uploaded and installed: the package or its delta.
+	 */
+	File getDeployFile()
+	{
+		return deployFile;
+	}
+
+	/**
+	 * @return {@link DeploymentResult#MODE_DELTA} if only the delta of the package is deployed,
+	 *         {@link DeploymentResult#MODE_FULL} otherwise.
+	 */
+	String getMode()
+	{
+		return deployFile.getPath().equals(jarfile) ? DeploymentResult.MODE_FULL : DeploymentResult.MODE_DELTA;
+	}
+
+	/**
+	 * @return the timings of this deployment.
+	 */
+	DeploymentMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	private void checkin() throws MojoExecutionException
+	{
+		if (deleteNodePaths != null && deleteNodePaths.startsWith("/"))
+		{
+			HostCoordinator.Slot slot = acquireWrite("checkin");
+			try
+			{
+				checkinNodes();
+			}
+			finally
+			{
+				slot.release();
+			}
+		}
+	}
+
+	/**
+	 * Checks the removed versionable nodes back in and saves them.
+	 * @throws MojoExecutionException if the changes cannot be saved.
+	 */
+	private void checkinNodes() throws MojoExecutionException
+	{
+		lookupDefinitions(getNodePaths());
+		for (String path : getNodePaths())
+		{
+			try
+			{
+				if (isVersionable(path))
+				{
+					getLog().info("Node at : " + path + " is mix:versionable.");
+					checkin(path);
+				}
+			}
+			catch (Exception e)
+			{
+				getLog().error("ERROR: " + e.getClass().getName() + " " + e.getMessage());
+			}
+		}
+		saveAll();
+	}
+	
+	/**
+	 * Compares the digest of the local package with the one recorded in the
+	 * ledger for this host.
+	 * @return <code>true</code> if the very same package is already installed.
+	 * @throws MojoExecutionException if the package or the ledger cannot be read.
+	 */
+	private boolean isUnchanged() throws MojoExecutionException
+	{
+		if (ledger == null)
+		{
+			return false;
+		}
+		File file = new File(jarfile);
+		try
+		{
+			if (packageDigest == null)
+			{
+				packageDigest = DeploymentLedger.digest(file);
+			}
+			getLog().info("SHA-256 of " + file.getName() + ": " + packageDigest);
+			return packageDigest.equals(ledger.getDigest(target, getPackagePath(file.getName())));
+		}
+		catch (IOException e)
+		{
+			throw new MojoExecutionException("Error computing the digest of " + jarfile, e);
+		}
+	}
+
+	/**
+	 * Records the installed package in the ledger, if enabled.
+	 */
+	private void recordDeployment()
+	{
+		if (ledger == null)
+		{
+			return;
+		}
+		try
+		{
+			ledger.record(target, getPackagePath(new File(jarfile).getName()), packageDigest);
+		}
+		catch (IOException e)
+		{
+			getLog().warn("Could not record the deployment: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the copy of the package last deployed to this host
+	 */
+	private File getDeployedCopy()
+	{
+		return new File(new File(backupFolder, "deployed"), new File(jarfile).getName());
+	}
+
+	/**
+	 * Replaces the package to deploy by its delta against the package last
+	 * deployed to this host, when it has one that is smaller than the full package.
+	 * @return <code>false</code> if nothing changed since the last deployment.
+	 * @throws MojoExecutionException if the packages cannot be compared.
+	 */
+	private boolean prepareDelta() throws MojoExecutionException
+	{
+		File deployed = getDeployedCopy();
+		if (!deployed.exists())
+		{
+			getLog().info("No previous deployment of " + deployed.getName() + " known, deploying the full package");
+			return true;
+		}
+		try
+		{
+			DeltaPackage delta = new DeltaPackage(deployed, new File(jarfile), getLog());
+			List<String> touchedPaths = deleteNodePaths != null && deleteNodePaths.startsWith("/") ?
+					getNodePaths() : Collections.<String>emptyList();
+			if (delta.compare(touchedPaths))
+			{
+				if (delta.getChangedRoots().isEmpty())
+				{
+					return false;
+				}
+				deployFile = new File(deployed.getParentFile(),
+						FilenameUtils.getBaseName(jarfile) + "-delta." + FilenameUtils.getExtension(jarfile));
+				delta.write(deployFile);
+			}
+			return true;
+		}
+		catch (IOException e)
+		{
+			throw new MojoExecutionException("Error computing the delta of " + jarfile, e);
+		}
+	}
+
+	/**
+	 * Keeps a copy of the package just installed, the base of the next delta.
+	 */
+	private void rememberDeployedPackage()
+	{
+		if (!deltaDeploy)
+		{
+			return;
+		}
+		try
+		{
+			FileUtils.copyFile(new File(jarfile), getDeployedCopy());
+		}
+		catch (IOException e)
+		{
+			getLog().warn("Could not keep a copy of the deployed package: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Get the path to install the package to.
+	 * @param file package file
+	 * @return the path to install the package to.
+	 */
+	private String getPackagePath(String name)
+	{
+		return StringUtils.isNotEmpty(packagePath) ?
+				packagePath + "/" + name : "/etc/packages/" + name;
+	}
+
+	/**
+	 * Puts the cached session of this host, if any, in the client state and
+	 * checks it is still valid with a request to the root node definition.
+	 * @return the cookies of the valid session, <code>null</code> if a login is needed.
+	 */
+	private Cookie[] restoreSession()
+	{
+		Cookie[] cookies = sessionCache == null ? null : sessionCache.get(target);
+		if (cookies == null)
+		{
+			return null;
+		}
+		client.getState().addCookies(cookies);
+		GetMethod checkCall = new GetMethod(crxPath + "/browser/definition.jsp?Path=/");
+		RetryPolicy.markIdempotent(checkCall);
+		checkCall.setFollowRedirects(false);
+		try
+		{
+			int status = client.executeMethod(checkCall);
+			if (status == HttpStatus.SC_OK)
+			{
+				getLog().info("Reusing the session on " + crxPath + " of user " + login);
+				return cookies;
+			}
+			getLog().info("Session on " + crxPath + " expired, response=" + HttpStatus.getStatusText(status));
+		}
+		catch (IOException e)
+		{
+			getLog().info("Session on " + crxPath + " could not be checked: " + e.getMessage());
+		}
+		finally
+		{
+			checkCall.releaseConnection();
+		}
+		sessionCache.remove(target);
+		client.getState().clearCookies();
+		return null;
+	}
+
+	/**
+	 * @return the cookies return from this request on the login page.
+	 * @throws MojoExecutionException
+	 *             if any error occurs during this process.
+	 */
+	private Cookie[] getCookies() throws MojoExecutionException
+	{
+		Cookie[] cookie = null;
+		GetMethod loginGet = new GetMethod(crxPath + "/login.jsp");
+		RetryPolicy.markIdempotent(loginGet);
+		loginGet.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
+		try
+		{
+			getLog().info("login to " + loginGet.getURI());
+			int status = client.executeMethod(loginGet);
+			// log the status
+			getLog().info("Response status: " + status + ", statusText: " + HttpStatus.getStatusText(status) + "\r\n");
+			if (status == HttpStatus.SC_OK)
+			{
+				getLog().info("Login page accessed");
+				cookie = client.getState().getCookies();
+			}
+			else
+			{
+				logResponseDetails(loginGet);
+				throw new MojoExecutionException("Login failed, response=" + HttpStatus.getStatusText(status));
+			}
+		}
+		catch (Exception ex)
+		{
+			getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
+			throw new MojoExecutionException(ex.getMessage());
+		}
+		finally
+		{
+			loginGet.releaseConnection();
+		}
+		return cookie;
+	}
+
+	/**
+	 * Gets a session using the cookies previously stored in the shared client state.
+	 * @throws MojoExecutionException
+	 *             if any error occurred during this process.
+	 */
+	private void getSession() throws MojoExecutionException
+	{
+		PostMethod loginPost = new PostMethod(crxPath + "/login.jsp");
+		RetryPolicy.markIdempotent(loginPost);
+		loginPost.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
+		try
+		{
+			getLog().info("login to " + loginPost.getPath());
+			loginPost.setParameter("Workspace", workspace);
+			loginPost.setParameter("UserId", login);
+			loginPost.setParameter("Password", password);
+			int status = client.executeMethod(loginPost);
+			// log the status
+			getLog().info("Response status: " + status + ", statusText: " + HttpStatus.getStatusText(status) + "\r\n");
+			if (status == HttpStatus.SC_MOVED_TEMPORARILY)
+			{
+				getLog().info("Login successful");
+			}
+			else
+			{
+				logResponseDetails(loginPost);
+				throw new MojoExecutionException("Login failed, response=" + HttpStatus.getStatusText(status));
+			}
+		}
+		catch (Exception ex)
+		{
+			getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
+			throw new MojoExecutionException(ex.getMessage());
+		}
+		finally
+		{
+			loginPost.releaseConnection();
+		}
+	}
+
+	/**
+	 * Uploads a package using the session kept in the shared client state.
+	 * @param file the package to upload
+	 * @param name the name to upload it under
+	 * @throws MojoExecutionException
+	 *             if any error occurs during this process.
+	 */
+	private void uploadPackage(File file, String name) throws MojoExecutionException
+	{
+		if (uploadChunkSize > 0)
+		{
+			uploadPackageInChunks(file, name);
+			return;
+		}
+
+		PostMethod filePost = new PostMethod(crxPath + "/packmgr/list.jsp");
+		filePost.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
+		try
+		{
+			getLog().info("Uploading " + file + " to " + filePost.getPath() + " as " + name);
+			filePost.setRequestEntity(new FileChannelRequestEntity(file, "file", name, getLog()));
+			int status = client.executeMethod(filePost);
+			// log the status
+			getLog().info("Response status: " + status + ", statusText: " + HttpStatus.getStatusText(status) + "\r\n");
+			if (status == HttpStatus.SC_MOVED_TEMPORARILY)
+			{
+				getLog().info("Upload complete");
+			}
+			else
+			{
+				logResponseDetails(filePost);
+				throw new MojoExecutionException("Package upload failed, response=" + HttpStatus.getStatusText(status));
+			}
+		}
+		catch (Exception ex)
+		{
+			getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
+			throw new MojoExecutionException(ex.getMessage());
+		}
+		finally
+		{
+			filePost.releaseConnection();
+		}
+	}
+
+	/**
+	 * Uploads a package straight to its repository path in chunks of
+	 * <code>uploadChunkSize</code> bytes.
+	 * @param file the package to upload
+	 * @param name the name to upload it under
+	 * @throws MojoExecutionException
+	 *             if a chunk cannot be uploaded.
+	 */
+	private void uploadPackageInChunks(File file, String name) throws MojoExecutionException
+	{
+		String packageFile = getPackagePath(name);
+		String folderUrl = target.getHostUrl() + packageFile.substring(0, packageFile.lastIndexOf('/'));
+		getLog().info("Uploading " + file + " to " + packageFile + " in chunks of " + uploadChunkSize + " bytes");
+		ChunkedUpload upload = new ChunkedUpload(client, getLog(), folderUrl, file, uploadChunkSize,
+				uploadRetries, uploadRetryDelay, metrics);
+		upload.setName(name);
+		upload.upload();
+	}
+
+	/**
+	 * Logs response details to debug and logs error message as error if found
+	 * @param filePost
+	 * @throws IOException
+	 */
+	private void logResponseDetails(HttpMethodBase filePost) throws IOException
+	{
+		InputStream stream = filePost.getResponseBodyAsStream();
+		if (stream == null)
+		{
+			throw new IOException("Null response stream");
+		}
+
+		logResponseDetails(ResponseScanner.scan(stream, filePost.getResponseCharSet(), null));
+	}
+
+	/**
+	 * Logs the tail of an already scanned response to debug and its error messages as error.
+	 * @param scanner the scanned response
+	 */
+	private void logResponseDetails(ResponseScanner scanner)
+	{
+		getLog().debug("Response body (last " + scanner.getTail().length() + " of " + scanner.getLength()
+				+ " characters): " + scanner.getTail());
+
+		if (!scanner.getErrors().isEmpty())
+		{
+			getLog().error(StringUtils.join(scanner.getErrors(), " "));
+		}
+	}
+
+	/**
+	 * Installs the uploaded package using the session kept in the shared client state.
+	 * @throws MojoExecutionException
+	 *             in case of any errors during this process.
+	 */
+	private void installPackage() throws MojoExecutionException
+	{
+		String url = crxPath + "/packmgr/unpack.jsp?Path=" + getPackagePath(deployFile.getName())
+				+ (aclIgnore ? "" : "&acHandling=overwrite");
+
+		GetMethod loginPost = new GetMethod(url);
+		loginPost.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
+		InstallMonitor monitor = new InstallMonitor(getLog(), installProgressInterval, installTimeout);
+		if (deployFile.getPath().equals(jarfile))
+		{
+			monitor.setEntryCount(packageEntries);
+		}
+		try
+		{
+			getLog().info("installing: " + url);
+			monitor.start(loginPost);
+			int status = client.executeMethod(loginPost);
+			// log the status
+			getLog().info("Response status: " + status + ", statusText: " + HttpStatus.getStatusText(status) + "\r\n");
+			// if it's ok, proceed
+			if (status == HttpStatus.SC_OK)
+			{
+				InputStream response = loginPost.getResponseBodyAsStream();
+				if (response != null)
+				{
+					ResponseScanner scanner = monitor.follow(loginPost, "Package installed in");
+					if (scanner.isMarkerFound())
+					{
+						getLog().info("Install successful");
+						definitionCache.clearRemoved(target);
+					}
+					else
+					{
+						logResponseDetails(scanner);
+						throw new MojoExecutionException("Error installing package on crx");
+					}
+				}
+				else
+				{
+					throw new MojoExecutionException("Null response when installing package on crx");
+				}
+			}
+			else
+			{
+				logResponseDetails(loginPost);
+				throw new MojoExecutionException("Installation failed");
+			}
+		}
+		catch (Exception ex)
+		{
+			if (monitor.isTimedOut())
+			{
+				ex = monitor.timeoutError();
+			}
+			getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
+			throw new MojoExecutionException(ex.getMessage());
+		}
+		finally
+		{
+			monitor.stop();
+			loginPost.releaseConnection();
+		}
+	}
+
+	/**
+	 * Removes the nodes of <code>deleteNodePaths</code> and saves the removal.
+	 * @throws MojoExecutionException if any node could not be removed.
+	 */
+	private void deleteNodesAndSave() throws MojoExecutionException
+	{
+		HostCoordinator.Slot slot = acquireWrite("delete");
+		try
+		{
+			deleteNodes();
+			saveAll();
+		}
+		finally
+		{
+			slot.release();
+		}
+	}
+
+	/**
+	 * @return the node paths of <code>deleteNodePaths</code>, separated by
+	 *         <code>;</code> or <code>,</code>, in configuration order.
+	 */
+	private List<String> getNodePaths()
+	{
+		List<String> nodePaths = new ArrayList<String>();
+		StringTokenizer paths = new StringTokenizer(deleteNodePaths, ";");
+		while (paths.hasMoreTokens())
+		{
+			nodePaths.addAll(Arrays.asList(paths.nextToken().split(",")));
+		}
+		return nodePaths;
+	}
+
+	/**
+	 * Removes, or checks out when versionable, every node of
+	 * <code>deleteNodePaths</code>. Independent subtrees are processed by up to
+	 * <code>deleteParallelism</code> threads; every path is attempted and the
+	 * failures are reported together. Nothing is saved by this method.
+	 * @throws MojoExecutionException
+	 *             if any node could not be processed.
+	 */
+	private void deleteNodes() throws MojoExecutionException
+	{
+		lookupDefinitions(getNodePaths());
+		SubtreeExecutor executor = new SubtreeExecutor(getLog(), deleteParallelism);
+		executor.execute(getNodePaths(), new SubtreeExecutor.PathOperation()
+		{
+			public void apply(String path) throws Exception
+			{
+				deleteNode(path);
+			}
+		});
+
+		Map<String, Throwable> failures = executor.getFailures();
+		if (!failures.isEmpty())
+		{
+			for (Map.Entry<String, Throwable> failure : failures.entrySet())
+			{
+				getLog().error("Removing node " + failure.getKey() + " failed: " + failure.getValue().getMessage());
+			}
+			throw new MojoExecutionException("Removing " + failures.size() + " of "
+					+ executor.getTimings().size() + " nodes failed, changes were not saved");
+		}
+	}
+
+	/**
+	 * @param path
+	 *            the node path to delete.
+	 * @throws MojoExecutionException
+	 *             in case of any errors during this process.
+	 */
+	private void deleteNode(final String path) throws MojoExecutionException
+	{
+		GetMethod removeCall = new GetMethod(crxPath + "/browser/delete_recursive.jsp?Path=" + path
+				+ "&action=delete");
+		removeCall.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
+		try
+		{
+			getLog().info("removing " + path);
+			getLog().info(crxPath + "/browser/delete_recursive.jsp?Path=" + path + "&action=delete");
+
+			removeCall.setFollowRedirects(false);
+
+			if (definitionCache.isRemoved(target, path))
+			{
+				getLog().info("Node at : " + path + " was removed with its parent.");
+			}
+			else if (isVersionable(path))
+			{
+				getLog().info("Node at : " + path + " is mix:versionable.");
+				checkout(path);
+			}
+
+			else
+			{
+				
+				getLog().info("removing " + path);
+				getLog().info(
+						crxPath + "/browser/delete_recursive.jsp?Path="
+								+ path + "&action=delete");
+
+				int status = client.executeMethod(removeCall);
+
+				if (status == HttpStatus.SC_OK)
+				{
+					getLog().info("Node deleted");
+					definitionCache.setRemoved(target, path);
+					// log the status
+					getLog().info(
+							"Response status: " + status
+									+ ", statusText: "
+									+ HttpStatus.getStatusText(status)
+									+ "\r\n");
+				}
+				else
+				{
+					logResponseDetails(removeCall);
+					throw new MojoExecutionException("Removing node "
+							+ path + " failed, response="
+							+ HttpStatus.getStatusText(status));
+				}
+				getLog().info(
+						"Response status: " + status + ", statusText: "
+								+ HttpStatus.getStatusText(status)
+								+ "\r\n");
+			}
+		}
+		catch (Exception ex)
+		{
+			getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
+			throw new MojoExecutionException(ex.getMessage());
+		}
+		finally
+		{
+			removeCall.releaseConnection();
+		}
+	}
+
+	/**
+	 * Saves all pending changes using the session kept in the shared client state.
+	 * @throws MojoExecutionException
+	 *             in case of any errors during this process.
+	 */
+	private void saveAll() throws MojoExecutionException
+	{
+		GetMethod savePost = new GetMethod(crxPath + "/browser/content.jsp?Path=/&action_ops=saveAll");
+		savePost.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
+		try
+		{
+			getLog().info("save all changes");
+			int status = client.executeMethod(savePost);
+			// log the status
+			getLog().info("Response status: " + status + ", statusText: " + HttpStatus.getStatusText(status) + "\r\n");
+			if (status == HttpStatus.SC_OK)
+			{
+				getLog().info("All changes saved");
+			}
+			else
+			{
+				logResponseDetails(savePost);
+				throw new MojoExecutionException("save all changes failed, response="
+						+ HttpStatus.getStatusText(status));
+			}
+		}
+		catch (Exception ex)
+		{
+			getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
+			throw new MojoExecutionException(ex.getMessage());
+		}
+		finally
+		{
+			savePost.releaseConnection();
+		}
+	}
+
+	/**
+	 * Fetches the definitions missing from the definition cache in one batch,
+	 * processing independent subtrees on up to <code>deleteParallelism</code>
+	 * connections. The repository browser serves one definition page per node,
+	 * so the batch is the pages requested together rather than one after the
+	 * other by the removal or check-in loop. A failed lookup is left to that
+	 * loop, which reports it.
+	 * @param paths the node paths
+	 * @throws MojoExecutionException if interrupted while waiting.
+	 */
+	private void lookupDefinitions(List<String> paths) throws MojoExecutionException
+	{
+		List<String> missing = new ArrayList<String>();
+		for (String path : paths)
+		{
+			if (definitionCache.isVersionable(target, path) == null && !definitionCache.isRemoved(target, path))
+			{
+				missing.add(path);
+			}
+		}
+		if (missing.size() < 2 || deleteParallelism < 2)
+		{
+			return;
+		}
+		new SubtreeExecutor(getLog(), deleteParallelism).execute(missing, new SubtreeExecutor.PathOperation()
+		{
+			public void apply(String path) throws Exception
+			{
+				isVersionable(path);
+			}
+		});
+	}
+
+	/**
+	 * Tells whether a node is <code>mix:versionable</code>, fetching its
+	 * definition page only if the node is not in the definition cache yet.
+	 * @param path the node path
+	 * @return <code>true</code> if the node is versionable.
+	 */
+	private boolean isVersionable(String path) throws HttpException, IOException, MojoExecutionException
+	{
+		Boolean cached = definitionCache.isVersionable(target, path);
+		if (cached != null)
+		{
+			getLog().debug("Using cached definition for node : " + path);
+			return cached.booleanValue();
+		}
+		boolean versionable = fetchIsVersionable(path);
+		definitionCache.setVersionable(target, path, versionable);
+		return versionable;
+	}
+
+	private boolean fetchIsVersionable(String path) throws HttpException, IOException, MojoExecutionException
+	{
+		GetMethod definitionCall = new GetMethod(crxPath + "/browser/definition.jsp?Path=" + path);
+		RetryPolicy.markIdempotent(definitionCall);
+		definitionCall.setFollowRedirects(false);
+
+		getLog().info("Getting definitions for node : " + path);
+		getLog().info(crxPath + "/browser/definition.jsp?Path=" + path);
+
+		try
+		{
+			int status = client.executeMethod(definitionCall);
+
+			if (status == HttpStatus.SC_OK)
+			{
+				getLog().info("Successfully retrieved node definition.");
+			}
+			else
+			{
+				logResponseDetails(definitionCall);
+				throw new MojoExecutionException("Getting definitions for node " + path + " failed, response="
+						+ HttpStatus.getStatusText(status));
+			}
+
+			InputStream response = definitionCall.getResponseBodyAsStream();
+			return response != null
+					&& ResponseScanner.scan(response, definitionCall.getResponseCharSet(), "mix:versionable")
+							.isMarkerFound();
+		}
+		finally
+		{
+			definitionCall.releaseConnection();
+		}
+	}
+
+	private void checkout(String path) throws HttpException, IOException, MojoExecutionException
+	{
+		getLog().info("Checking out " + path);
+		getLog().info(crxPath + "/browser/content.jsp?Path=" + path + "&action_ops=checkout");
+
+		PostMethod checkoutCall = new PostMethod(crxPath + "/browser/content.jsp");
+		checkoutCall.setFollowRedirects(false);
+
+		checkoutCall.addParameter("Path", path);
+		checkoutCall.addParameter("action_ops", "checkout");
+
+		try
+		{
+			int status = client.executeMethod(checkoutCall);
+
+			if (status == HttpStatus.SC_OK)
+			{
+				getLog().info("Successfully checked out.\r\n");
+			}
+			else
+			{
+				logResponseDetails(checkoutCall);
+				throw new MojoExecutionException("Removing node " + path + " failed, response="
+						+ HttpStatus.getStatusText(status));
+			}
+		}
+		finally
+		{
+			checkoutCall.releaseConnection();
+		}
+	}
+
+	private void checkin(String path) throws HttpException, IOException, MojoExecutionException
+	{
+		getLog().info("Checking in " + path);
+		getLog().info(
+				crxPath + "/browser/content.jsp?Path=" + path + "&action_ops=checkin");
+		
+		PostMethod checkinCall = new PostMethod(crxPath + "/browser/content.jsp");
+		checkinCall.setFollowRedirects(false);
+		
+		checkinCall.addParameter("Path", path);
+		checkinCall.addParameter("action_ops", "checkin");
+		
+		try
+		{
+			int status = client.executeMethod(checkinCall);
+
+			if (status == HttpStatus.SC_OK)
+			{
+				getLog().info("Successfully checked in.\r\n");
+			}
+			else
+			{
+				logResponseDetails(checkinCall);
+				throw new MojoExecutionException("Removing node " + path + " failed, response="
+						+ HttpStatus.getStatusText(status));
+			}
+		}
+		finally
+		{
+			checkinCall.releaseConnection();
+		}
+	}
+	
+	/**
+	 * Downloads the package currently installed on the host into the backup folder.
+	 * @return the size of the backup in bytes.
+	 * @throws MojoExecutionException
+	 *             in case of any errors during this process.
+	 */
+	private long backUp() throws MojoExecutionException
+	{
+		lastBackup = null;
+		checkBackupFolder();
+		File file = new File(jarfile);
+		GetMethod backupPost = new GetMethod(crxPath + "/packmgr/service.jsp?cmd=get&_charset_=utf8&name="
+				+ FilenameUtils.getBaseName(file.getName()));
+		RetryPolicy.markIdempotent(backupPost);
+		backupPost.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
+		try
+		{
+			BackupState state = null;
+			String metadata = null;
+			if (backupIfChanged)
+			{
+				String baseName = FilenameUtils.getBaseName(file.getName());
+				state = new BackupState(backupFolder, baseName);
+				metadata = getRemotePackageMetadata(baseName);
+				if (state.getBackup() != null && metadata != null && metadata.equals(state.getMetadata()))
+				{
+					state.markChecked();
+					getLog().info("Remote package unchanged (" + metadata + "), the backup "
+							+ state.getBackup().getAbsolutePath() + " is still current");
+					return 0;
+				}
+				if (state.getBackup() != null && state.getEtag() != null)
+				{
+					backupPost.setRequestHeader("If-None-Match", state.getEtag());
+				}
+				if (state.getBackup() != null && state.getLastModified() != null)
+				{
+					backupPost.setRequestHeader("If-Modified-Since", state.getLastModified());
+				}
+			}
+
+			getLog().info("backing up /etc/packages/" + file.getName());
+			int status = client.executeMethod(backupPost);
+			// log the status
+			getLog().info("Response status: " + status + ", statusText: " + HttpStatus.getStatusText(status) + "\r\n");
+
+			String backUpFileName = formatbackUpFileName(file);
+
+			File backupFile = new File(backUpFileName);
+
+			if (status == HttpStatus.SC_NOT_MODIFIED && state != null)
+			{
+				state.markChecked();
+				getLog().info("Remote package not modified, the backup " + state.getBackup().getAbsolutePath()
+						+ " is still current");
+				return 0;
+			}
+			else if (status == HttpStatus.SC_OK)
+			{
+				if (backupDeduplicate)
+				{
+					BackupStore store = new BackupStore(backupFolder, getLog());
+					backupFile = store.store(backupPost.getResponseBodyAsStream(), backupFile.getName());
+					store.prune(FilenameUtils.getBaseName(file.getName()), backupKeep, backupMaxAge, backupMaxSize);
+				}
+				else
+				{
+					CRXPackageInstallerPlugin.copyStreamToFile(backupPost.getResponseBodyAsStream(), backupFile);
+				}
+				if (state != null)
+				{
+					state.update(backupFile, getHeader(backupPost, "ETag"), getHeader(backupPost, "Last-Modified"),
+							metadata);
+				}
+				getLog().info("Back-up succesfull. The backup is " + backupFile.getAbsolutePath());
+				lastBackup = backupFile;
+				return backupFile.length();
+			}
+			else
+			{
+				logResponseDetails(backupPost);
+				throw new MojoExecutionException("Back-up failed, response=" + HttpStatus.getStatusText(status));
+			}
+		}
+		catch (Exception ex)
+		{
+			getLog().error("ERROR: " + ex.getClass().getName() + " " + ex.getMessage());
+			throw new MojoExecutionException(ex.getMessage());
+		}
+		finally
+		{
+			backupPost.releaseConnection();
+		}
+	}
+
+	/**
+	 * Looks the package up in the package manager list.
+	 * @param baseName the package name
+	 * @return the last modification date and size of the remote package, <code>null</code> if unknown.
+	 */
+	private String getRemotePackageMetadata(String baseName)
+	{
+		GetMethod listCall = new GetMethod(crxPath + "/packmgr/service.jsp?cmd=ls");
+		RetryPolicy.markIdempotent(listCall);
+		try
+		{
+			int status = client.executeMethod(listCall);
+			if (status != HttpStatus.SC_OK)
+			{
+				getLog().debug("Package list not available, response=" + HttpStatus.getStatusText(status));
+				return null;
+			}
+			Document list = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+					.parse(listCall.getResponseBodyAsStream());
+			NodeList packages = list.getElementsByTagName("package");
+			for (int i = 0; i < packages.getLength(); i++)
+			{
+				Element remotePackage = (Element) packages.item(i);
+				if (baseName.equals(getChildText(remotePackage, "name")))
+				{
+					String lastModified = getChildText(remotePackage, "lastModified");
+					String size = getChildText(remotePackage, "size");
+					return lastModified == null ? null : "lastModified=" + lastModified + ", size=" + size;
+				}
+			}
+			return null;
+		}
+		catch (Exception e)
+		{
+			getLog().debug("Package list not readable: " + e.getMessage());
+			return null;
+		}
+		finally
+		{
+			listCall.releaseConnection();
+		}
+	}
+
+	private static String getChildText(Element element, String name)
+	{
+		NodeList children = element.getElementsByTagName(name);
+		return children.getLength() == 0 ? null : children.item(0).getTextContent().trim();
+	}
+
+	private static String getHeader(HttpMethodBase method, String name)
+	{
+		return method.getResponseHeader(name) == null ? null : method.getResponseHeader(name).getValue();
+	}
+
+	/**
+	 * Creates the name for the backup file.
+	 * @param file file
+	 * @return formatted file name
+	 */
+	private String formatbackUpFileName(File file)
+	{
+		String baseName = FilenameUtils.getBaseName(file.getName());
+		Calendar cal = Calendar.getInstance();
+		SimpleDateFormat sdf = new SimpleDateFormat(CRXPackageInstallerPlugin.DATE_FORMAT_NOW);
+		String timeStamp = sdf.format(cal.getTime());
+		String backUpFileName = backupFolder.getAbsolutePath() + "/" + baseName + "_" + timeStamp + ".zip";
+		return backUpFileName;
+	}
+
+	/**
+	 * Performs checks on backup folder.
+	 * If backup folder does not exist, it attends to create it.
+	 * Then the folder is checked for write permission.
+	 * @throws MojoExecutionException exception
+	 */
+	private void checkBackupFolder() throws MojoExecutionException
+	{
+		if (!backupFolder.exists())
+		{
+			try
+			{
+				FileUtils.forceMkdir(backupFolder);
+			}
+			catch (IOException e)
+			{
+				getLog().error("Back-up failed. " + backupFolder.getAbsolutePath() + " cannot be created.");
+				throw new MojoExecutionException("Error backing up package " + jarfile, e);
+			}
+		}
+		if (!backupFolder.canWrite())
+		{
+			getLog().error("Back-up failed. " + backupFolder.getAbsolutePath() + " cannot be written.");
+			throw new MojoExecutionException("Error backing up package " + jarfile);
+		}
+
+		if (!backupFolder.isDirectory())
+		{
+			getLog().error("Back-up failed. " + backupFolder.getAbsolutePath() + " is not a directory.");
+			throw new MojoExecutionException("Error backing up package " + jarfile);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * One CRX instance the package is deployed to. Configured as a nested
+ * <code>&lt;target&gt;</code> element of the <code>targets</code> parameter.
+ * Credentials and workspace left empty are inherited from the plugin
+ * configuration.
+ */
+public class CrxTarget
+{
+	/**
+	 * Url of the crx application, e.g. <code>http://author:4502/crx</code>.
+	 */
+	private String crxPath;
+
+	private String login;
+
+	private String password;
+
+	private String workspace;
+
+	public CrxTarget()
+	{
+	}
+
+	public CrxTarget(String crxPath, String login, String password, String workspace)
+	{
+		this.crxPath = crxPath;
+		this.login = login;
+		this.password = password;
+		this.workspace = workspace;
+	}
+
+	/**
+	 * Returns a copy of this target where the empty credentials and workspace
+	 * are taken from the given defaults.
+	 * @param defaults the plugin level target
+	 * @return the completed target
+	 */
+	public CrxTarget inherit(CrxTarget defaults)
+	{
+		return new CrxTarget(StringUtils.defaultIfEmpty(crxPath, defaults.crxPath),
+				StringUtils.defaultIfEmpty(login, defaults.login),
+				StringUtils.defaultIfEmpty(password, defaults.password),
+				StringUtils.defaultIfEmpty(workspace, defaults.workspace));
+	}
+
+	/**
+	 * @return a file system friendly identifier of the host, e.g. <code>author_4502</code>
+	 */
+	public String getId()
+	{
+		String id = StringUtils.substringAfter(crxPath, "://");
+		if (StringUtils.isEmpty(id))
+		{
+			id = crxPath;
+		}
+		id = StringUtils.substringBefore(id, "/");
+		return id.replaceAll("[^A-Za-z0-9.-]", "_");
+	}
+
+	/**
+	 * @return the scheme, host and port part of <code>crxPath</code>, e.g. <code>http://author:4502</code>
+	 */
+	public String getHostUrl()
+	{
+		int hostStart = crxPath.indexOf("://");
+		int pathStart = hostStart < 0 ? -1 : crxPath.indexOf('/', hostStart + 3);
+		return pathStart < 0 ? crxPath : crxPath.substring(0, pathStart);
+	}
+
+	public String getCrxPath()
+	{
+		return crxPath;
+	}
+
+	public void setCrxPath(String crxPath)
+	{
+		this.crxPath = crxPath;
+	}
+
+	public String getLogin()
+	{
+		return login;
+	}
+
+	public void setLogin(String login)
+	{
+		this.login = login;
+	}
+
+	public String getPassword()
+	{
+		return password;
+	}
+
+	public void setPassword(String password)
+	{
+		this.password = password;
+	}
+
+	public String getWorkspace()
+	{
+		return workspace;
+	}
+
+	public void setWorkspace(String workspace)
+	{
+		this.workspace = workspace;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String toString()
+	{
+		return crxPath;
+	}
+}
@@ -0,0 +1,524 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Difference between the package last deployed to a host and the one about
+ * to be deployed. Entries are compared by size and CRC as recorded in the zip
+ * directories, so neither package is decompressed. A filter root is changed
+ * when any entry below it was added, removed or modified, or when its filter
+ * definition changed; since a filter root is replaced as a whole on install,
+ * deletions are covered by reinstalling it. The delta package holds the
+ * changed filter roots only, plus the entries outside of every root (the
+ * ancestors), under the name <code>&lt;name&gt;-delta</code>.
+ */
+public class DeltaPackage
+{
+	private static final String ROOT_FOLDER = "jcr_root/";
+
+	private static final String META_FOLDER = "META-INF/";
+
+	private static final String FILTER = "META-INF/vault/filter.xml";
+
+	private static final String PROPERTIES = "META-INF/vault/properties.xml";
+
+	private final File base;
+
+	private final File current;
+
+	private final Log log;
+
+	private final List<String> changedRoots = new ArrayList<String>();
+
+	private Document filter;
+
+	/**
+	 * @param base the package last deployed
+	 * @param current the package to deploy
+	 * @param log the log to report to
+	 */
+	public DeltaPackage(File base, File current, Log log)
+	{
+		this.base = base;
+		this.current = current;
+		this.log = log;
+	}
+
+	/**
+	 * Compares both packages.
+	 * @param touchedPaths repository paths modified outside of the package,
+	 *            whose filter roots must be reinstalled whatever their content
+	 * @return <code>true</code> if a delta can be deployed instead of the full
+	 *         package, <code>false</code> if the full package is needed.
+	 * @throws IOException if a package cannot be read
+	 */
+	public boolean compare(Collection<String> touchedPaths) throws IOException
+	{
+		ZipFile baseZip = new ZipFile(base);
+		ZipFile currentZip = new ZipFile(current);
+		try
+		{
+			Map<String, String> baseFilters = readFilters(baseZip, false);
+			Map<String, String> currentFilters = readFilters(currentZip, true);
+			if (baseFilters == null || currentFilters == null)
+			{
+				log.info("No workspace filter to compare, deploying the full package");
+				return false;
+			}
+
+			Set<String> changed = new HashSet<String>();
+			for (Map.Entry<String, String> definition : currentFilters.entrySet())
+			{
+				if (!definition.getValue().equals(baseFilters.get(definition.getKey())))
+				{
+					changed.add(definition.getKey());
+				}
+			}
+			for (String path : touchedPaths)
+			{
+				for (String root : currentFilters.keySet())
+				{
+					if (covers(root, path) || covers(path, root))
+					{
+						changed.add(root);
+					}
+				}
+			}
+
+			Map<String, ZipEntry> baseEntries = getEntries(baseZip);
+			Map<String, ZipEntry> currentEntries = getEntries(currentZip);
+			Set<String> names = new HashSet<String>(baseEntries.keySet());
+			names.addAll(currentEntries.keySet());
+			for (String name : names)
+			{
+				if (isSame(baseEntries.get(name), currentEntries.get(name)))
+				{
+					continue;
+				}
+				if (name.startsWith(META_FOLDER) && !FILTER.equals(name) && !PROPERTIES.equals(name))
+				{
+					log.info("Package definition " + name + " changed, deploying the full package");
+					return false;
+				}
+				if (name.startsWith(ROOT_FOLDER))
+				{
+					Collection<String> roots = getRoots(currentFilters.keySet(), name);
+					if (roots.isEmpty() && !getRoots(baseFilters.keySet(), name).isEmpty())
+					{
+						// content of a dropped filter root, left alone like a full install would
+						continue;
+					}
+					if (roots.isEmpty())
+					{
+						log.info("Entry " + name + " outside of the filter roots changed, deploying the full package");
+						return false;
+					}
+					changed.addAll(roots);
+				}
+			}
+
+			for (String root : currentFilters.keySet())
+			{
+				if (changed.contains(root))
+				{
+					changedRoots.add(root);
+				}
+			}
+			log.info(changedRoots.size() + " of " + currentFilters.size() + " filter roots changed: " + changedRoots);
+			return changedRoots.size() < currentFilters.size();
+		}
+		finally
+		{
+			closeQuietly(baseZip);
+			closeQuietly(currentZip);
+		}
+	}
+
+	/**
+	 * @return the filter roots to reinstall, in filter order
+	 */
+	public List<String> getChangedRoots()
+	{
+		return changedRoots;
+	}
+
+	/**
+	 * Writes the delta package. Only valid after {@link #compare(Collection)}
+	 * returned <code>true</code>.
+	 * @param delta the file to write
+	 * @throws IOException if the package cannot be written
+	 */
+	public void write(File delta) throws IOException
+	{
+		ZipFile currentZip = new ZipFile(current);
+		ZipOutputStream output = new ZipOutputStream(FileUtils.openOutputStream(delta));
+		try
+		{
+			List<String> filterRoots = filterRoots();
+			Enumeration<? extends ZipEntry> entries = currentZip.entries();
+			while (entries.hasMoreElements())
+			{
+				ZipEntry entry = entries.nextElement();
+				String name = entry.getName();
+				if (name.startsWith(ROOT_FOLDER))
+				{
+					Collection<String> roots = getRoots(filterRoots, name);
+					if (!roots.isEmpty() && !containsAny(changedRoots, roots))
+					{
+						continue;
+					}
+				}
+
+				ZipEntry copy = new ZipEntry(name);
+				copy.setTime(entry.getTime());
+				output.putNextEntry(copy);
+				if (FILTER.equals(name))
+				{
+					writeFilter(output);
+				}
+				else if (PROPERTIES.equals(name))
+				{
+					writeProperties(currentZip, entry, output);
+				}
+				else if (!entry.isDirectory())
+				{
+					InputStream input = currentZip.getInputStream(entry);
+					try
+					{
+						IOUtils.copy(input, output);
+					}
+					finally
+					{
+						IOUtils.closeQuietly(input);
+					}
+				}
+				output.closeEntry();
+			}
+		}
+		finally
+		{
+			IOUtils.closeQuietly(output);
+			closeQuietly(currentZip);
+		}
+		log.info("Delta package " + delta.getName() + ": " + delta.length() + " of " + current.length() + " bytes");
+	}
+
+	/**
+	 * @param zip the package
+	 * @param keep whether to keep the parsed filter for {@link #write(File)}
+	 * @return the filter definitions by root, <code>null</code> if the package has no filter
+	 */
+	private Map<String, String> readFilters(ZipFile zip, boolean keep) throws IOException
+	{
+		ZipEntry entry = zip.getEntry(FILTER);
+		if (entry == null)
+		{
+			return null;
+		}
+		Document document;
+		InputStream input = zip.getInputStream(entry);
+		try
+		{
+			document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(input);
+		}
+		catch (Exception e)
+		{
+			throw new IOException("Cannot parse " + FILTER + " of " + zip.getName() + ": " + e.getMessage());
+		}
+		finally
+		{
+			IOUtils.closeQuietly(input);
+		}
+		if (keep)
+		{
+			filter = document;
+		}
+
+		Map<String, String> filters = new LinkedHashMap<String, String>();
+		NodeList elements = document.getElementsByTagName("filter");
+		for (int i = 0; i < elements.getLength(); i++)
+		{
+			Element element = (Element) elements.item(i);
+			filters.put(element.getAttribute("root"), describe(element));
+		}
+		return filters;
+	}
+
+	/**
+	 * @return a canonical text of a filter definition, its attributes and rules
+	 */
+	private static String describe(Node node)
+	{
+		StringBuilder description = new StringBuilder(node.getNodeName());
+		NamedNodeMap attributes = node.getAttributes();
+		for (int i = 0; attributes != null && i < attributes.getLength(); i++)
+		{
+			description.append(' ').append(attributes.item(i).getNodeName()).append('=')
+					.append(attributes.item(i).getNodeValue());
+		}
+		NodeList children = node.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++)
+		{
+			if (children.item(i).getNodeType() == Node.ELEMENT_NODE)
+			{
+				description.append('[').append(describe(children.item(i))).append(']');
+			}
+		}
+		return description.toString();
+	}
+
+	private List<String> filterRoots()
+	{
+		List<String> roots = new ArrayList<String>();
+		NodeList elements = filter.getElementsByTagName("filter");
+		for (int i = 0; i < elements.getLength(); i++)
+		{
+			roots.add(((Element) elements.item(i)).getAttribute("root"));
+		}
+		return roots;
+	}
+
+	private void writeFilter(OutputStream output) throws IOException
+	{
+		Document delta = (Document) filter.cloneNode(true);
+		NodeList elements = delta.getElementsByTagName("filter");
+		for (int i = elements.getLength() - 1; i >= 0; i--)
+		{
+			Element element = (Element) elements.item(i);
+			if (!changedRoots.contains(element.getAttribute("root")))
+			{
+				element.getParentNode().removeChild(element);
+			}
+		}
+		try
+		{
+			TransformerFactory.newInstance().newTransformer().transform(new DOMSource(delta),
+					new StreamResult(output));
+		}
+		catch (Exception e)
+		{
+			throw new IOException("Cannot write " + FILTER + ": " + e.getMessage());
+		}
+	}
+
+	private void writeProperties(ZipFile zip, ZipEntry entry, OutputStream output) throws IOException
+	{
+		Properties properties = new Properties();
+		InputStream input = zip.getInputStream(entry);
+		try
+		{
+			properties.loadFromXML(input);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(input);
+		}
+		String name = properties.getProperty("name");
+		if (name != null)
+		{
+			properties.setProperty("name", name + "-delta");
+		}
+		properties.storeToXML(new NonClosingOutputStream(output), null, "UTF-8");
+	}
+
+	private static Map<String, ZipEntry> getEntries(ZipFile zip)
+	{
+		Map<String, ZipEntry> entries = new LinkedHashMap<String, ZipEntry>();
+		Enumeration<? extends ZipEntry> enumeration = zip.entries();
+		while (enumeration.hasMoreElements())
+		{
+			ZipEntry entry = enumeration.nextElement();
+			entries.put(entry.getName(), entry);
+		}
+		return entries;
+	}
+
+	private static boolean isSame(ZipEntry baseEntry, ZipEntry currentEntry)
+	{
+		return baseEntry != null && currentEntry != null && baseEntry.getSize() == currentEntry.getSize()
+				&& baseEntry.getCrc() == currentEntry.getCrc();
+	}
+
+	/**
+	 * @return the filter roots covering the repository node of a package entry
+	 */
+	private static Collection<String> getRoots(Collection<String> roots, String name)
+	{
+		List<String> covering = new ArrayList<String>();
+		for (String path : getNodePaths(name))
+		{
+			for (String root : roots)
+			{
+				if (covers(root, path) && !covering.contains(root))
+				{
+					covering.add(root);
+				}
+			}
+		}
+		return covering;
+	}
+
+	/**
+	 * Maps a <code>jcr_root</code> entry to the repository paths it may describe:
+	 * <code>.content.xml</code> belongs to its folder, <code>name.xml</code> may
+	 * be the serialization of node <code>name</code> and <code>name.dir</code>
+	 * holds the children of a file node <code>name</code>.
+	 */
+	private static List<String> getNodePaths(String name)
+	{
+		StringBuilder path = new StringBuilder();
+		for (String segment : name.substring(ROOT_FOLDER.length()).split("/"))
+		{
+			if (segment.length() == 0)
+			{
+				continue;
+			}
+			if (segment.endsWith(".dir"))
+			{
+				segment = segment.substring(0, segment.length() - ".dir".length());
+			}
+			path.append('/').append(decode(segment));
+		}
+		List<String> paths = new ArrayList<String>();
+		String nodePath = path.length() == 0 ? "/" : path.toString();
+		paths.add(nodePath);
+		if (nodePath.endsWith("/.content.xml"))
+		{
+			String parent = nodePath.substring(0, nodePath.length() - "/.content.xml".length());
+			paths.add(parent.length() == 0 ? "/" : parent);
+		}
+		else if (nodePath.endsWith(".xml"))
+		{
+			paths.add(nodePath.substring(0, nodePath.length() - ".xml".length()));
+		}
+		return paths;
+	}
+
+	/**
+	 * Reverts the file system escaping of a node name, e.g. <code>_jcr_content</code>
+	 * to <code>jcr:content</code>.
+	 */
+	private static String decode(String segment)
+	{
+		String name = segment;
+		if (name.length() > 2 && name.charAt(0) == '_')
+		{
+			int end = name.indexOf('_', 1);
+			if (end > 1)
+			{
+				name = name.substring(1, end) + ":" + name.substring(end + 1);
+			}
+		}
+		try
+		{
+			return URLDecoder.decode(name.replace("+", "%2B"), "UTF-8");
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			return name;
+		}
+		catch (IllegalArgumentException e)
+		{
+			return name;
+		}
+	}
+
+	private static boolean covers(String root, String path)
+	{
+		return root.equals(path) || "/".equals(root) || path.startsWith(root + "/");
+	}
+
+	private static boolean containsAny(Collection<String> collection, Collection<String> candidates)
+	{
+		for (String candidate : candidates)
+		{
+			if (collection.contains(candidate))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void closeQuietly(ZipFile zip)
+	{
+		try
+		{
+			zip.close();
+		}
+		catch (IOException e)
+		{
+			// ignore
+		}
+	}
+
+	/**
+	 * Keeps {@link Properties#storeToXML(OutputStream, String, String)} from
+	 * closing the zip stream it writes to.
+	 */
+	private static class NonClosingOutputStream extends FilterOutputStream
+	{
+		NonClosingOutputStream(OutputStream output)
+		{
+			super(output);
+		}
+
+		public void write(byte[] bytes, int offset, int length) throws IOException
+		{
+			out.write(bytes, offset, length);
+		}
+
+		public void close() throws IOException
+		{
+			flush();
+		}
+	}
+}
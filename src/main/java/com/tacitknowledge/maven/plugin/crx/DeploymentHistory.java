@@ -0,0 +1,212 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Local append-only history of the deployments, one file per host holding
+ * one JSON record per line: time, host, hash, size and mode of the packages,
+ * outcome, and the wall time of every phase. Records are appended under a
+ * file lock, so builds running at the same time can share the folder.
+ */
+public class DeploymentHistory
+{
+	private static final String SUFFIX = ".jsonl";
+
+	private final File folder;
+
+	/**
+	 * @param folder the folder of the history files
+	 */
+	public DeploymentHistory(File folder)
+	{
+		this.folder = folder;
+	}
+
+	/**
+	 * Appends one record per host.
+	 * @param packages the deployed packages with their SHA-256, already
+	 *            computed for the ledger, <code>null</code> if unknown
+	 * @param results one result per host
+	 * @throws IOException if a history file cannot be written
+	 */
+	public void record(Map<File, String> packages, List<DeploymentResult> results) throws IOException
+	{
+		long timestamp = System.currentTimeMillis();
+		for (DeploymentResult result : results)
+		{
+			// the mode depends on what the host already has
+			JSONArray packageInfo = new JSONArray();
+			for (Map.Entry<File, String> entry : packages.entrySet())
+			{
+				JSONObject info = new JSONObject();
+				info.put("name", entry.getKey().getName());
+				if (entry.getValue() != null)
+				{
+					info.put("sha256", entry.getValue());
+				}
+				if (entry.getKey().isFile())
+				{
+					info.put("size", entry.getKey().length());
+				}
+				info.put("mode", result.getMode(entry.getKey().getName()));
+				packageInfo.add(info);
+			}
+
+			JSONObject record = new JSONObject();
+			record.put("timestamp", timestamp);
+			record.put("host", result.getTarget().getCrxPath());
+			record.put("packages", packageInfo);
+			record.put("success", result.isSuccessful());
+			if (!result.isSuccessful())
+			{
+				record.put("error", String.valueOf(result.getError().getMessage()));
+			}
+			record.put("elapsedMillis", result.getElapsedMillis());
+			JSONObject phases = new JSONObject();
+			for (JSONObject phase : result.getMetrics().getPhaseTotals())
+			{
+				phases.put(phase.getString("name"), phase.getLong("millis"));
+			}
+			record.put("phases", phases);
+			append(new File(folder, result.getTarget().getId() + SUFFIX), record.toString() + "\n");
+		}
+	}
+
+	private static void append(File file, String line) throws IOException
+	{
+		file.getParentFile().mkdirs();
+		// the file lock only excludes other processes, builds of this JVM wait here
+		synchronized (DeploymentHistory.class)
+		{
+			FileOutputStream output = new FileOutputStream(file, true);
+			try
+			{
+				FileChannel channel = output.getChannel();
+				FileLock lock = channel.lock();
+				try
+				{
+					ByteBuffer buffer = ByteBuffer.wrap(line.getBytes("UTF-8"));
+					while (buffer.hasRemaining())
+					{
+						channel.write(buffer);
+					}
+				}
+				finally
+				{
+					lock.release();
+				}
+			}
+			finally
+			{
+				IOUtils.closeQuietly(output);
+			}
+		}
+	}
+
+	/**
+	 * @return the identifiers of the hosts with a history, in alphabetical order.
+	 */
+	public List<String> getHostIds()
+	{
+		List<String> ids = new ArrayList<String>();
+		File[] files = folder.listFiles();
+		if (files != null)
+		{
+			for (File file : files)
+			{
+				if (file.isFile() && file.getName().endsWith(SUFFIX))
+				{
+					ids.add(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+				}
+			}
+		}
+		String[] sorted = ids.toArray(new String[ids.size()]);
+		Arrays.sort(sorted);
+		return Arrays.asList(sorted);
+	}
+
+	/**
+	 * Reads the history of a host, oldest first. A line cut short by an
+	 * interrupted build is skipped.
+	 * @param hostId the identifier of the host, see {@link CrxTarget#getId()}
+	 * @param log the log to report skipped lines to
+	 * @return the records
+	 * @throws IOException if the history file cannot be read
+	 */
+	public List<JSONObject> read(String hostId, Log log) throws IOException
+	{
+		List<JSONObject> records = new ArrayList<JSONObject>();
+		File file = new File(folder, hostId + SUFFIX);
+		if (!file.isFile())
+		{
+			return records;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try
+		{
+			String line;
+			int number = 0;
+			while ((line = reader.readLine()) != null)
+			{
+				number++;
+				if (line.trim().length() == 0)
+				{
+					continue;
+				}
+				try
+				{
+					records.add(JSONObject.fromObject(line));
+				}
+				catch (JSONException e)
+				{
+					log.warn("Skipping line " + number + " of " + file + ": " + e.getMessage());
+				}
+			}
+		}
+		finally
+		{
+			IOUtils.closeQuietly(reader);
+		}
+		return records;
+	}
+
+	public File getFolder()
+	{
+		return folder;
+	}
+}
@@ -0,0 +1,350 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Goal which reports the trends of the deployment history kept by the
+ * <code>post</code> goal and flags the deployments with a phase much slower
+ * than the rolling median of the deployments before it. A deployment is only
+ * compared with the earlier deployments of the same set of packages to the
+ * same host, each package deployed the same way: in full or as a delta.
+ * Failed deployments are neither flagged nor part of the median.
+ *
+ * @goal history
+ * @requiresProject false
+ */
+public class DeploymentHistoryPlugin extends AbstractMojo
+{
+	/**
+	 * Fewest earlier successful deployments a phase is compared with.
+	 */
+	private static final int MINIMUM_SAMPLES = 3;
+
+	/**
+	 * Folder of the deployment history, one file per host.
+	 * This property may be set by the <code>crxpackage.history</code>
+	 * @parameter expression="${crxpackage.history}" default-value="${user.home}/.crx-packager/history"
+	 */
+	private File historyFolder;
+
+	/**
+	 * Phases compared with their rolling median, separated by commas.
+	 * This property may be set by the <code>crxpackage.history.phases</code>
+	 * @parameter expression="${crxpackage.history.phases}" default-value="upload,install,delete"
+	 */
+	private String phases = "upload,install,delete";
+
+	/**
+	 * A phase is flagged when it took more than this factor times its rolling median.
+	 * This property may be set by the <code>crxpackage.history.factor</code>
+	 * @parameter expression="${crxpackage.history.factor}" default-value="2.0"
+	 */
+	private double factor = 2.0;
+
+	/**
+	 * Number of earlier successful deployments the rolling median is taken over.
+	 * This property may be set by the <code>crxpackage.history.window</code>
+	 * @parameter expression="${crxpackage.history.window}" default-value="10"
+	 */
+	private int window = 10;
+
+	/**
+	 * Phases faster than this number of milliseconds are never flagged, so
+	 * that jitter on short phases is not reported.
+	 * This property may be set by the <code>crxpackage.history.minimumMillis</code>
+	 * @parameter expression="${crxpackage.history.minimumMillis}" default-value="1000"
+	 */
+	private long minimumMillis = 1000;
+
+	/**
+	 * Whether to fail the build when the latest deployment to a host is flagged.
+	 * This property may be set by the <code>crxpackage.history.failOnRegression</code>
+	 * @parameter expression="${crxpackage.history.failOnRegression}" default-value="false"
+	 */
+	private boolean failOnRegression;
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void execute() throws MojoExecutionException
+	{
+		DeploymentHistory history = new DeploymentHistory(historyFolder);
+		List<String> hostIds = history.getHostIds();
+		if (hostIds.isEmpty())
+		{
+			getLog().info("No deployment history in " + historyFolder.getAbsolutePath());
+			return;
+		}
+
+		List<String> latestRegressions = new ArrayList<String>();
+		for (String hostId : hostIds)
+		{
+			List<JSONObject> records;
+			try
+			{
+				records = history.read(hostId, getLog());
+			}
+			catch (IOException e)
+			{
+				throw new MojoExecutionException("Cannot read the deployment history of " + hostId + ": "
+						+ e.getMessage(), e);
+			}
+			if (records.isEmpty())
+			{
+				continue;
+			}
+			JSONObject latest = records.get(records.size() - 1);
+			for (List<JSONObject> group : groupByPackages(records).values())
+			{
+				boolean current = group.get(group.size() - 1) == latest;
+				latestRegressions.addAll(report(hostId, group, current));
+			}
+		}
+
+		if (failOnRegression && !latestRegressions.isEmpty())
+		{
+			throw new MojoExecutionException("Latest deployment slower than its history: "
+					+ StringUtils.join(latestRegressions, "; "));
+		}
+	}
+
+	/**
+	 * Splits the history of a host by the set of package names and modes
+	 * deployed, an aggregated deployment of several packages is not
+	 * comparable with the deployment of one of them, nor a delta with the
+	 * full package. Records without a mode predate it and were full
+	 * deployments.
+	 * @return the records of every package set, oldest first
+	 */
+	static Map<String, List<JSONObject>> groupByPackages(List<JSONObject> records)
+	{
+		Map<String, List<JSONObject>> groups = new LinkedHashMap<String, List<JSONObject>>();
+		for (JSONObject record : records)
+		{
+			List<String> names = new ArrayList<String>();
+			JSONArray packages = record.optJSONArray("packages");
+			for (int i = 0; packages != null && i < packages.size(); i++)
+			{
+				JSONObject info = packages.getJSONObject(i);
+				names.add(info.optString("name") + ":" + info.optString("mode", DeploymentResult.MODE_FULL));
+			}
+			Collections.sort(names);
+			String key = StringUtils.join(names, ",");
+			List<JSONObject> group = groups.get(key);
+			if (group == null)
+			{
+				group = new ArrayList<JSONObject>();
+				groups.put(key, group);
+			}
+			group.add(record);
+		}
+		return groups;
+	}
+
+	/**
+	 * Logs the trends of the deployments of one package set to a host and the flagged deployments.
+	 * @param current whether the last record is the latest deployment to the host
+	 * @return the regressions of the latest deployment, empty if none
+	 */
+	private List<String> report(String hostId, List<JSONObject> records, boolean current)
+	{
+		JSONObject latest = records.get(records.size() - 1);
+		int succeeded = 0;
+		for (JSONObject record : records)
+		{
+			if (record.optBoolean("success"))
+			{
+				succeeded++;
+			}
+		}
+		getLog().info("Deployment history of " + latest.optString("host", hostId) + ": " + records.size()
+				+ " deployments, " + succeeded + " successful, latest " + format(latest));
+
+		long firstSize = packageSize(records.get(0));
+		long latestSize = packageSize(latest);
+		if (firstSize > 0 && latestSize > 0)
+		{
+			getLog().info("  package size " + latestSize + " bytes, " + change(latestSize, firstSize) + " since "
+					+ format(records.get(0)));
+		}
+
+		for (String phase : StringUtils.split(phases, ", "))
+		{
+			List<Long> recent = new ArrayList<Long>();
+			List<Long> before = new ArrayList<Long>();
+			for (int i = records.size() - 1; i >= 0 && before.size() < window; i--)
+			{
+				JSONObject record = records.get(i);
+				if (record.optBoolean("success") && hasPhase(record, phase))
+				{
+					(recent.size() < window ? recent : before).add(phaseMillis(record, phase));
+				}
+			}
+			if (recent.isEmpty())
+			{
+				continue;
+			}
+			String line = "  " + StringUtils.rightPad(phase, 8) + " median " + median(recent) + " ms over the last "
+					+ recent.size();
+			if (!before.isEmpty())
+			{
+				line += ", " + median(before) + " ms over the " + before.size() + " before ("
+						+ change(median(recent), median(before)) + ")";
+			}
+			getLog().info(line);
+		}
+
+		List<String> latestRegressions = new ArrayList<String>();
+		for (int i = 0; i < records.size(); i++)
+		{
+			for (String regression : findRegressions(records, i))
+			{
+				getLog().warn("  " + format(records.get(i)) + " " + regression);
+				if (current && i == records.size() - 1)
+				{
+					latestRegressions.add(hostId + " " + regression);
+				}
+			}
+		}
+		return latestRegressions;
+	}
+
+	/**
+	 * Compares the phases of a successful deployment with the rolling median
+	 * of the successful deployments before it.
+	 * @return the phases more than <code>factor</code> times slower, empty if none or if the deployment failed
+	 */
+	List<String> findRegressions(List<JSONObject> records, int index)
+	{
+		List<String> regressions = new ArrayList<String>();
+		JSONObject record = records.get(index);
+		if (!record.optBoolean("success"))
+		{
+			// a failed deployment stops part way, or hangs until a timeout
+			return regressions;
+		}
+		for (String phase : StringUtils.split(phases, ", "))
+		{
+			if (!hasPhase(record, phase))
+			{
+				continue;
+			}
+			long millis = phaseMillis(record, phase);
+			if (millis < minimumMillis)
+			{
+				continue;
+			}
+			List<Long> previous = new ArrayList<Long>();
+			for (int i = index - 1; i >= 0 && previous.size() < window; i--)
+			{
+				if (records.get(i).optBoolean("success") && hasPhase(records.get(i), phase))
+				{
+					previous.add(phaseMillis(records.get(i), phase));
+				}
+			}
+			if (previous.size() < MINIMUM_SAMPLES)
+			{
+				continue;
+			}
+			long median = median(previous);
+			if (millis > factor * median)
+			{
+				regressions.add(phase + " took " + millis + " ms, " + String.format("%.1f", (double) millis
+						/ Math.max(1, median)) + " times the median " + median + " ms of the previous "
+						+ previous.size() + " deployments");
+			}
+		}
+		return regressions;
+	}
+
+	private static boolean hasPhase(JSONObject record, String phase)
+	{
+		JSONObject recordPhases = record.optJSONObject("phases");
+		return recordPhases != null && recordPhases.has(phase);
+	}
+
+	private static long phaseMillis(JSONObject record, String phase)
+	{
+		return record.getJSONObject("phases").getLong(phase);
+	}
+
+	/**
+	 * @return the total size of the packages of a record, 0 if unknown.
+	 */
+	private static long packageSize(JSONObject record)
+	{
+		long size = 0;
+		JSONArray packages = record.optJSONArray("packages");
+		for (int i = 0; packages != null && i < packages.size(); i++)
+		{
+			size += packages.getJSONObject(i).optLong("size");
+		}
+		return size;
+	}
+
+	static long median(List<Long> values)
+	{
+		List<Long> sorted = new ArrayList<Long>(values);
+		Collections.sort(sorted);
+		int middle = sorted.size() / 2;
+		return sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+	}
+
+	private static String change(long value, long reference)
+	{
+		if (reference == 0)
+		{
+			return "no reference";
+		}
+		return String.format("%+.0f%%", (value - reference) * 100.0 / reference);
+	}
+
+	private static List<String> getPackageNames(JSONObject record)
+	{
+		JSONArray packages = record.optJSONArray("packages");
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; packages != null && i < packages.size(); i++)
+		{
+			names.add(packages.getJSONObject(i).optString("name"));
+		}
+		return names;
+	}
+
+	private static String format(JSONObject record)
+	{
+		String time = new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date(record.optLong("timestamp")));
+		return time + " " + StringUtils.join(getPackageNames(record), ",")
+				+ (record.optBoolean("success") ? "" : " (failed)");
+	}
+}
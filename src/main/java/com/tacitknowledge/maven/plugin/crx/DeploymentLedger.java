@@ -0,0 +1,163 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Local record of the packages installed on each host, keyed by host and
+ * package path, with the SHA-256 of the installed package as value. Lets a
+ * deployment skip the upload and install of a package already present on the
+ * host byte for byte.
+ */
+public class DeploymentLedger
+{
+	/**
+	 * Guards the ledger file against concurrent deployers of this JVM.
+	 */
+	private static final Object LOCK = new Object();
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+
+	/**
+	 * @param file the properties file backing the ledger, created on first record
+	 */
+	public DeploymentLedger(File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * @param target the host
+	 * @param packagePath the repository path of the package
+	 * @return the digest recorded for the package on the host, <code>null</code> if none
+	 * @throws IOException if the ledger cannot be read
+	 */
+	public String getDigest(CrxTarget target, String packagePath) throws IOException
+	{
+		synchronized (LOCK)
+		{
+			return load().getProperty(key(target, packagePath));
+		}
+	}
+
+	/**
+	 * Records the digest of a package just installed on a host.
+	 * @param target the host
+	 * @param packagePath the repository path of the package
+	 * @param digest the package digest
+	 * @throws IOException if the ledger cannot be written
+	 */
+	public void record(CrxTarget target, String packagePath, String digest) throws IOException
+	{
+		synchronized (LOCK)
+		{
+			Properties entries = load();
+			entries.setProperty(key(target, packagePath), digest);
+			OutputStream output = FileUtils.openOutputStream(file);
+			try
+			{
+				entries.store(output, "CRX package deployments");
+			}
+			finally
+			{
+				IOUtils.closeQuietly(output);
+			}
+		}
+	}
+
+	private Properties load() throws IOException
+	{
+		Properties entries = new Properties();
+		if (file.exists())
+		{
+			InputStream input = new FileInputStream(file);
+			try
+			{
+				entries.load(input);
+			}
+			finally
+			{
+				IOUtils.closeQuietly(input);
+			}
+		}
+		return entries;
+	}
+
+	private static String key(CrxTarget target, String packagePath)
+	{
+		return target.getCrxPath() + packagePath;
+	}
+
+	/**
+	 * Computes the SHA-256 of a file, streaming it through the digest.
+	 * @param file the file to hash
+	 * @return the hex encoded digest
+	 * @throws IOException if the file cannot be read
+	 */
+	public static String digest(File file) throws IOException
+	{
+		return digest(new FileInputStream(file));
+	}
+
+	/**
+	 * Computes the SHA-256 of a stream, closing it.
+	 * @param stream the content to hash, e.g. a package downloaded from a host
+	 * @return the hex encoded digest
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static String digest(InputStream stream) throws IOException
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("SHA-256 not supported by this JVM");
+		}
+		InputStream input = new DigestInputStream(stream, digest);
+		try
+		{
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (input.read(buffer) != -1)
+			{
+				// the digest is updated while reading
+			}
+		}
+		finally
+		{
+			IOUtils.closeQuietly(input);
+		}
+		return new String(Hex.encodeHex(digest.digest()));
+	}
+}
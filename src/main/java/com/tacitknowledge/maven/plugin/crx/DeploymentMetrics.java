@@ -0,0 +1,225 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Wall time, transferred bytes, status codes and retries of the phases and
+ * HTTP calls of a deployment to one host.
+ */
+public class DeploymentMetrics
+{
+	private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+	private final List<JSONObject> phases = new ArrayList<JSONObject>();
+
+	private final List<JSONObject> calls = new ArrayList<JSONObject>();
+
+	private String phase = "none";
+
+	private long phaseStart;
+
+	private int phaseRetries;
+
+	private final ThreadLocal<JSONObject> threadPhase = new ThreadLocal<JSONObject>();
+
+	/**
+	 * Starts timing a phase, the calls recorded until {@link #endPhase(long)} belong to it.
+	 * @param name the phase name, e.g. <code>upload</code>
+	 */
+	public synchronized void startPhase(String name)
+	{
+		phase = name;
+		phaseStart = System.currentTimeMillis();
+		phaseRetries = 0;
+	}
+
+	/**
+	 * Ends the current phase.
+	 * @param bytes payload transferred by the phase, used for its throughput, 0 if not relevant
+	 */
+	public synchronized void endPhase(long bytes)
+	{
+		recordPhase(phase, System.currentTimeMillis() - phaseStart, bytes, phaseRetries);
+		phase = "none";
+	}
+
+	/**
+	 * Starts timing a phase run by the calling thread alongside the current
+	 * one, e.g. a pipelined backup: the calls and retries of this thread belong
+	 * to it until {@link #endThreadPhase(long)}, those of the other threads to
+	 * the current phase.
+	 * @param name the phase name
+	 */
+	public void startThreadPhase(String name)
+	{
+		JSONObject state = new JSONObject();
+		state.put("name", name);
+		state.put("start", System.currentTimeMillis());
+		state.put("retries", 0);
+		threadPhase.set(state);
+	}
+
+	/**
+	 * Ends the phase of the calling thread.
+	 * @param bytes payload transferred by the phase, 0 if not relevant
+	 */
+	public void endThreadPhase(long bytes)
+	{
+		JSONObject state = threadPhase.get();
+		threadPhase.remove();
+		if (state != null)
+		{
+			recordPhase(state.getString("name"), System.currentTimeMillis() - state.getLong("start"), bytes,
+					state.getInt("retries"));
+		}
+	}
+
+	/**
+	 * Records a phase that ran alongside the current one.
+	 * @param name the phase name
+	 * @param millis wall time of the phase
+	 * @param bytes payload transferred by the phase, 0 if not relevant
+	 * @param retries number of retries of the phase
+	 */
+	public synchronized void recordPhase(String name, long millis, long bytes, int retries)
+	{
+		JSONObject entry = new JSONObject();
+		entry.put("name", name);
+		entry.put("millis", millis);
+		entry.put("bytes", bytes);
+		entry.put("mbPerSecond", megabytesPerSecond(bytes, millis));
+		entry.put("retries", retries);
+		phases.add(entry);
+	}
+
+	/**
+	 * Counts a retry in the phase of the calling thread, the current phase if it has none.
+	 */
+	public synchronized void addRetry()
+	{
+		JSONObject state = threadPhase.get();
+		if (state != null)
+		{
+			state.put("retries", state.getInt("retries") + 1);
+		}
+		else
+		{
+			phaseRetries++;
+		}
+	}
+
+	/**
+	 * Records one HTTP call.
+	 * @param method the HTTP method
+	 * @param path the request path
+	 * @param status the response status, -1 if no response was received
+	 * @param millis wall time of the call
+	 * @param bytesSent request body length, -1 if unknown
+	 * @param bytesReceived response body length, -1 if unknown
+	 * @param retries number of earlier attempts of the same call, 0 for the first one
+	 */
+	public synchronized void recordCall(String method, String path, int status, long millis, long bytesSent,
+			long bytesReceived, int retries)
+	{
+		JSONObject state = threadPhase.get();
+		JSONObject entry = new JSONObject();
+		entry.put("phase", state != null ? state.getString("name") : phase);
+		entry.put("method", method);
+		entry.put("path", path);
+		entry.put("status", status);
+		entry.put("millis", millis);
+		entry.put("bytesSent", bytesSent);
+		entry.put("bytesReceived", bytesReceived);
+		entry.put("retries", retries);
+		calls.add(entry);
+	}
+
+	/**
+	 * @return the recorded phases and calls.
+	 */
+	public synchronized JSONObject toJson()
+	{
+		JSONObject json = new JSONObject();
+		json.put("phases", JSONArray.fromObject(phases));
+		json.put("calls", JSONArray.fromObject(calls));
+		return json;
+	}
+
+	/**
+	 * @return the recorded phases, each with its name, millis, bytes, mbPerSecond and retries.
+	 */
+	public synchronized List<JSONObject> getPhases()
+	{
+		return new ArrayList<JSONObject>(phases);
+	}
+
+	/**
+	 * Adds up the phases recorded more than once, e.g. one backup per package of a plan.
+	 * @return one entry per phase name, in the order of their first run, with the total millis, bytes and retries.
+	 */
+	public synchronized List<JSONObject> getPhaseTotals()
+	{
+		Map<String, JSONObject> totals = new LinkedHashMap<String, JSONObject>();
+		for (JSONObject entry : phases)
+		{
+			JSONObject total = totals.get(entry.getString("name"));
+			if (total == null)
+			{
+				total = new JSONObject();
+				total.put("name", entry.getString("name"));
+				total.put("millis", 0L);
+				total.put("bytes", 0L);
+				total.put("retries", 0);
+				totals.put(entry.getString("name"), total);
+			}
+			total.put("millis", total.getLong("millis") + entry.getLong("millis"));
+			total.put("bytes", total.getLong("bytes") + entry.getLong("bytes"));
+			total.put("retries", total.getInt("retries") + entry.getInt("retries"));
+		}
+		return new ArrayList<JSONObject>(totals.values());
+	}
+
+	/**
+	 * @return the recorded calls, each with its phase, method, path, status, millis, byte counts and retries.
+	 */
+	public synchronized List<JSONObject> getCalls()
+	{
+		return new ArrayList<JSONObject>(calls);
+	}
+
+	/**
+	 * @param bytes transferred bytes
+	 * @param millis elapsed time
+	 * @return the throughput in megabytes per second, 0 if nothing was transferred.
+	 */
+	public static double megabytesPerSecond(long bytes, long millis)
+	{
+		if (bytes <= 0)
+		{
+			return 0;
+		}
+		return bytes / BYTES_PER_MEGABYTE / (Math.max(1, millis) / 1000.0);
+	}
+}
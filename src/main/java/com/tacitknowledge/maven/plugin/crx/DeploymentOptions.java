@@ -0,0 +1,612 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Host independent settings of a deployment, shared by every
+ * {@link CrxPackageDeployer} of one plugin execution.
+ */
+public class DeploymentOptions
+{
+	private String jarfile;
+
+	private String deleteNodePaths;
+
+	private String packagePath;
+
+	private boolean aclIgnore;
+
+	private boolean enableBackup;
+
+	private boolean backupOnly;
+
+	private boolean skipInstall;
+
+	private int maxConnections;
+
+	private int connectionTimeout;
+
+	private int socketTimeout;
+
+	private DeploymentLedger ledger;
+
+	private String packageDigest;
+
+	private long uploadChunkSize;
+
+	private int uploadRetries;
+
+	private long uploadRetryDelay;
+
+	private int deleteParallelism;
+
+	private NodeDefinitionCache definitionCache = new NodeDefinitionCache();
+
+	private long installProgressInterval;
+
+	private long installTimeout;
+
+	private boolean backupDeduplicate;
+
+	private int backupKeep;
+
+	private int backupMaxAge;
+
+	private long backupMaxSize;
+
+	private boolean backupIfChanged;
+
+	private boolean deltaDeploy;
+
+	private SessionCache sessionCache;
+
+	private int installParallelism;
+
+	private HostCoordinator hostCoordinator;
+
+	private int hostTransfers;
+
+	private int hostWrites;
+
+	private RetryPolicy retryPolicy;
+
+	private int breakerThreshold;
+
+	private long breakerOpenTime;
+
+	private boolean backupPipeline;
+
+	private int packageEntries;
+
+	private String smokeUrls;
+
+	private int smokeRequests;
+
+	private int smokeParallelism;
+
+	private long smokeTimeout;
+
+	private int smokeStatus;
+
+	private long smokeMaxP95;
+
+	private long smokeMaxLatency;
+
+	public String getJarfile()
+	{
+		return jarfile;
+	}
+
+	public void setJarfile(String jarfile)
+	{
+		this.jarfile = jarfile;
+	}
+
+	public String getDeleteNodePaths()
+	{
+		return deleteNodePaths;
+	}
+
+	public void setDeleteNodePaths(String deleteNodePaths)
+	{
+		this.deleteNodePaths = deleteNodePaths;
+	}
+
+	public String getPackagePath()
+	{
+		return packagePath;
+	}
+
+	public void setPackagePath(String packagePath)
+	{
+		this.packagePath = packagePath;
+	}
+
+	public boolean isAclIgnore()
+	{
+		return aclIgnore;
+	}
+
+	public void setAclIgnore(boolean aclIgnore)
+	{
+		this.aclIgnore = aclIgnore;
+	}
+
+	public boolean isEnableBackup()
+	{
+		return enableBackup;
+	}
+
+	public void setEnableBackup(boolean enableBackup)
+	{
+		this.enableBackup = enableBackup;
+	}
+
+	public boolean isBackupOnly()
+	{
+		return backupOnly;
+	}
+
+	public void setBackupOnly(boolean backupOnly)
+	{
+		this.backupOnly = backupOnly;
+	}
+
+	public boolean isSkipInstall()
+	{
+		return skipInstall;
+	}
+
+	public void setSkipInstall(boolean skipInstall)
+	{
+		this.skipInstall = skipInstall;
+	}
+
+	public int getMaxConnections()
+	{
+		return maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections)
+	{
+		this.maxConnections = maxConnections;
+	}
+
+	public int getConnectionTimeout()
+	{
+		return connectionTimeout;
+	}
+
+	public void setConnectionTimeout(int connectionTimeout)
+	{
+		this.connectionTimeout = connectionTimeout;
+	}
+
+	public int getSocketTimeout()
+	{
+		return socketTimeout;
+	}
+
+	public void setSocketTimeout(int socketTimeout)
+	{
+		this.socketTimeout = socketTimeout;
+	}
+
+	/**
+	 * @return the ledger used to skip unchanged packages, <code>null</code> if disabled
+	 */
+	public DeploymentLedger getLedger()
+	{
+		return ledger;
+	}
+
+	public void setLedger(DeploymentLedger ledger)
+	{
+		this.ledger = ledger;
+	}
+
+	/**
+	 * @return the SHA-256 of the package, shared by the ledger and the history, <code>null</code> if not computed
+	 */
+	public String getPackageDigest()
+	{
+		return packageDigest;
+	}
+
+	public void setPackageDigest(String packageDigest)
+	{
+		this.packageDigest = packageDigest;
+	}
+
+	/**
+	 * @return the size of upload chunks in bytes, 0 to send the package in one request
+	 */
+	public long getUploadChunkSize()
+	{
+		return uploadChunkSize;
+	}
+
+	public void setUploadChunkSize(long uploadChunkSize)
+	{
+		this.uploadChunkSize = uploadChunkSize;
+	}
+
+	public int getUploadRetries()
+	{
+		return uploadRetries;
+	}
+
+	public void setUploadRetries(int uploadRetries)
+	{
+		this.uploadRetries = uploadRetries;
+	}
+
+	public long getUploadRetryDelay()
+	{
+		return uploadRetryDelay;
+	}
+
+	public void setUploadRetryDelay(long uploadRetryDelay)
+	{
+		this.uploadRetryDelay = uploadRetryDelay;
+	}
+
+	/**
+	 * @return maximum number of independent subtrees removed at the same time
+	 */
+	public int getDeleteParallelism()
+	{
+		return deleteParallelism;
+	}
+
+	public void setDeleteParallelism(int deleteParallelism)
+	{
+		this.deleteParallelism = deleteParallelism;
+	}
+
+	/**
+	 * @return the node definitions fetched during this run
+	 */
+	public NodeDefinitionCache getDefinitionCache()
+	{
+		return definitionCache;
+	}
+
+	public void setDefinitionCache(NodeDefinitionCache definitionCache)
+	{
+		this.definitionCache = definitionCache;
+	}
+
+	/**
+	 * @return milliseconds between two install progress reports
+	 */
+	public long getInstallProgressInterval()
+	{
+		return installProgressInterval;
+	}
+
+	public void setInstallProgressInterval(long installProgressInterval)
+	{
+		this.installProgressInterval = installProgressInterval;
+	}
+
+	/**
+	 * @return maximum duration of the install in milliseconds, 0 for none
+	 */
+	public long getInstallTimeout()
+	{
+		return installTimeout;
+	}
+
+	public void setInstallTimeout(long installTimeout)
+	{
+		this.installTimeout = installTimeout;
+	}
+
+	/**
+	 * @return whether backups go to the content addressed {@link BackupStore}
+	 */
+	public boolean isBackupDeduplicate()
+	{
+		return backupDeduplicate;
+	}
+
+	public void setBackupDeduplicate(boolean backupDeduplicate)
+	{
+		this.backupDeduplicate = backupDeduplicate;
+	}
+
+	public int getBackupKeep()
+	{
+		return backupKeep;
+	}
+
+	public void setBackupKeep(int backupKeep)
+	{
+		this.backupKeep = backupKeep;
+	}
+
+	public int getBackupMaxAge()
+	{
+		return backupMaxAge;
+	}
+
+	public void setBackupMaxAge(int backupMaxAge)
+	{
+		this.backupMaxAge = backupMaxAge;
+	}
+
+	/**
+	 * @return maximum disk use of the backup store in bytes, 0 for no limit
+	 */
+	public long getBackupMaxSize()
+	{
+		return backupMaxSize;
+	}
+
+	public void setBackupMaxSize(long backupMaxSize)
+	{
+		this.backupMaxSize = backupMaxSize;
+	}
+
+	/**
+	 * @return whether the backup download is skipped while the remote package is unchanged
+	 */
+	public boolean isBackupIfChanged()
+	{
+		return backupIfChanged;
+	}
+
+	public void setBackupIfChanged(boolean backupIfChanged)
+	{
+		this.backupIfChanged = backupIfChanged;
+	}
+
+	/**
+	 * @return whether only the filter roots changed since the last deployment are installed
+	 */
+	public boolean isDeltaDeploy()
+	{
+		return deltaDeploy;
+	}
+
+	public void setDeltaDeploy(boolean deltaDeploy)
+	{
+		this.deltaDeploy = deltaDeploy;
+	}
+
+	/**
+	 * @return the sessions to reuse, <code>null</code> to always log in
+	 */
+	public SessionCache getSessionCache()
+	{
+		return sessionCache;
+	}
+
+	public void setSessionCache(SessionCache sessionCache)
+	{
+		this.sessionCache = sessionCache;
+	}
+
+	/**
+	 * @return maximum number of independent packages of a plan installed at the same time
+	 */
+	public int getInstallParallelism()
+	{
+		return installParallelism;
+	}
+
+	public void setInstallParallelism(int installParallelism)
+	{
+		this.installParallelism = installParallelism;
+	}
+
+	/**
+	 * @return the coordinator of the operations running against each host, <code>null</code> for none
+	 */
+	public HostCoordinator getHostCoordinator()
+	{
+		return hostCoordinator;
+	}
+
+	public void setHostCoordinator(HostCoordinator hostCoordinator)
+	{
+		this.hostCoordinator = hostCoordinator;
+	}
+
+	/**
+	 * @return maximum number of uploads and backup downloads running at the same time per host, 0 for no limit
+	 */
+	public int getHostTransfers()
+	{
+		return hostTransfers;
+	}
+
+	public void setHostTransfers(int hostTransfers)
+	{
+		this.hostTransfers = hostTransfers;
+	}
+
+	/**
+	 * @return maximum number of installs and saves running at the same time per host, 0 for no limit
+	 */
+	public int getHostWrites()
+	{
+		return hostWrites;
+	}
+
+	public void setHostWrites(int hostWrites)
+	{
+		this.hostWrites = hostWrites;
+	}
+
+	/**
+	 * @return how the idempotent calls are retried, <code>null</code> for never
+	 */
+	public RetryPolicy getRetryPolicy()
+	{
+		return retryPolicy;
+	}
+
+	public void setRetryPolicy(RetryPolicy retryPolicy)
+	{
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * @return consecutive failed calls after which a host is not called for a while, 0 for never
+	 */
+	public int getBreakerThreshold()
+	{
+		return breakerThreshold;
+	}
+
+	public void setBreakerThreshold(int breakerThreshold)
+	{
+		this.breakerThreshold = breakerThreshold;
+	}
+
+	/**
+	 * @return milliseconds a host is not called once the threshold is reached
+	 */
+	public long getBreakerOpenTime()
+	{
+		return breakerOpenTime;
+	}
+
+	public void setBreakerOpenTime(long breakerOpenTime)
+	{
+		this.breakerOpenTime = breakerOpenTime;
+	}
+
+	/**
+	 * @return whether the backup is downloaded while the package is uploaded under a staging name
+	 */
+	public boolean isBackupPipeline()
+	{
+		return backupPipeline;
+	}
+
+	public void setBackupPipeline(boolean backupPipeline)
+	{
+		this.backupPipeline = backupPipeline;
+	}
+
+	/**
+	 * @return number of content entries of the validated package, 0 if unknown
+	 */
+	public int getPackageEntries()
+	{
+		return packageEntries;
+	}
+
+	public void setPackageEntries(int packageEntries)
+	{
+		this.packageEntries = packageEntries;
+	}
+
+	/**
+	 * @return the urls checked after the install, relative to the host or absolute, <code>null</code> for none
+	 */
+	public String getSmokeUrls()
+	{
+		return smokeUrls;
+	}
+
+	public void setSmokeUrls(String smokeUrls)
+	{
+		this.smokeUrls = smokeUrls;
+	}
+
+	/**
+	 * @return number of timed requests per smoke check url
+	 */
+	public int getSmokeRequests()
+	{
+		return smokeRequests;
+	}
+
+	public void setSmokeRequests(int smokeRequests)
+	{
+		this.smokeRequests = smokeRequests;
+	}
+
+	/**
+	 * @return maximum number of smoke check requests at the same time
+	 */
+	public int getSmokeParallelism()
+	{
+		return smokeParallelism;
+	}
+
+	public void setSmokeParallelism(int smokeParallelism)
+	{
+		this.smokeParallelism = smokeParallelism;
+	}
+
+	/**
+	 * @return milliseconds the smoke check urls have to become ready in
+	 */
+	public long getSmokeTimeout()
+	{
+		return smokeTimeout;
+	}
+
+	public void setSmokeTimeout(long smokeTimeout)
+	{
+		this.smokeTimeout = smokeTimeout;
+	}
+
+	/**
+	 * @return the status every smoke check response must have
+	 */
+	public int getSmokeStatus()
+	{
+		return smokeStatus;
+	}
+
+	public void setSmokeStatus(int smokeStatus)
+	{
+		this.smokeStatus = smokeStatus;
+	}
+
+	/**
+	 * @return highest p95 latency of a smoke check url in milliseconds, 0 for no limit
+	 */
+	public long getSmokeMaxP95()
+	{
+		return smokeMaxP95;
+	}
+
+	public void setSmokeMaxP95(long smokeMaxP95)
+	{
+		this.smokeMaxP95 = smokeMaxP95;
+	}
+
+	/**
+	 * @return highest latency of a smoke check request in milliseconds, 0 for no limit
+	 */
+	public long getSmokeMaxLatency()
+	{
+		return smokeMaxLatency;
+	}
+
+	public void setSmokeMaxLatency(long smokeMaxLatency)
+	{
+		this.smokeMaxLatency = smokeMaxLatency;
+	}
+}
@@ -0,0 +1,217 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Packages registered by the modules of a build, deployed together by the
+ * last module. In a parallel build the last module may reach this goal
+ * before the others, so it waits until every expected module has arrived,
+ * and a package registered once the plan is deployed is refused. The shared
+ * instance lives in the plugin class loader, which Maven keeps for the whole
+ * reactor build; a build started later gets a new one.
+ */
+public class DeploymentPlan
+{
+	/**
+	 * Milliseconds between two reports of the modules waited for.
+	 */
+	private static final long REPORT_INTERVAL = 30000;
+
+	private static DeploymentPlan shared;
+
+	private static Object sharedBuild;
+
+	private final List<PlannedPackage> packages = new ArrayList<PlannedPackage>();
+
+	private final Set<String> arrived = new HashSet<String>();
+
+	private final Map<String, String> failures = new LinkedHashMap<String, String>();
+
+	private List<String> expected;
+
+	private String drainedBy;
+
+	/**
+	 * @param build identifies the running build, e.g. its start time, <code>null</code> if unknown
+	 * @return the plan shared by every execution of the plugin in the build
+	 */
+	public static synchronized DeploymentPlan getShared(Object build)
+	{
+		if (shared == null || (build != null && !build.equals(sharedBuild)))
+		{
+			shared = new DeploymentPlan();
+			sharedBuild = build;
+		}
+		return shared;
+	}
+
+	/**
+	 * Sets the modules the plan waits for; the first caller sets them.
+	 * @param modules the <code>groupId:artifactId</code> of the modules, in build order
+	 */
+	public synchronized void expect(List<String> modules)
+	{
+		if (expected == null)
+		{
+			expected = new ArrayList<String>(modules);
+		}
+	}
+
+	/**
+	 * Registers the package of a module.
+	 * @param plannedPackage the package of a module
+	 * @throws IllegalStateException if the plan was already deployed
+	 */
+	public synchronized void add(PlannedPackage plannedPackage)
+	{
+		if (drainedBy != null)
+		{
+			throw new IllegalStateException("Package of " + plannedPackage.getId()
+					+ " registered after the packages of the build were deployed by " + drainedBy);
+		}
+		packages.add(plannedPackage);
+		arrive(plannedPackage.getId());
+	}
+
+	/**
+	 * Records that a module reached the goal, with or without a package to register.
+	 * @param module the <code>groupId:artifactId</code> of the module
+	 */
+	public synchronized void arrive(String module)
+	{
+		arrived.add(module);
+		notifyAll();
+	}
+
+	/**
+	 * Records that a module failed before it could register its package.
+	 * @param module the <code>groupId:artifactId</code> of the module
+	 * @param reason the failure
+	 */
+	public synchronized void fail(String module, String reason)
+	{
+		failures.put(module, reason);
+		notifyAll();
+	}
+
+	/**
+	 * Waits until every expected module arrived, or one failed.
+	 * @param timeout milliseconds to wait at most
+	 * @param log the log to report the modules waited for to
+	 * @return the modules that did not arrive, empty if all did
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized Set<String> awaitModules(long timeout, Log log) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true)
+		{
+			Set<String> missing = getMissing();
+			long left = deadline - System.currentTimeMillis();
+			if (missing.isEmpty() || !failures.isEmpty() || left <= 0)
+			{
+				return missing;
+			}
+			log.info("Waiting for modules " + missing + " to register their package");
+			wait(Math.min(left, REPORT_INTERVAL));
+		}
+	}
+
+	private Set<String> getMissing()
+	{
+		Set<String> missing = new LinkedHashSet<String>();
+		if (expected != null)
+		{
+			missing.addAll(expected);
+			missing.removeAll(arrived);
+		}
+		return missing;
+	}
+
+	/**
+	 * @return the failed modules and their failures
+	 */
+	public synchronized Map<String, String> getFailures()
+	{
+		return new LinkedHashMap<String, String>(failures);
+	}
+
+	/**
+	 * Empties the plan, which refuses any package registered afterwards.
+	 * @param module the <code>groupId:artifactId</code> of the module deploying the packages
+	 * @return the registered packages in build order
+	 */
+	public synchronized List<PlannedPackage> drain(String module)
+	{
+		drainedBy = module;
+		List<PlannedPackage> drained = new ArrayList<PlannedPackage>(packages);
+		packages.clear();
+		Collections.sort(drained, new Comparator<PlannedPackage>()
+		{
+			public int compare(PlannedPackage first, PlannedPackage second)
+			{
+				return first.getOrder() < second.getOrder() ? -1 : (first.getOrder() == second.getOrder() ? 0 : 1);
+			}
+		});
+		return drained;
+	}
+
+	/**
+	 * Groups packages in install levels: a package belongs to the level after
+	 * the highest level of the packages it depends on, so the packages of one
+	 * level do not depend on each other.
+	 * @param packages the packages in build order
+	 * @return the levels, in install order
+	 */
+	public static List<List<PlannedPackage>> getLevels(List<PlannedPackage> packages)
+	{
+		Map<String, Integer> levelById = new HashMap<String, Integer>();
+		List<List<PlannedPackage>> levels = new ArrayList<List<PlannedPackage>>();
+		for (PlannedPackage plannedPackage : packages)
+		{
+			int level = 0;
+			for (String dependency : plannedPackage.getDependencies())
+			{
+				Integer dependencyLevel = levelById.get(dependency);
+				if (dependencyLevel != null)
+				{
+					level = Math.max(level, dependencyLevel.intValue() + 1);
+				}
+			}
+			levelById.put(plannedPackage.getId(), Integer.valueOf(level));
+			while (levels.size() <= level)
+			{
+				levels.add(new ArrayList<PlannedPackage>());
+			}
+			levels.get(level).add(plannedPackage);
+		}
+		return levels;
+	}
+}
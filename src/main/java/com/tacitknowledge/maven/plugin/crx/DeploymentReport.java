@@ -0,0 +1,166 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Writes the results and metrics of a deployment as a JSON document and,
+ * optionally, in the Prometheus text exposition format.
+ */
+public class DeploymentReport
+{
+	private final List<File> packageFiles;
+
+	private final List<DeploymentResult> results;
+
+	/**
+	 * @param packageFiles the deployed packages, several for an aggregated deployment
+	 * @param results one result per host
+	 */
+	public DeploymentReport(List<File> packageFiles, List<DeploymentResult> results)
+	{
+		this.packageFiles = packageFiles;
+		this.results = results;
+	}
+
+	/**
+	 * @return the names of the deployed packages, separated by commas.
+	 */
+	private String getPackageNames()
+	{
+		List<String> names = new ArrayList<String>();
+		for (File file : packageFiles)
+		{
+			names.add(file.getName());
+		}
+		return StringUtils.join(names, ",");
+	}
+
+	/**
+	 * @return the report as JSON.
+	 */
+	public JSONObject toJson()
+	{
+		JSONObject json = new JSONObject();
+		long packageSize = 0;
+		for (File file : packageFiles)
+		{
+			packageSize += file.length();
+		}
+		json.put("package", getPackageNames());
+		json.put("packageSize", packageSize);
+		json.put("timestamp", System.currentTimeMillis());
+		JSONArray hosts = new JSONArray();
+		for (DeploymentResult result : results)
+		{
+			JSONObject host = result.getMetrics().toJson();
+			host.put("host", result.getTarget().getCrxPath());
+			host.put("success", result.isSuccessful());
+			host.put("elapsedMillis", result.getElapsedMillis());
+			if (!result.isSuccessful())
+			{
+				host.put("error", String.valueOf(result.getError().getMessage()));
+			}
+			hosts.add(host);
+		}
+		json.put("hosts", hosts);
+		return json;
+	}
+
+	/**
+	 * Writes the JSON report.
+	 * @param file the file to write to
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writeJson(File file) throws IOException
+	{
+		FileUtils.writeStringToFile(file, toJson().toString(2), "UTF-8");
+	}
+
+	/**
+	 * Writes the phase durations, bytes and call counts in the Prometheus text format.
+	 * @param file the file to write to
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writePrometheus(File file) throws IOException
+	{
+		// the samples of a metric family have to be written as one group
+		Map<String, StringBuilder> families = new LinkedHashMap<String, StringBuilder>();
+		for (DeploymentResult result : results)
+		{
+			String labels = "host=\"" + escape(result.getTarget().getCrxPath()) + "\",package=\""
+					+ escape(getPackageNames()) + "\"";
+			sample(families, "crx_deploy_success", labels, result.isSuccessful() ? 1 : 0);
+			sample(families, "crx_deploy_seconds", labels, result.getElapsedMillis() / 1000.0);
+			// a phase run once per package of a plan is one sample
+			for (JSONObject phase : result.getMetrics().getPhaseTotals())
+			{
+				String phaseLabels = labels + ",phase=\"" + escape(phase.getString("name")) + "\"";
+				sample(families, "crx_deploy_phase_seconds", phaseLabels, phase.getLong("millis") / 1000.0);
+				sample(families, "crx_deploy_phase_bytes", phaseLabels, phase.getLong("bytes"));
+				sample(families, "crx_deploy_phase_retries", phaseLabels, phase.getInt("retries"));
+			}
+			Map<String, Integer> callCounts = new LinkedHashMap<String, Integer>();
+			for (JSONObject call : result.getMetrics().getCalls())
+			{
+				String key = labels + ",phase=\"" + escape(call.getString("phase")) + "\",status=\""
+						+ call.getInt("status") + "\"";
+				Integer count = callCounts.get(key);
+				callCounts.put(key, count == null ? 1 : count + 1);
+			}
+			for (Map.Entry<String, Integer> entry : callCounts.entrySet())
+			{
+				sample(families, "crx_deploy_http_requests", entry.getKey(), entry.getValue());
+			}
+		}
+
+		StringBuilder text = new StringBuilder();
+		for (Map.Entry<String, StringBuilder> family : families.entrySet())
+		{
+			text.append("# TYPE ").append(family.getKey()).append(" gauge\n").append(family.getValue());
+		}
+		FileUtils.writeStringToFile(file, text.toString(), "UTF-8");
+	}
+
+	private static void sample(Map<String, StringBuilder> families, String name, String labels, double value)
+	{
+		StringBuilder family = families.get(name);
+		if (family == null)
+		{
+			family = new StringBuilder();
+			families.put(name, family);
+		}
+		family.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+	}
+
+	private static String escape(String value)
+	{
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
@@ -0,0 +1,110 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Outcome of the deployment to one host.
+ */
+public class DeploymentResult
+{
+	/**
+	 * Mode of a package installed in full.
+	 */
+	public static final String MODE_FULL = "full";
+
+	/**
+	 * Mode of a package of which only the delta was installed.
+	 */
+	public static final String MODE_DELTA = "delta";
+
+	private final CrxTarget target;
+
+	private final long elapsedMillis;
+
+	private final Throwable error;
+
+	private final DeploymentMetrics metrics;
+
+	private final Map<String, String> modes;
+
+	/**
+	 * @param target the host deployed to
+	 * @param elapsedMillis wall time spent on the host
+	 * @param error the failure, <code>null</code> if the deployment succeeded
+	 * @param metrics the phases and calls of the deployment
+	 */
+	public DeploymentResult(CrxTarget target, long elapsedMillis, Throwable error, DeploymentMetrics metrics)
+	{
+		this(target, elapsedMillis, error, metrics, Collections.<String, String> emptyMap());
+	}
+
+	/**
+	 * @param target the host deployed to
+	 * @param elapsedMillis wall time spent on the host
+	 * @param error the failure, <code>null</code> if the deployment succeeded
+	 * @param metrics the phases and calls of the deployment
+	 * @param modes how each package was deployed, <code>delta</code> or
+	 *            <code>full</code>, keyed by package file name
+	 */
+	public DeploymentResult(CrxTarget target, long elapsedMillis, Throwable error, DeploymentMetrics metrics,
+			Map<String, String> modes)
+	{
+		this.target = target;
+		this.elapsedMillis = elapsedMillis;
+		this.error = error;
+		this.metrics = metrics;
+		this.modes = modes;
+	}
+
+	public CrxTarget getTarget()
+	{
+		return target;
+	}
+
+	public long getElapsedMillis()
+	{
+		return elapsedMillis;
+	}
+
+	public Throwable getError()
+	{
+		return error;
+	}
+
+	public DeploymentMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * @param packageName the package file name
+	 * @return <code>delta</code> if only the delta of the package was deployed, <code>full</code> otherwise.
+	 */
+	public String getMode(String packageName)
+	{
+		String mode = modes.get(packageName);
+		return mode != null ? mode : MODE_FULL;
+	}
+
+	public boolean isSuccessful()
+	{
+		return error == null;
+	}
+}
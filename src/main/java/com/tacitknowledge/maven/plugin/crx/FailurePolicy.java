@@ -0,0 +1,66 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Decides whether a deployment to several hosts fails the build.
+ */
+public enum FailurePolicy
+{
+	/**
+	 * Every host has to succeed.
+	 */
+	ALL,
+
+	/**
+	 * More than half of the hosts have to succeed.
+	 */
+	QUORUM,
+
+	/**
+	 * Failures are reported but never fail the build.
+	 */
+	BEST_EFFORT;
+
+	/**
+	 * @param succeeded number of hosts deployed successfully
+	 * @param total number of hosts
+	 * @return <code>true</code> if the build has to fail
+	 */
+	public boolean isFailure(int succeeded, int total)
+	{
+		switch (this)
+		{
+			case ALL:
+				return succeeded < total;
+			case QUORUM:
+				return succeeded * 2 <= total;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @param name the policy name, e.g. <code>all</code>, <code>quorum</code> or <code>best-effort</code>
+	 * @return the matching policy
+	 * @throws IllegalArgumentException if the name is unknown
+	 */
+	public static FailurePolicy parse(String name)
+	{
+		return valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+}
@@ -0,0 +1,109 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Multipart source exposing a slice of a file, so that a large package can
+ * be sent in several requests without copying it.
+ */
+public class FileChunkPartSource implements PartSource
+{
+	private final File file;
+
+	private final long offset;
+
+	private final long length;
+
+	/**
+	 * @param file the whole file
+	 * @param offset first byte of the chunk
+	 * @param length number of bytes in the chunk
+	 */
+	public FileChunkPartSource(File file, long offset, long length)
+	{
+		this.file = file;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public long getLength()
+	{
+		return length;
+	}
+
+	public String getFileName()
+	{
+		return file.getName();
+	}
+
+	public InputStream createInputStream() throws IOException
+	{
+		InputStream input = new FileInputStream(file);
+		long skipped = 0;
+		while (skipped < offset)
+		{
+			long count = input.skip(offset - skipped);
+			if (count <= 0)
+			{
+				IOUtils.closeQuietly(input);
+				throw new IOException(file + " is shorter than " + offset + " bytes");
+			}
+			skipped += count;
+		}
+		return new FilterInputStream(input)
+		{
+			private long remaining = length;
+
+			public int read() throws IOException
+			{
+				if (remaining <= 0)
+				{
+					return -1;
+				}
+				int b = super.read();
+				if (b != -1)
+				{
+					remaining--;
+				}
+				return b;
+			}
+
+			public int read(byte[] buffer, int off, int len) throws IOException
+			{
+				if (remaining <= 0)
+				{
+					return -1;
+				}
+				int count = super.read(buffer, off, (int) Math.min(len, remaining));
+				if (count > 0)
+				{
+					remaining -= count;
+				}
+				return count;
+			}
+		};
+	}
+}
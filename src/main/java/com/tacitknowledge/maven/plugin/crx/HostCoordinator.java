@@ -0,0 +1,193 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Limits the operations running at the same time against each CRX host,
+ * across every execution of the plugin in this JVM, e.g. the modules of a
+ * <code>mvn -T</code> build. Each host has a number of transfer slots, for
+ * uploads and backup downloads, one login slot and a number of write slots,
+ * for installs and the removals and check-ins completed by
+ * <code>saveAll</code>. Waiting operations are served in arrival order and
+ * the time spent waiting is logged.
+ */
+public class HostCoordinator
+{
+	private static final HostCoordinator SHARED = new HostCoordinator();
+
+	private final Map<String, Host> hosts = new HashMap<String, Host>();
+
+	/**
+	 * @return the coordinator shared by every execution of the plugin in this JVM
+	 */
+	public static HostCoordinator getShared()
+	{
+		return SHARED;
+	}
+
+	/**
+	 * Waits for a transfer slot of the host.
+	 * @param target the host
+	 * @param transfers number of transfer slots of the host, 0 for no limit; the first caller sets it
+	 * @param log the log to report the wait to
+	 * @return the slot to release once the transfer is over
+	 * @throws MojoExecutionException if interrupted while waiting
+	 */
+	public Slot acquireTransfer(CrxTarget target, int transfers, Log log) throws MojoExecutionException
+	{
+		return acquire(getHost(target, transfers, 0).transfers, "transfer", target, log);
+	}
+
+	/**
+	 * Waits for the login slot of the host, so that concurrent executions log
+	 * in one after the other and reuse the first session.
+	 * @param target the host
+	 * @param log the log to report the wait to
+	 * @return the slot to release once logged in
+	 * @throws MojoExecutionException if interrupted while waiting
+	 */
+	public Slot acquireLogin(CrxTarget target, Log log) throws MojoExecutionException
+	{
+		return acquire(getHost(target, 0, 0).login, "login", target, log);
+	}
+
+	/**
+	 * Waits for a write slot of the host.
+	 * @param target the host
+	 * @param writes number of write slots of the host, 0 for no limit; the first caller sets it
+	 * @param operation the operation waiting, e.g. <code>install</code>, for the log
+	 * @param log the log to report the wait to
+	 * @return the slot to release once the changes are saved
+	 * @throws MojoExecutionException if interrupted while waiting
+	 */
+	public Slot acquireWrite(CrxTarget target, int writes, String operation, Log log)
+			throws MojoExecutionException
+	{
+		return acquire(getHost(target, 0, writes).writes, operation, target, log);
+	}
+
+	private synchronized Host getHost(CrxTarget target, int transfers, int writes)
+	{
+		String key = target.getHostUrl();
+		Host host = hosts.get(key);
+		if (host == null)
+		{
+			host = new Host(transfers, writes);
+			hosts.put(key, host);
+		}
+		else
+		{
+			host.limit(transfers, writes);
+		}
+		return host;
+	}
+
+	private static Slot acquire(Semaphore semaphore, String operation, CrxTarget target, Log log)
+			throws MojoExecutionException
+	{
+		if (semaphore == null)
+		{
+			return new Slot(null);
+		}
+		int queued = semaphore.getQueueLength();
+		long start = System.currentTimeMillis();
+		try
+		{
+			semaphore.acquire();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while waiting for the " + operation + " slot of "
+					+ target.getHostUrl());
+		}
+		long waited = System.currentTimeMillis() - start;
+		String message = "Waited " + waited + " ms for the " + operation + " slot of " + target.getHostUrl() + " ("
+				+ queued + " queued before)";
+		if (waited > 0)
+		{
+			log.info(message);
+		}
+		else
+		{
+			log.debug(message);
+		}
+		return new Slot(semaphore);
+	}
+
+	/**
+	 * The slots of one host. Limits left at 0 by the first caller are set by
+	 * the first caller giving one.
+	 */
+	private static class Host
+	{
+		private final Semaphore login = new Semaphore(1, true);
+
+		private Semaphore transfers;
+
+		private Semaphore writes;
+
+		Host(int transfers, int writes)
+		{
+			limit(transfers, writes);
+		}
+
+		void limit(int transfers, int writes)
+		{
+			if (this.transfers == null && transfers > 0)
+			{
+				this.transfers = new Semaphore(transfers, true);
+			}
+			if (this.writes == null && writes > 0)
+			{
+				this.writes = new Semaphore(writes, true);
+			}
+		}
+	}
+
+	/**
+	 * A slot held by an operation.
+	 */
+	public static class Slot
+	{
+		private Semaphore semaphore;
+
+		Slot(Semaphore semaphore)
+		{
+			this.semaphore = semaphore;
+		}
+
+		/**
+		 * Hands the slot to the next waiting operation, once.
+		 */
+		public synchronized void release()
+		{
+			if (semaphore != null)
+			{
+				semaphore.release();
+				semaphore = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.Callable;
+
+/**
+ * A deployment to one host, run by the plugin itself or by a pool of workers.
+ */
+public interface HostDeployment extends Callable<DeploymentResult>
+{
+	/**
+	 * Deploys to the host, never throwing.
+	 * @return the outcome, including the error if the deployment failed.
+	 */
+	DeploymentResult call();
+}
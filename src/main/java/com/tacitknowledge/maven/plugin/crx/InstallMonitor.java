@@ -0,0 +1,187 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Follows the install log streamed back by <code>unpack.jsp</code> while the
+ * package is being installed. Reports the number of log lines (roughly one
+ * per node) and their rate at a fixed interval, says so when the server goes
+ * quiet, and aborts the request once the overall deadline is exceeded.
+ */
+public class InstallMonitor
+{
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final Log log;
+
+	private final long progressInterval;
+
+	private final long timeout;
+
+	private volatile long lineCount;
+
+	private volatile long lastRead;
+
+	private volatile boolean timedOut;
+
+	private long start;
+
+	private int entryCount;
+
+	private Timer timer;
+
+	/**
+	 * @param log the log progress is reported to
+	 * @param progressInterval milliseconds between two progress reports
+	 * @param timeout maximum duration of the install in milliseconds, 0 for none
+	 */
+	public InstallMonitor(Log log, long progressInterval, long timeout)
+	{
+		this.log = log;
+		this.progressInterval = Math.max(1000, progressInterval);
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @param entryCount number of content entries of the package, reported with the progress, 0 if unknown
+	 */
+	public void setEntryCount(int entryCount)
+	{
+		this.entryCount = entryCount;
+	}
+
+	/**
+	 * Starts reporting progress and watching the deadline of a request about to be executed.
+	 * @param method the install request
+	 */
+	public void start(final HttpMethodBase method)
+	{
+		start = System.currentTimeMillis();
+		lastRead = start;
+		timer = new Timer("crx-install-monitor", true);
+		timer.schedule(new TimerTask()
+		{
+			public void run()
+			{
+				long now = System.currentTimeMillis();
+				if (timeout > 0 && now - start > timeout)
+				{
+					timedOut = true;
+					method.abort();
+					cancel();
+					return;
+				}
+				long elapsed = Math.max(1, now - start);
+				log.info("Installing: " + lineCount + " log lines in " + elapsed / 1000 + " s ("
+						+ lineCount * 1000 / elapsed + " lines/s)"
+						+ (entryCount > 0 ? " for a package of " + entryCount + " entries" : "")
+						+ (now - lastRead >= progressInterval ? ", no output for " + (now - lastRead) / 1000 + " s"
+								: ""));
+			}
+		}, progressInterval, progressInterval);
+	}
+
+	/**
+	 * Stops reporting progress.
+	 */
+	public void stop()
+	{
+		if (timer != null)
+		{
+			timer.cancel();
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the request was aborted because the deadline was exceeded.
+	 */
+	public boolean isTimedOut()
+	{
+		return timedOut;
+	}
+
+	/**
+	 * @return the error reported when the deadline is exceeded.
+	 */
+	public MojoExecutionException timeoutError()
+	{
+		return new MojoExecutionException("Install did not complete within " + timeout / 1000 + " s");
+	}
+
+	/**
+	 * Reads the install response as it arrives.
+	 * @param method the executed install request
+	 * @param marker the success marker to look for
+	 * @return the scanner holding the findings
+	 * @throws IOException if the response cannot be read
+	 * @throws MojoExecutionException if the deadline is exceeded
+	 */
+	public ResponseScanner follow(HttpMethodBase method, String marker) throws IOException, MojoExecutionException
+	{
+		ResponseScanner scanner = new ResponseScanner(marker);
+		InputStream stream = method.getResponseBodyAsStream();
+		try
+		{
+			Reader reader = new InputStreamReader(stream, method.getResponseCharSet());
+			char[] buffer = new char[BUFFER_SIZE];
+			int count;
+			while ((count = reader.read(buffer)) != -1)
+			{
+				lastRead = System.currentTimeMillis();
+				for (int i = 0; i < count; i++)
+				{
+					if (buffer[i] == '\n')
+					{
+						lineCount++;
+					}
+				}
+				scanner.update(buffer, 0, count);
+			}
+		}
+		catch (IOException e)
+		{
+			if (timedOut)
+			{
+				throw timeoutError();
+			}
+			throw e;
+		}
+		finally
+		{
+			// closing the stream of an aborted request fails, and would hide the timeout
+			IOUtils.closeQuietly(stream);
+		}
+		if (timedOut)
+		{
+			throw timeoutError();
+		}
+		log.info("Install log: " + lineCount + " lines in " + (System.currentTimeMillis() - start) / 1000 + " s");
+		return scanner;
+	}
+}
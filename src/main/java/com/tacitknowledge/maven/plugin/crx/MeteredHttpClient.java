@@ -0,0 +1,169 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Client recording the wall time, status and body sizes of every call it
+ * executes into the {@link DeploymentMetrics} of its host. Calls marked
+ * idempotent are retried according to its {@link RetryPolicy}, and every
+ * call goes through the {@link CircuitBreaker} of the host.
+ */
+public class MeteredHttpClient extends HttpClient
+{
+	private final DeploymentMetrics metrics;
+
+	private RetryPolicy retryPolicy;
+
+	private Log log;
+
+	private CircuitBreaker circuitBreaker;
+
+	/**
+	 * @param connectionManager the connection manager to use
+	 * @param metrics the metrics to record calls into
+	 */
+	public MeteredHttpClient(HttpConnectionManager connectionManager, DeploymentMetrics metrics)
+	{
+		super(connectionManager);
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param retryPolicy how idempotent calls are retried, <code>null</code> for never
+	 * @param log the log retries are reported to
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy, Log log)
+	{
+		this.retryPolicy = retryPolicy;
+		this.log = log;
+	}
+
+	/**
+	 * @param circuitBreaker the breaker of the host, <code>null</code> for none
+	 */
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker)
+	{
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int executeMethod(HostConfiguration hostconfig, HttpMethod method, HttpState state)
+			throws IOException
+	{
+		if (retryPolicy == null || !RetryPolicy.isIdempotent(method))
+		{
+			return executeOnce(hostconfig, method, state, 0);
+		}
+		for (int retry = 0;; retry++)
+		{
+			String failure;
+			try
+			{
+				int status = executeOnce(hostconfig, method, state, retry);
+				if (!RetryPolicy.isTransient(status) || retry >= retryPolicy.getRetries())
+				{
+					return status;
+				}
+				failure = "response=" + HttpStatus.getStatusText(status);
+			}
+			catch (IOException e)
+			{
+				if (retry >= retryPolicy.getRetries() || (circuitBreaker != null && circuitBreaker.isOpen()))
+				{
+					throw e;
+				}
+				failure = e.getClass().getName() + " " + e.getMessage();
+			}
+			method.releaseConnection();
+			long delay = retryPolicy.getDelay(retry);
+			log.warn(method.getName() + " " + method.getPath() + " failed, " + failure + ", retry " + (retry + 1)
+					+ "/" + retryPolicy.getRetries() + " in " + delay + " ms");
+			metrics.addRetry();
+			try
+			{
+				Thread.sleep(delay);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting to retry " + method.getPath());
+			}
+		}
+	}
+
+	private int executeOnce(HostConfiguration hostconfig, HttpMethod method, HttpState state, int retries)
+			throws IOException
+	{
+		if (circuitBreaker != null)
+		{
+			circuitBreaker.check();
+		}
+		long start = System.currentTimeMillis();
+		int status = -1;
+		try
+		{
+			status = super.executeMethod(hostconfig, method, state);
+			return status;
+		}
+		finally
+		{
+			if (circuitBreaker != null)
+			{
+				circuitBreaker.record(status != -1 && !RetryPolicy.isTransient(status));
+			}
+			long bytesReceived = -1;
+			if (status != -1 && method.getResponseHeader("Content-Length") != null)
+			{
+				try
+				{
+					bytesReceived = Long.parseLong(method.getResponseHeader("Content-Length").getValue().trim());
+				}
+				catch (NumberFormatException e)
+				{
+					bytesReceived = -1;
+				}
+			}
+			metrics.recordCall(method.getName(), method.getPath(), status, System.currentTimeMillis() - start,
+					getRequestLength(method), bytesReceived, retries);
+		}
+	}
+
+	private static long getRequestLength(HttpMethod method)
+	{
+		if (method instanceof EntityEnclosingMethod)
+		{
+			RequestEntity entity = ((EntityEnclosingMethod) method).getRequestEntity();
+			return entity == null ? 0 : entity.getContentLength();
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,107 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per run cache of whether a node is <code>mix:versionable</code>, keyed by
+ * host and path, so that the definition page of a node is fetched once by
+ * the removal step and reused by the check-in step. The removed subtrees are
+ * kept apart from the flags: a removal does not drop the flag of the node,
+ * which the install recreates from the package for the check-in step, but
+ * lets the removal of a node below it be skipped until the next install.
+ */
+public class NodeDefinitionCache
+{
+	private final Map<String, Boolean> versionable = new ConcurrentHashMap<String, Boolean>();
+
+	private final Set<String> removed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * @param target the host
+	 * @param path the node path
+	 * @return whether the node is versionable, <code>null</code> if not known yet
+	 */
+	public Boolean isVersionable(CrxTarget target, String path)
+	{
+		return versionable.get(key(target, path));
+	}
+
+	/**
+	 * @param target the host
+	 * @param path the node path
+	 * @param isVersionable whether the node is versionable
+	 */
+	public void setVersionable(CrxTarget target, String path, boolean isVersionable)
+	{
+		versionable.put(key(target, path), Boolean.valueOf(isVersionable));
+	}
+
+	/**
+	 * Records the removal of the node and of every node below it.
+	 * @param target the host
+	 * @param path the path of the removed node
+	 */
+	public void setRemoved(CrxTarget target, String path)
+	{
+		removed.add(key(target, path));
+	}
+
+	/**
+	 * @param target the host
+	 * @param path the node path
+	 * @return <code>true</code> if the node or one of its ancestors was removed since the last install
+	 */
+	public boolean isRemoved(CrxTarget target, String path)
+	{
+		String node = key(target, path);
+		for (String root : removed)
+		{
+			if (node.equals(root) || node.startsWith(root + "/"))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Forgets the removals on the host, once a package is installed on it.
+	 * @param target the host
+	 */
+	public void clearRemoved(CrxTarget target)
+	{
+		String host = target.getCrxPath() + "/";
+		for (Iterator<String> roots = removed.iterator(); roots.hasNext();)
+		{
+			if (roots.next().startsWith(host))
+			{
+				roots.remove();
+			}
+		}
+	}
+
+	private static String key(CrxTarget target, String path)
+	{
+		return target.getCrxPath() + path;
+	}
+}
@@ -0,0 +1,296 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Checks a package locally before anything is sent to a host: the zip
+ * central directory must be complete and consistent with the file length,
+ * <code>filter.xml</code> and <code>properties.xml</code> must parse, and
+ * the filter roots are compared with the nodes to remove. Only the central
+ * directory and the two descriptors are read, the content is never inflated.
+ */
+public class PackageValidator
+{
+	private static final String ROOT_FOLDER = "jcr_root/";
+
+	private static final String FILTER = "META-INF/vault/filter.xml";
+
+	private static final String PROPERTIES = "META-INF/vault/properties.xml";
+
+	private final File file;
+
+	private final Log log;
+
+	private final List<String> filterRoots = new ArrayList<String>();
+
+	private int entryCount;
+
+	private int contentEntryCount;
+
+	private long contentSize;
+
+	private String name;
+
+	/**
+	 * @param file the package
+	 * @param log the log to report to
+	 */
+	public PackageValidator(File file, Log log)
+	{
+		this.file = file;
+		this.log = log;
+	}
+
+	/**
+	 * Validates the package.
+	 * @param deleteNodePaths the nodes removed before the install, separated by <code>;</code> or
+	 *            <code>,</code>, <code>null</code> for none
+	 * @throws MojoExecutionException if the package is broken
+	 */
+	public void validate(String deleteNodePaths) throws MojoExecutionException
+	{
+		long start = System.currentTimeMillis();
+		if (!file.isFile())
+		{
+			throw new MojoExecutionException("Package " + file + " does not exist");
+		}
+		ZipFile zip;
+		try
+		{
+			zip = new ZipFile(file);
+		}
+		catch (IOException e)
+		{
+			throw new MojoExecutionException("Package " + file + " is not a complete zip file: " + e.getMessage());
+		}
+		try
+		{
+			readDirectory(zip);
+			readFilter(zip);
+			readProperties(zip);
+		}
+		finally
+		{
+			try
+			{
+				zip.close();
+			}
+			catch (IOException e)
+			{
+				// nothing left to release
+			}
+		}
+		checkDeletePaths(deleteNodePaths);
+		log.info("Package " + (name == null ? file.getName() : name) + " validated in "
+				+ (System.currentTimeMillis() - start) + " ms: " + entryCount + " entries, " + contentEntryCount
+				+ " below " + ROOT_FOLDER + ", " + contentSize + " bytes uncompressed, filter roots " + filterRoots);
+	}
+
+	/**
+	 * Counts the entries and checks that their compressed sizes fit in the file.
+	 */
+	private void readDirectory(ZipFile zip) throws MojoExecutionException
+	{
+		long compressedSize = 0;
+		Enumeration<? extends ZipEntry> entries = zip.entries();
+		while (entries.hasMoreElements())
+		{
+			ZipEntry entry = entries.nextElement();
+			if (entry.getCompressedSize() < 0 || entry.getSize() < 0)
+			{
+				throw new MojoExecutionException("Package " + file + " has no sizes for " + entry.getName());
+			}
+			entryCount++;
+			compressedSize += entry.getCompressedSize();
+			if (entry.getName().startsWith(ROOT_FOLDER))
+			{
+				contentEntryCount++;
+				contentSize += entry.getSize();
+			}
+		}
+		if (compressedSize > file.length())
+		{
+			throw new MojoExecutionException("Package " + file + " is truncated: its entries need " + compressedSize
+					+ " bytes, the file has " + file.length());
+		}
+		if (contentEntryCount == 0)
+		{
+			log.warn("Package " + file + " has no content below " + ROOT_FOLDER);
+		}
+	}
+
+	private void readFilter(ZipFile zip) throws MojoExecutionException
+	{
+		Document document;
+		InputStream input = open(zip, FILTER);
+		try
+		{
+			DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+			// report parse errors through the exception only, not on the console
+			builder.setErrorHandler(new DefaultHandler());
+			document = builder.parse(input);
+		}
+		catch (Exception e)
+		{
+			throw new MojoExecutionException("Cannot parse " + FILTER + " of " + file + ": " + e.getMessage());
+		}
+		finally
+		{
+			IOUtils.closeQuietly(input);
+		}
+
+		NodeList elements = document.getElementsByTagName("filter");
+		for (int i = 0; i < elements.getLength(); i++)
+		{
+			String root = ((Element) elements.item(i)).getAttribute("root");
+			if (!root.startsWith("/"))
+			{
+				throw new MojoExecutionException(FILTER + " of " + file + " has a filter without an absolute root: "
+						+ root);
+			}
+			filterRoots.add(root);
+		}
+		if (filterRoots.isEmpty())
+		{
+			throw new MojoExecutionException(FILTER + " of " + file + " defines no filter");
+		}
+	}
+
+	private void readProperties(ZipFile zip) throws MojoExecutionException
+	{
+		Properties properties = new Properties();
+		InputStream input = open(zip, PROPERTIES);
+		try
+		{
+			properties.loadFromXML(input);
+		}
+		catch (IOException e)
+		{
+			throw new MojoExecutionException("Cannot parse " + PROPERTIES + " of " + file + ": " + e.getMessage());
+		}
+		finally
+		{
+			IOUtils.closeQuietly(input);
+		}
+		name = properties.getProperty("name");
+		if (name == null)
+		{
+			log.warn(PROPERTIES + " of " + file + " has no package name");
+		}
+	}
+
+	private InputStream open(ZipFile zip, String entryName) throws MojoExecutionException
+	{
+		ZipEntry entry = zip.getEntry(entryName);
+		if (entry == null)
+		{
+			throw new MojoExecutionException("Package " + file + " has no " + entryName);
+		}
+		try
+		{
+			return zip.getInputStream(entry);
+		}
+		catch (IOException e)
+		{
+			throw new MojoExecutionException("Cannot read " + entryName + " of " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Warns about nodes removed before the install that no filter root reinstalls.
+	 */
+	private void checkDeletePaths(String deleteNodePaths)
+	{
+		if (deleteNodePaths == null || !deleteNodePaths.startsWith("/"))
+		{
+			return;
+		}
+		for (String path : deleteNodePaths.split("[;,]"))
+		{
+			if (path.length() > 0 && !isCovered(path))
+			{
+				log.warn("Node " + path + " is removed before the install but is outside of the filter roots "
+						+ filterRoots + ", the package does not restore it");
+			}
+		}
+	}
+
+	private boolean isCovered(String path)
+	{
+		for (String root : filterRoots)
+		{
+			if (path.equals(root) || path.startsWith(root.endsWith("/") ? root : root + "/"))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return number of entries of the package.
+	 */
+	public int getEntryCount()
+	{
+		return entryCount;
+	}
+
+	/**
+	 * @return number of entries below <code>jcr_root/</code>.
+	 */
+	public int getContentEntryCount()
+	{
+		return contentEntryCount;
+	}
+
+	/**
+	 * @return uncompressed size of the entries below <code>jcr_root/</code>.
+	 */
+	public long getContentSize()
+	{
+		return contentSize;
+	}
+
+	/**
+	 * @return the filter roots of the package.
+	 */
+	public List<String> getFilterRoots()
+	{
+		return filterRoots;
+	}
+}
@@ -0,0 +1,315 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Deploys the packages of a {@link DeploymentPlan} to one host in a single
+ * pipeline: one login and one connection pool for all of them, the backup
+ * and delete steps package after package, every upload at the same time,
+ * then the installs level after level, the packages of one level
+ * <code>installParallelism</code> at a time. The login, connection, upload
+ * and install parallelism and smoke check settings are the ones of the
+ * module deploying the plan, each package keeps its own other settings.
+ */
+public class PlanDeployer implements HostDeployment
+{
+	private final CrxTarget target;
+
+	private final List<PlannedPackage> packages;
+
+	private final DeploymentOptions options;
+
+	private final File backupFolder;
+
+	private final Log log;
+
+	private final DeploymentMetrics metrics = new DeploymentMetrics();
+
+	private final Map<String, String> modes = new LinkedHashMap<String, String>();
+
+	/**
+	 * @param target the host to deploy to
+	 * @param packages the packages in build order
+	 * @param options the settings of the module deploying the plan
+	 * @param backupFolder the folder backups of this host are written to
+	 * @param log the log to report to
+	 */
+	public PlanDeployer(CrxTarget target, List<PlannedPackage> packages, DeploymentOptions options,
+			File backupFolder, Log log)
+	{
+		this.target = target;
+		this.packages = packages;
+		this.options = options;
+		this.backupFolder = backupFolder;
+		this.log = log;
+	}
+
+	/**
+	 * Deploys the plan to the host, never throwing.
+	 * @return the outcome, including the error if the deployment failed.
+	 */
+	public DeploymentResult call()
+	{
+		long start = System.currentTimeMillis();
+		Throwable error = null;
+		try
+		{
+			deploy();
+		}
+		catch (Exception e)
+		{
+			error = e;
+		}
+		return new DeploymentResult(target, System.currentTimeMillis() - start, error, metrics, modes);
+	}
+
+	/**
+	 * Runs the plan against the host, then releases its connections.
+	 * @throws MojoExecutionException if any step fails.
+	 */
+	public void deploy() throws MojoExecutionException
+	{
+		if (packages.isEmpty())
+		{
+			log.info("No package registered, nothing to deploy");
+			return;
+		}
+
+		List<CrxPackageDeployer> deployers = new ArrayList<CrxPackageDeployer>();
+		for (PlannedPackage plannedPackage : packages)
+		{
+			deployers.add(new CrxPackageDeployer(target, plannedPackage.getOptions(), backupFolder, log, metrics));
+		}
+		// logs in and checks the host with the settings of the deploying module
+		CrxPackageDeployer owner = new CrxPackageDeployer(target, options, backupFolder, log, metrics);
+		owner.openClient();
+		try
+		{
+			for (CrxPackageDeployer deployer : deployers)
+			{
+				deployer.shareClient(owner);
+			}
+
+			boolean loggedIn;
+			metrics.startPhase("login");
+			try
+			{
+				loggedIn = owner.login();
+			}
+			finally
+			{
+				metrics.endPhase(0);
+			}
+			if (!loggedIn)
+			{
+				return;
+			}
+
+			List<PlannedPackage> installed = new ArrayList<PlannedPackage>();
+			List<CrxPackageDeployer> prepared = new ArrayList<CrxPackageDeployer>();
+			for (int i = 0; i < deployers.size(); i++)
+			{
+				boolean ready = deployers.get(i).prepare();
+				modes.put(new File(packages.get(i).getOptions().getJarfile()).getName(), deployers.get(i).getMode());
+				if (ready)
+				{
+					installed.add(packages.get(i));
+					prepared.add(deployers.get(i));
+				}
+			}
+			if (prepared.isEmpty())
+			{
+				return;
+			}
+
+			int maxConnections = Math.max(1, options.getMaxConnections());
+			log.info("Uploading " + prepared.size() + " packages, " + maxConnections + " at a time");
+			long bytes = 0;
+			List<Callable<Void>> uploads = new ArrayList<Callable<Void>>();
+			for (final CrxPackageDeployer deployer : prepared)
+			{
+				bytes += deployer.getDeployFile().length();
+				uploads.add(new Callable<Void>()
+				{
+					public Void call() throws Exception
+					{
+						deployer.upload();
+						return null;
+					}
+				});
+			}
+			long uploaded = 0;
+			metrics.startPhase("upload");
+			try
+			{
+				runAll(uploads, maxConnections);
+				uploaded = bytes;
+			}
+			finally
+			{
+				metrics.endPhase(uploaded);
+			}
+
+			metrics.startPhase("install");
+			try
+			{
+				for (List<PlannedPackage> level : DeploymentPlan.getLevels(installed))
+				{
+					log.info("Installing " + level);
+					List<Callable<Void>> installs = new ArrayList<Callable<Void>>();
+					for (PlannedPackage plannedPackage : level)
+					{
+						final CrxPackageDeployer deployer = prepared.get(installed.indexOf(plannedPackage));
+						installs.add(new Callable<Void>()
+						{
+							public Void call() throws Exception
+							{
+								deployer.install();
+								return null;
+							}
+						});
+					}
+					runAll(installs, options.getInstallParallelism());
+				}
+			}
+			finally
+			{
+				metrics.endPhase(0);
+			}
+
+			metrics.startPhase("checkin");
+			try
+			{
+				for (CrxPackageDeployer deployer : prepared)
+				{
+					deployer.finish();
+				}
+			}
+			finally
+			{
+				metrics.endPhase(0);
+			}
+
+			metrics.startPhase("smoke");
+			try
+			{
+				owner.smokeCheck();
+			}
+			finally
+			{
+				metrics.endPhase(0);
+			}
+		}
+		finally
+		{
+			for (CrxPackageDeployer deployer : deployers)
+			{
+				deployer.awaitPendingBackup();
+			}
+			owner.closeClient();
+		}
+	}
+
+	/**
+	 * Runs tasks with at most <code>parallelism</code> of them at the same
+	 * time, waits for all of them and rethrows the first failure.
+	 */
+	private void runAll(List<Callable<Void>> tasks, int parallelism) throws MojoExecutionException
+	{
+		if (parallelism <= 1 || tasks.size() == 1)
+		{
+			for (Callable<Void> task : tasks)
+			{
+				call(task);
+			}
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()));
+		try
+		{
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (Callable<Void> task : tasks)
+			{
+				futures.add(executor.submit(task));
+			}
+			MojoExecutionException failure = null;
+			for (Future<Void> future : futures)
+			{
+				try
+				{
+					future.get();
+				}
+				catch (ExecutionException e)
+				{
+					if (failure == null)
+					{
+						failure = asMojoException(e.getCause());
+					}
+				}
+			}
+			if (failure != null)
+			{
+				throw failure;
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Deployment interrupted", e);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	private static void call(Callable<Void> task) throws MojoExecutionException
+	{
+		try
+		{
+			task.call();
+		}
+		catch (Exception e)
+		{
+			throw asMojoException(e);
+		}
+	}
+
+	private static MojoExecutionException asMojoException(Throwable error)
+	{
+		if (error instanceof MojoExecutionException)
+		{
+			return (MojoExecutionException) error;
+		}
+		return new MojoExecutionException(error.getMessage(), error);
+	}
+}
@@ -0,0 +1,76 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Set;
+
+/**
+ * The package of one module of the build, registered for the deployment
+ * plan run by the last module.
+ */
+public class PlannedPackage
+{
+	private final String id;
+
+	private final int order;
+
+	private final Set<String> dependencies;
+
+	private final DeploymentOptions options;
+
+	/**
+	 * @param id the <code>groupId:artifactId</code> of the module
+	 * @param order the position of the module in the build
+	 * @param dependencies the <code>groupId:artifactId</code> of the module dependencies
+	 * @param options the settings of the module execution
+	 */
+	public PlannedPackage(String id, int order, Set<String> dependencies, DeploymentOptions options)
+	{
+		this.id = id;
+		this.order = order;
+		this.dependencies = dependencies;
+		this.options = options;
+	}
+
+	public String getId()
+	{
+		return id;
+	}
+
+	public int getOrder()
+	{
+		return order;
+	}
+
+	public Set<String> getDependencies()
+	{
+		return dependencies;
+	}
+
+	public DeploymentOptions getOptions()
+	{
+		return options;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String toString()
+	{
+		return id;
+	}
+}
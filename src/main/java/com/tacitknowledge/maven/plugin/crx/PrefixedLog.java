@@ -0,0 +1,120 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Log decorator prepending a fixed prefix to every message, so that the
+ * interleaved output of hosts deployed concurrently can be told apart.
+ */
+public class PrefixedLog implements Log
+{
+	private final Log log;
+
+	private final String prefix;
+
+	/**
+	 * @param log the log to write to
+	 * @param prefix the prefix, written between square brackets
+	 */
+	public PrefixedLog(Log log, String prefix)
+	{
+		this.log = log;
+		this.prefix = "[" + prefix + "] ";
+	}
+
+	public boolean isDebugEnabled()
+	{
+		return log.isDebugEnabled();
+	}
+
+	public void debug(CharSequence content)
+	{
+		log.debug(prefix + content);
+	}
+
+	public void debug(CharSequence content, Throwable error)
+	{
+		log.debug(prefix + content, error);
+	}
+
+	public void debug(Throwable error)
+	{
+		log.debug(prefix, error);
+	}
+
+	public boolean isInfoEnabled()
+	{
+		return log.isInfoEnabled();
+	}
+
+	public void info(CharSequence content)
+	{
+		log.info(prefix + content);
+	}
+
+	public void info(CharSequence content, Throwable error)
+	{
+		log.info(prefix + content, error);
+	}
+
+	public void info(Throwable error)
+	{
+		log.info(prefix, error);
+	}
+
+	public boolean isWarnEnabled()
+	{
+		return log.isWarnEnabled();
+	}
+
+	public void warn(CharSequence content)
+	{
+		log.warn(prefix + content);
+	}
+
+	public void warn(CharSequence content, Throwable error)
+	{
+		log.warn(prefix + content, error);
+	}
+
+	public void warn(Throwable error)
+	{
+		log.warn(prefix, error);
+	}
+
+	public boolean isErrorEnabled()
+	{
+		return log.isErrorEnabled();
+	}
+
+	public void error(CharSequence content)
+	{
+		log.error(prefix + content);
+	}
+
+	public void error(CharSequence content, Throwable error)
+	{
+		log.error(prefix + content, error);
+	}
+
+	public void error(Throwable error)
+	{
+		log.error(prefix, error);
+	}
+}
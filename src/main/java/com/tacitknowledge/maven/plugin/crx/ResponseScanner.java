@@ -0,0 +1,224 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a CRX response once, in bounded memory, looking for a success marker
+ * and for the <code>&lt;span class="error_line"&gt;</code> messages as the
+ * body arrives. Only the last {@link #TAIL_SIZE} characters of the body are
+ * kept for diagnostics, so that install logs of tens of megabytes do not end
+ * up on the heap.
+ */
+public class ResponseScanner
+{
+	/**
+	 * Number of trailing characters of the body kept for diagnostics.
+	 */
+	public static final int TAIL_SIZE = 16 * 1024;
+
+	private static final int MAX_ERRORS = 100;
+
+	private static final int MAX_ERROR_LENGTH = 4 * 1024;
+
+	private static final String ERROR_START = "<span class=\"error_line\">";
+
+	private static final String ERROR_END = "</span>";
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final String marker;
+
+	private final StringBuilder tail = new StringBuilder();
+
+	private final List<String> errors = new ArrayList<String>();
+
+	/**
+	 * Not yet scanned characters, never much longer than one read buffer.
+	 */
+	private final StringBuilder pending = new StringBuilder();
+
+	/**
+	 * Text of the error span being read, <code>null</code> outside of a span.
+	 */
+	private StringBuilder error;
+
+	private boolean markerFound;
+
+	/**
+	 * Last characters of the previous read, to match a marker split over two reads.
+	 */
+	private String markerCarry = "";
+
+	private long length;
+
+	/**
+	 * @param marker the text to look for, case insensitive, <code>null</code> for none
+	 */
+	public ResponseScanner(String marker)
+	{
+		this.marker = marker;
+	}
+
+	/**
+	 * Scans a whole stream, closing it.
+	 * @param stream the response body
+	 * @param charset the response charset
+	 * @param marker the text to look for, case insensitive, <code>null</code> for none
+	 * @return the scanner holding the findings
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static ResponseScanner scan(InputStream stream, String charset, String marker) throws IOException
+	{
+		ResponseScanner scanner = new ResponseScanner(marker);
+		Reader reader = new InputStreamReader(stream, charset);
+		try
+		{
+			char[] buffer = new char[BUFFER_SIZE];
+			int count;
+			while ((count = reader.read(buffer)) != -1)
+			{
+				scanner.update(buffer, 0, count);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return scanner;
+	}
+
+	/**
+	 * Scans the next characters of the body.
+	 * @param chars the characters
+	 * @param offset first character to scan
+	 * @param count number of characters to scan
+	 */
+	public void update(char[] chars, int offset, int count)
+	{
+		length += count;
+		tail.append(chars, offset, count);
+		if (tail.length() > 2 * TAIL_SIZE)
+		{
+			tail.delete(0, tail.length() - TAIL_SIZE);
+		}
+
+		if (marker != null && !markerFound)
+		{
+			String window = markerCarry + new String(chars, offset, count);
+			markerFound = indexOfIgnoreCase(window, marker, 0) >= 0;
+			markerCarry = window.substring(Math.max(0, window.length() - marker.length() + 1));
+		}
+
+		pending.append(chars, offset, count);
+		String text = pending.toString();
+
+		int position = 0;
+		while (true)
+		{
+			if (error == null)
+			{
+				int start = indexOfIgnoreCase(text, ERROR_START, position);
+				if (start < 0)
+				{
+					break;
+				}
+				error = new StringBuilder();
+				position = start + ERROR_START.length();
+			}
+			else
+			{
+				int end = indexOfIgnoreCase(text, ERROR_END, position);
+				if (end < 0)
+				{
+					appendError(position, Math.max(position, pending.length() - ERROR_END.length() + 1));
+					position = Math.max(position, pending.length() - ERROR_END.length() + 1);
+					break;
+				}
+				appendError(position, end);
+				if (errors.size() < MAX_ERRORS)
+				{
+					errors.add(error.toString());
+				}
+				error = null;
+				position = end + ERROR_END.length();
+			}
+		}
+
+		// keep just enough characters to match a token split over two reads
+		pending.delete(0, Math.max(position, pending.length() - ERROR_START.length() + 1));
+	}
+
+	private static int indexOfIgnoreCase(String text, String token, int from)
+	{
+		for (int i = from; i <= text.length() - token.length(); i++)
+		{
+			if (text.regionMatches(true, i, token, 0, token.length()))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void appendError(int start, int end)
+	{
+		int room = MAX_ERROR_LENGTH - error.length();
+		if (room > 0 && end > start)
+		{
+			error.append(pending, start, Math.min(end, start + room));
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the marker was seen in the body.
+	 */
+	public boolean isMarkerFound()
+	{
+		return markerFound;
+	}
+
+	/**
+	 * @return the content of the error spans, at most 100 of them.
+	 */
+	public List<String> getErrors()
+	{
+		return errors;
+	}
+
+	/**
+	 * @return the last characters of the body, at least {@link #TAIL_SIZE} of them if available.
+	 */
+	public String getTail()
+	{
+		return tail.toString();
+	}
+
+	/**
+	 * @return the number of characters scanned.
+	 */
+	public long getLength()
+	{
+		return length;
+	}
+}
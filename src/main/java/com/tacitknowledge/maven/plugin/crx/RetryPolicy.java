@@ -0,0 +1,107 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Random;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+
+/**
+ * How the calls marked idempotent are retried after a transport error or a
+ * gateway or availability error (502, 503, 504): up to a number of times,
+ * with an exponentially growing delay of which a random half is jittered.
+ */
+public class RetryPolicy
+{
+	/**
+	 * Method parameter marking a call as safe to repeat.
+	 */
+	private static final String IDEMPOTENT = "crxpackage.idempotent";
+
+	private final Random random = new Random();
+
+	private final int retries;
+
+	private final long initialDelay;
+
+	private final long maxDelay;
+
+	/**
+	 * @param retries number of retries of a failed call, 0 for none
+	 * @param initialDelay delay before the first retry in milliseconds
+	 * @param maxDelay longest delay between two attempts in milliseconds
+	 */
+	public RetryPolicy(int retries, long initialDelay, long maxDelay)
+	{
+		this.retries = retries;
+		this.initialDelay = initialDelay;
+		this.maxDelay = Math.max(initialDelay, maxDelay);
+	}
+
+	/**
+	 * Marks a call as safe to repeat, e.g. a login or a read.
+	 * @param method the call
+	 */
+	public static void markIdempotent(HttpMethod method)
+	{
+		method.getParams().setBooleanParameter(IDEMPOTENT, true);
+	}
+
+	/**
+	 * @param method the call
+	 * @return <code>true</code> if the call was marked safe to repeat.
+	 */
+	public static boolean isIdempotent(HttpMethod method)
+	{
+		return method.getParams().getBooleanParameter(IDEMPOTENT, false);
+	}
+
+	/**
+	 * @param status a response status
+	 * @return <code>true</code> if the status tells of a transient failure of the host or its proxy.
+	 */
+	public static boolean isTransient(int status)
+	{
+		return status == HttpStatus.SC_BAD_GATEWAY || status == HttpStatus.SC_SERVICE_UNAVAILABLE
+				|| status == HttpStatus.SC_GATEWAY_TIMEOUT;
+	}
+
+	public int getRetries()
+	{
+		return retries;
+	}
+
+	/**
+	 * @param retry the number of the retry, starting at 0
+	 * @return the milliseconds to wait before it: half of the backoff plus a random share of the other half.
+	 */
+	public long getDelay(int retry)
+	{
+		long backoff = initialDelay;
+		for (int i = 0; i < retry && backoff < maxDelay; i++)
+		{
+			backoff *= 2;
+		}
+		backoff = Math.min(backoff, maxDelay);
+		long half = backoff / 2;
+		synchronized (random)
+		{
+			return half + (long) (random.nextDouble() * (backoff - half));
+		}
+	}
+}
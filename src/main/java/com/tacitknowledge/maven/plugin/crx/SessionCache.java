@@ -0,0 +1,77 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.httpclient.Cookie;
+
+/**
+ * Session cookies of the hosts logged into, keyed by host, user and
+ * workspace. The shared instance lives as long as the plugin class loader,
+ * which Maven keeps for the whole reactor build, so the modules of a build
+ * log into each host once.
+ */
+public class SessionCache
+{
+	private static final SessionCache SHARED = new SessionCache();
+
+	private final Map<String, Cookie[]> sessions = new ConcurrentHashMap<String, Cookie[]>();
+
+	/**
+	 * @return the cache shared by every execution of the plugin in this JVM
+	 */
+	public static SessionCache getShared()
+	{
+		return SHARED;
+	}
+
+	/**
+	 * @param target the host and credentials
+	 * @return the cookies of the session, <code>null</code> if none
+	 */
+	public Cookie[] get(CrxTarget target)
+	{
+		return sessions.get(key(target));
+	}
+
+	/**
+	 * @param target the host and credentials
+	 * @param cookies the cookies of the authenticated session
+	 */
+	public void put(CrxTarget target, Cookie[] cookies)
+	{
+		sessions.put(key(target), cookies);
+	}
+
+	/**
+	 * Forgets an expired session.
+	 * @param target the host and credentials
+	 */
+	public void remove(CrxTarget target)
+	{
+		sessions.remove(key(target));
+	}
+
+	private static String key(CrxTarget target)
+	{
+		// the password is part of the key so that a session is never handed to other credentials
+		return target.getCrxPath() + "|" + target.getLogin() + "|" + target.getWorkspace() + "|"
+				+ (target.getPassword() == null ? 0 : target.getPassword().hashCode());
+	}
+}
@@ -0,0 +1,319 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Checks that a host serves a list of urls after the install. Each url is
+ * first polled until it answers with the expected status, within one
+ * deadline for all of them, then requested a number of times; the p50, p95
+ * and maximum latency of the full responses are compared with the
+ * thresholds. Urls are checked in parallel.
+ */
+public class SmokeCheck
+{
+	private static final long POLL_INTERVAL = 1000;
+
+	private final HttpClient client;
+
+	private final Log log;
+
+	private final List<String> urls;
+
+	private final int requests;
+
+	private final int parallelism;
+
+	private final long timeout;
+
+	private final int expectedStatus;
+
+	private final long maxP95;
+
+	private final long maxLatency;
+
+	/**
+	 * @param client the client to send the requests with
+	 * @param log the log to report to
+	 * @param urls the absolute urls to check
+	 * @param requests number of timed requests per url
+	 * @param parallelism maximum number of requests at the same time
+	 * @param timeout milliseconds every url has to become ready in
+	 * @param expectedStatus the status every response must have
+	 * @param maxP95 highest p95 latency in milliseconds, 0 for no limit
+	 * @param maxLatency highest latency in milliseconds, 0 for no limit
+	 */
+	public SmokeCheck(HttpClient client, Log log, List<String> urls, int requests, int parallelism, long timeout,
+			int expectedStatus, long maxP95, long maxLatency)
+	{
+		this.client = client;
+		this.log = log;
+		this.urls = urls;
+		this.requests = Math.max(1, requests);
+		this.parallelism = Math.max(1, parallelism);
+		this.timeout = timeout;
+		this.expectedStatus = expectedStatus;
+		this.maxP95 = maxP95;
+		this.maxLatency = maxLatency;
+	}
+
+	/**
+	 * Waits for every url, then times them.
+	 * @throws MojoExecutionException if a url is not ready in time, answers with another status or is too slow
+	 */
+	public void run() throws MojoExecutionException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, urls.size() * requests));
+		try
+		{
+			final long deadline = System.currentTimeMillis() + timeout;
+			List<Future<String>> readiness = new ArrayList<Future<String>>();
+			for (final String url : urls)
+			{
+				readiness.add(executor.submit(new Callable<String>()
+				{
+					public String call()
+					{
+						return awaitReady(url, deadline);
+					}
+				}));
+			}
+			List<String> failures = new ArrayList<String>();
+			for (Future<String> future : readiness)
+			{
+				String failure = get(future);
+				if (failure != null)
+				{
+					failures.add(failure);
+				}
+			}
+			if (!failures.isEmpty())
+			{
+				throw new MojoExecutionException("Smoke check failed: " + StringUtils.join(failures, "; "));
+			}
+
+			Map<String, List<Future<Sample>>> samples = new TreeMap<String, List<Future<Sample>>>();
+			for (final String url : urls)
+			{
+				List<Future<Sample>> futures = new ArrayList<Future<Sample>>();
+				for (int i = 0; i < requests; i++)
+				{
+					futures.add(executor.submit(new Callable<Sample>()
+					{
+						public Sample call()
+						{
+							return request(url);
+						}
+					}));
+				}
+				samples.put(url, futures);
+			}
+			for (Map.Entry<String, List<Future<Sample>>> entry : samples.entrySet())
+			{
+				List<Sample> results = new ArrayList<Sample>();
+				for (Future<Sample> future : entry.getValue())
+				{
+					results.add(get(future));
+				}
+				failures.addAll(evaluate(entry.getKey(), results));
+			}
+			if (!failures.isEmpty())
+			{
+				throw new MojoExecutionException("Smoke check failed: " + StringUtils.join(failures, "; "));
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Polls a url until it answers with the expected status.
+	 * @return <code>null</code> once ready, the reason otherwise
+	 */
+	private String awaitReady(String url, long deadline)
+	{
+		long start = System.currentTimeMillis();
+		int attempts = 0;
+		while (true)
+		{
+			Sample sample = request(url);
+			attempts++;
+			if (sample.status == expectedStatus)
+			{
+				log.info("Smoke check " + url + " ready after " + (System.currentTimeMillis() - start) + " ms, "
+						+ attempts + " requests");
+				return null;
+			}
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0)
+			{
+				return url + " not ready within " + timeout / 1000 + " s, last response "
+						+ (sample.error != null ? sample.error : String.valueOf(sample.status));
+			}
+			log.debug("Smoke check " + url + " not ready yet, response "
+					+ (sample.error != null ? sample.error : String.valueOf(sample.status)));
+			try
+			{
+				Thread.sleep(Math.min(POLL_INTERVAL, left));
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return url + " not checked, interrupted";
+			}
+		}
+	}
+
+	/**
+	 * Requests a url and reads the whole response.
+	 */
+	private Sample request(String url)
+	{
+		GetMethod get = new GetMethod(url);
+		long start = System.currentTimeMillis();
+		try
+		{
+			int status = client.executeMethod(get);
+			InputStream body = get.getResponseBodyAsStream();
+			if (body != null)
+			{
+				byte[] buffer = new byte[8 * 1024];
+				while (body.read(buffer) != -1)
+				{
+					// the latency covers the whole response
+				}
+			}
+			return new Sample(status, System.currentTimeMillis() - start, null);
+		}
+		catch (IOException e)
+		{
+			return new Sample(-1, System.currentTimeMillis() - start, e.getClass().getName() + " " + e.getMessage());
+		}
+		finally
+		{
+			get.releaseConnection();
+		}
+	}
+
+	/**
+	 * Logs the latencies of a url and compares them with the thresholds.
+	 * @return the violations, empty if none
+	 */
+	private List<String> evaluate(String url, List<Sample> samples)
+	{
+		List<String> failures = new ArrayList<String>();
+		List<Long> latencies = new ArrayList<Long>();
+		Map<String, Integer> statuses = new TreeMap<String, Integer>();
+		for (Sample sample : samples)
+		{
+			latencies.add(sample.millis);
+			String status = sample.error != null ? sample.error : String.valueOf(sample.status);
+			statuses.put(status, statuses.containsKey(status) ? statuses.get(status) + 1 : 1);
+		}
+		Collections.sort(latencies);
+		long p50 = percentile(latencies, 50);
+		long p95 = percentile(latencies, 95);
+		long max = latencies.get(latencies.size() - 1);
+		log.info("Smoke check " + url + ": " + samples.size() + " requests, p50 " + p50 + " ms, p95 " + p95
+				+ " ms, max " + max + " ms, responses " + statuses);
+
+		int unexpected = samples.size() - (statuses.containsKey(String.valueOf(expectedStatus)) ? statuses
+				.get(String.valueOf(expectedStatus)) : 0);
+		if (unexpected > 0)
+		{
+			failures.add(url + " answered " + unexpected + " of " + samples.size() + " requests with another status than "
+					+ expectedStatus + ": " + statuses);
+		}
+		if (maxP95 > 0 && p95 > maxP95)
+		{
+			failures.add(url + " p95 latency " + p95 + " ms exceeds " + maxP95 + " ms");
+		}
+		if (maxLatency > 0 && max > maxLatency)
+		{
+			failures.add(url + " max latency " + max + " ms exceeds " + maxLatency + " ms");
+		}
+		return failures;
+	}
+
+	/**
+	 * @param sorted latencies in ascending order
+	 * @param percent the percentile, e.g. 95
+	 * @return the nearest rank percentile
+	 */
+	static long percentile(List<Long> sorted, int percent)
+	{
+		// rounded up in integers, a product computed in floating point may exceed an exact rank
+		int rank = (percent * sorted.size() + 99) / 100;
+		return sorted.get(Math.max(0, rank - 1));
+	}
+
+	private static <T> T get(Future<T> future) throws MojoExecutionException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Smoke check interrupted", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new MojoExecutionException("Smoke check failed: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Status and latency of one request.
+	 */
+	private static class Sample
+	{
+		private final int status;
+
+		private final long millis;
+
+		private final String error;
+
+		Sample(int status, long millis, String error)
+		{
+			this.status = status;
+			this.millis = millis;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Applies an operation to a list of repository paths, processing independent
+ * subtrees concurrently. Paths where one is an ancestor of the other are kept
+ * in the same group and handled one after the other in configuration order.
+ * Every path is attempted: failures are collected and reported together.
+ */
+public class SubtreeExecutor
+{
+	/**
+	 * Operation applied to one repository path.
+	 */
+	public interface PathOperation
+	{
+		/**
+		 * @param path the repository path
+		 * @throws Exception if the operation failed on this path
+		 */
+		void apply(String path) throws Exception;
+	}
+
+	private final Log log;
+
+	private final int parallelism;
+
+	private final Map<String, Long> timings = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+
+	private final Map<String, Throwable> failures = Collections.synchronizedMap(new LinkedHashMap<String, Throwable>());
+
+	/**
+	 * @param log the log to report to
+	 * @param parallelism maximum number of subtrees processed at the same time
+	 */
+	public SubtreeExecutor(Log log, int parallelism)
+	{
+		this.log = log;
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Applies the operation to every path and waits for all of them.
+	 * @param paths the paths, in configuration order
+	 * @param operation the operation
+	 * @throws MojoExecutionException if waiting is interrupted
+	 */
+	public void execute(List<String> paths, final PathOperation operation) throws MojoExecutionException
+	{
+		List<List<String>> groups = groupBySubtree(paths);
+		if (parallelism == 1 || groups.size() == 1)
+		{
+			for (List<String> group : groups)
+			{
+				applyAll(group, operation);
+			}
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, groups.size()));
+		try
+		{
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final List<String> group : groups)
+			{
+				futures.add(executor.submit(new Runnable()
+				{
+					public void run()
+					{
+						applyAll(group, operation);
+					}
+				}));
+			}
+			for (Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while processing " + paths, e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new MojoExecutionException("Error processing " + paths, e.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	private void applyAll(List<String> group, PathOperation operation)
+	{
+		for (String path : group)
+		{
+			long start = System.currentTimeMillis();
+			try
+			{
+				operation.apply(path);
+			}
+			catch (Exception e)
+			{
+				failures.put(path, e);
+			}
+			long elapsed = System.currentTimeMillis() - start;
+			timings.put(path, elapsed);
+			log.info(path + " processed in " + elapsed + " ms");
+		}
+	}
+
+	/**
+	 * @return the time spent on each processed path, in completion order.
+	 */
+	public Map<String, Long> getTimings()
+	{
+		synchronized (timings)
+		{
+			return new LinkedHashMap<String, Long>(timings);
+		}
+	}
+
+	/**
+	 * @return the error of each failed path.
+	 */
+	public Map<String, Throwable> getFailures()
+	{
+		synchronized (failures)
+		{
+			return new LinkedHashMap<String, Throwable>(failures);
+		}
+	}
+
+	/**
+	 * Splits the paths in groups of related paths: two paths belong to the same
+	 * group when one is an ancestor of, or equal to, the other.
+	 * @param paths the paths, in configuration order
+	 * @return the groups, each keeping the configuration order of its paths
+	 */
+	static List<List<String>> groupBySubtree(List<String> paths)
+	{
+		List<List<Integer>> groups = new ArrayList<List<Integer>>();
+		for (int index = 0; index < paths.size(); index++)
+		{
+			List<Integer> target = null;
+			for (int i = 0; i < groups.size(); i++)
+			{
+				if (isRelated(paths, groups.get(i), paths.get(index)))
+				{
+					if (target == null)
+					{
+						target = groups.get(i);
+					}
+					else
+					{
+						// the path links two groups, merge them
+						target.addAll(groups.remove(i--));
+					}
+				}
+			}
+			if (target == null)
+			{
+				target = new ArrayList<Integer>();
+				groups.add(target);
+			}
+			target.add(index);
+		}
+
+		List<List<String>> result = new ArrayList<List<String>>();
+		for (List<Integer> group : groups)
+		{
+			Collections.sort(group);
+			List<String> members = new ArrayList<String>();
+			for (Integer index : group)
+			{
+				members.add(paths.get(index));
+			}
+			result.add(members);
+		}
+		return result;
+	}
+
+	private static boolean isRelated(List<String> paths, List<Integer> group, String path)
+	{
+		for (Integer index : group)
+		{
+			String member = paths.get(index);
+			if (member.equals(path) || path.startsWith(member + "/") || member.startsWith(path + "/"))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+}
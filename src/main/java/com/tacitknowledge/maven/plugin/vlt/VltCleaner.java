@@ -0,0 +1,389 @@
+package com.tacitknowledge.maven.plugin.vlt;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Removes the <code>.vlt</code> files of a directory tree. Each directory is
+ * listed once and each entry is read with a single attribute lookup, without
+ * following links; sub directories are cleaned in parallel on a fork-join
+ * pool. Linked directories are followed, but each directory is visited only
+ * once per clean, so link loops end. Unreadable directories are reported and
+ * skipped.
+ */
+public class VltCleaner {
+
+    private static final String VLT_SUFFIX = ".vlt";
+
+    private final Log log;
+
+    private final int parallelism;
+
+    private final List<PathMatcher> nameExcludes = new ArrayList<PathMatcher>();
+
+    private final List<PathMatcher> pathExcludes = new ArrayList<PathMatcher>();
+
+    private final AtomicLong directories = new AtomicLong();
+
+    private final AtomicLong scanned = new AtomicLong();
+
+    private final AtomicLong deleted = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private Path root;
+
+    /**
+     * @param log the log to report to
+     * @param parallelism number of directories listed at the same time
+     * @param excludes glob patterns of the paths to skip, relative to the
+     *            cleaned directory, e.g. <code>target/</code> or
+     *            <code>**&#47;.git/</code>; patterns without a <code>/</code>
+     *            other than a trailing one match names at any depth
+     */
+    public VltCleaner(Log log, int parallelism, String[] excludes) {
+        this.log = log;
+        this.parallelism = Math.max(1, parallelism);
+        if (excludes != null) {
+            for (String exclude : excludes) {
+                String pattern = exclude.trim();
+                while (pattern.endsWith("/")) {
+                    pattern = pattern.substring(0, pattern.length() - 1);
+                }
+                if (pattern.length() == 0) {
+                    continue;
+                }
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+                if (pattern.indexOf('/') < 0) {
+                    nameExcludes.add(matcher);
+                } else {
+                    pathExcludes.add(matcher);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the <code>.vlt</code> files below a directory.
+     * @param startDirectory the directory to clean
+     */
+    public void clean(Path startDirectory) {
+        if (start(startDirectory)) {
+            run(new CleanTask(startDirectory, newVisited(startDirectory)));
+        }
+    }
+
+    /**
+     * Removes the <code>.vlt</code> files below a directory, listing only
+     * the directories modified since the previous clean recorded in the index.
+     * @param startDirectory the directory to clean
+     * @param index the directories known from the previous clean, updated
+     */
+    public void clean(Path startDirectory, VltIndex index) {
+        if (start(startDirectory)) {
+            run(new IncrementalTask(startDirectory, index, newVisited(startDirectory)));
+        }
+    }
+
+    /**
+     * Removes the <code>.vlt</code> files below a directory of the tree
+     * being cleaned, e.g. one just created. Every directory below it is
+     * listed, including the ones an earlier clean already visited.
+     * @param folder the directory
+     */
+    void cleanSubtree(Path folder) {
+        run(new CleanTask(folder, newVisited(folder)));
+    }
+
+    /**
+     * @param directory a directory below the cleaned one
+     * @return whether it matches the excludes
+     */
+    boolean isExcluded(Path directory) {
+        for (PathMatcher matcher : nameExcludes) {
+            if (matcher.matches(directory.getFileName())) {
+                return true;
+            }
+        }
+        if (!pathExcludes.isEmpty()) {
+            Path relative = root.relativize(directory);
+            for (PathMatcher matcher : pathExcludes) {
+                if (matcher.matches(relative)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes one <code>.vlt</code> file.
+     * @param vltFile the file
+     */
+    void delete(Path vltFile) {
+        try {
+            Files.delete(vltFile);
+            deleted.incrementAndGet();
+            log.debug("removed " + vltFile);
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            log.warn("Cannot remove " + vltFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param name a file name
+     * @return whether it is the name of a <code>.vlt</code> file
+     */
+    static boolean isVltFile(String name) {
+        return name.endsWith(VLT_SUFFIX);
+    }
+
+    private boolean start(Path startDirectory) {
+        root = startDirectory;
+        BasicFileAttributes attributes = readAttributes(startDirectory);
+        if (attributes == null || !attributes.isDirectory()) {
+            log.warn(startDirectory + " is not a directory, nothing to clean");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the set of the directories visited by one clean, holding the
+     *         directory it starts from
+     */
+    private Set<Object> newVisited(Path folder) {
+        Set<Object> visited = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+        BasicFileAttributes attributes = readAttributes(folder);
+        if (attributes != null) {
+            visited.add(getKey(folder, attributes));
+        }
+        return visited;
+    }
+
+    private void run(RecursiveAction task) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(task);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return number of directories listed
+     */
+    public long getDirectoryCount() {
+        return directories.get();
+    }
+
+    /**
+     * @return number of directory entries examined
+     */
+    public long getScannedCount() {
+        return scanned.get();
+    }
+
+    /**
+     * @return number of <code>.vlt</code> files removed
+     */
+    public long getDeletedCount() {
+        return deleted.get();
+    }
+
+    /**
+     * @return number of directories or files that could not be read or removed
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Lists one directory, removes its <code>.vlt</code> files and returns its
+     * sub directories that are not excluded and not visited yet.
+     */
+    private List<Path> cleanFolder(Path folder, Set<Object> visited) {
+        List<Path> children = new ArrayList<Path>();
+        directories.incrementAndGet();
+        DirectoryStream<Path> entries;
+        try {
+            entries = Files.newDirectoryStream(folder);
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            log.warn("Cannot list " + folder + ": " + e.getMessage());
+            return children;
+        }
+        try {
+            for (Path entry : entries) {
+                scanned.incrementAndGet();
+                BasicFileAttributes attributes = readAttributes(entry);
+                if (attributes == null) {
+                    continue;
+                }
+                if (attributes.isDirectory()) {
+                    if (!isExcluded(entry) && visited.add(getKey(entry, attributes))) {
+                        children.add(entry);
+                    }
+                } else if (isVltFile(entry.getFileName().toString())) {
+                    delete(entry);
+                }
+            }
+        } finally {
+            try {
+                entries.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        return children;
+    }
+
+    /**
+     * @return the attributes of the entry, of the link target for a link,
+     *         <code>null</code> for a broken link.
+     */
+    private BasicFileAttributes readAttributes(Path entry) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+            if (attributes.isSymbolicLink()) {
+                attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+            }
+            return attributes;
+        } catch (IOException e) {
+            log.debug("Cannot read " + entry + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return an identifier of the directory, the same through every link to it
+     */
+    private static Object getKey(Path directory, BasicFileAttributes attributes) {
+        if (attributes.fileKey() != null) {
+            return attributes.fileKey();
+        }
+        try {
+            return directory.toRealPath();
+        } catch (IOException e) {
+            return directory.toAbsolutePath().normalize();
+        }
+    }
+
+    /**
+     * Cleans one directory, then its sub directories in parallel.
+     */
+    private class CleanTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path folder;
+
+        private final Set<Object> visited;
+
+        CleanTask(Path folder, Set<Object> visited) {
+            this.folder = folder;
+            this.visited = visited;
+        }
+
+        protected void compute() {
+            List<CleanTask> tasks = new ArrayList<CleanTask>();
+            for (Path child : cleanFolder(folder, visited)) {
+                tasks.add(new CleanTask(child, visited));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Checks one directory against the index: lists it again only if it was
+     * modified since the last clean, then goes on with its sub directories.
+     */
+    private class IncrementalTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path folder;
+
+        private final VltIndex index;
+
+        private final Set<Object> visited;
+
+        IncrementalTask(Path folder, VltIndex index, Set<Object> visited) {
+            this.folder = folder;
+            this.index = index;
+            this.visited = visited;
+        }
+
+        protected void compute() {
+            String relative = getRelativePath(folder);
+            BasicFileAttributes attributes = readAttributes(folder);
+            if (attributes == null || !attributes.isDirectory()) {
+                index.remove(relative);
+                return;
+            }
+
+            List<Path> folderChildren = new ArrayList<Path>();
+            Long known = index.getModificationTime(relative);
+            if (known != null && known.longValue() == attributes.lastModifiedTime().toMillis()) {
+                directories.incrementAndGet();
+                for (String child : index.getChildren(relative)) {
+                    folderChildren.add(root.resolve(child));
+                }
+            } else {
+                // the time read before the listing: a change made while listing is seen by the next clean
+                long modified = attributes.lastModifiedTime().toMillis();
+                folderChildren = cleanFolder(folder, visited);
+                List<String> relativeChildren = new ArrayList<String>();
+                for (Path child : folderChildren) {
+                    relativeChildren.add(getRelativePath(child));
+                }
+                index.update(relative, modified, relativeChildren);
+            }
+
+            List<IncrementalTask> tasks = new ArrayList<IncrementalTask>();
+            for (Path child : folderChildren) {
+                tasks.add(new IncrementalTask(child, index, visited));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private String getRelativePath(Path folder) {
+        return root.relativize(folder).toString().replace(File.separatorChar, '/');
+    }
+}
@@ -17,8 +17,7 @@ package com.tacitknowledge.maven.plugin.vlt;
  */
 
 import java.io.File;
-import java.io.FileFilter;
-import java.io.FilenameFilter;
+import java.io.IOException;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -40,6 +39,51 @@ public class VltFileCleanerPlugin extends AbstractMojo {
      */
     private String sourceDirectory;
 
+    /**
+     * Number of directories listed at the same time, defaults to the number of processors.
+     * This property may be set by the <code>vlt.parallelism</code>
+     * 
+     * @parameter expression="${vlt.parallelism}" default-value="0"
+     */
+    private int parallelism;
+
+    /**
+     * Glob patterns of the directories not to clean, relative to
+     * <code>sourceDirectory</code>, e.g. <code>target/</code> or
+     * <code>.git/</code>. Patterns without a <code>/</code> other than a
+     * trailing one match directory names at any depth.
+     * This property may be set by the <code>vlt.excludes</code>, separated by commas
+     * 
+     * @parameter expression="${vlt.excludes}"
+     */
+    private String[] excludes;
+
+    /**
+     * Whether to list only the directories modified since the previous clean,
+     * as recorded in an index kept in <code>indexFolder</code>.
+     * This property may be set by the <code>vlt.incremental</code>
+     * 
+     * @parameter expression="${vlt.incremental}" default-value="false"
+     */
+    private boolean incremental;
+
+    /**
+     * Folder of the indexes of the incremental clean, one per source directory.
+     * This property may be set by the <code>vlt.indexFolder</code>
+     * 
+     * @parameter expression="${vlt.indexFolder}" default-value="${user.home}/.crx-packager/vlt-index"
+     */
+    private File indexFolder;
+
+    /**
+     * Whether to keep watching <code>sourceDirectory</code> after the clean,
+     * removing <code>.vlt</code> files as they appear, until the build is interrupted.
+     * This property may be set by the <code>vlt.watch</code>
+     * 
+     * @parameter expression="${vlt.watch}" default-value="false"
+     */
+    private boolean watch;
+
     /**
      * inherited.
      * 
@@ -54,28 +98,37 @@ public class VltFileCleanerPlugin extends AbstractMojo {
 
     /**
      * @param startDirectory
+     * @throws MojoExecutionException if the index cannot be used or the tree cannot be watched
      */
-    private void deleteVltFiles(File startDirectory) {
-        File[] vltFiles = startDirectory.listFiles(new FilenameFilter() {
-
-            public boolean accept(File dir, String name) {
-                return name.endsWith(".vlt");
+    private void deleteVltFiles(File startDirectory) throws MojoExecutionException {
+        long start = System.currentTimeMillis();
+        VltCleaner cleaner = new VltCleaner(getLog(), parallelism > 0 ? parallelism
+                : Runtime.getRuntime().availableProcessors(), excludes);
+        if (incremental) {
+            try {
+                VltIndex index = new VltIndex(indexFolder, startDirectory, excludes);
+                if (index.isEmpty()) {
+                    getLog().info("No index of " + startDirectory + " yet, cleaning every directory");
+                }
+                cleaner.clean(startDirectory.toPath(), index);
+                index.save();
+            } catch (IOException e) {
+                throw new MojoExecutionException("Error using the index in " + indexFolder, e);
             }
-
-        });
-        for (int i = 0; i < vltFiles.length; i++) {
-            getLog().info("removing " + vltFiles[i].getAbsolutePath());
-            vltFiles[i].delete();
+        } else {
+            cleaner.clean(startDirectory.toPath());
         }
-        File[] allDir = startDirectory.listFiles(new FileFilter() {
+        getLog().info("Removed " + cleaner.getDeletedCount() + " .vlt files, scanned "
+                + cleaner.getScannedCount() + " files in " + cleaner.getDirectoryCount()
+                + " directories in " + (System.currentTimeMillis() - start) + " ms"
+                + (cleaner.getFailureCount() > 0 ? ", " + cleaner.getFailureCount() + " failures" : ""));
 
-            public boolean accept(File pathname) {
-                return pathname.isDirectory();
+        if (watch) {
+            try {
+                new VltWatcher(getLog(), cleaner).watch(startDirectory.toPath());
+            } catch (IOException e) {
+                throw new MojoExecutionException("Error watching " + startDirectory, e);
             }
-
-        });
-        for (int i = 0; i < allDir.length; i++) {
-            deleteVltFiles(allDir[i]);
         }
     }
 }
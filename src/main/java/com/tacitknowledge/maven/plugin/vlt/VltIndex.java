@@ -0,0 +1,183 @@
+package com.tacitknowledge.maven.plugin.vlt;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Modification times of the directories of a checkout as of the last clean,
+ * keyed by their path relative to the cleaned directory. A directory whose
+ * modification time did not change has no new entry, hence no new
+ * <code>.vlt</code> file, and does not need to be listed again. One index is
+ * kept per source directory and set of excludes.
+ */
+public class VltIndex {
+
+    private final File file;
+
+    private final Map<String, Long> modificationTimes = new ConcurrentHashMap<String, Long>();
+
+    private final Map<String, List<String>> children = new ConcurrentHashMap<String, List<String>>();
+
+    private volatile boolean modified;
+
+    /**
+     * @param indexFolder the folder the indexes are kept in
+     * @param sourceDirectory the cleaned directory
+     * @param excludes the excludes of the clean
+     * @throws IOException if an existing index cannot be read
+     */
+    public VltIndex(File indexFolder, File sourceDirectory, String[] excludes) throws IOException {
+        StringBuilder key = new StringBuilder(sourceDirectory.getAbsolutePath());
+        if (excludes != null) {
+            for (String exclude : excludes) {
+                key.append('|').append(exclude);
+            }
+        }
+        this.file = new File(indexFolder, "vlt-" + DigestUtils.md5Hex(key.toString()) + ".properties");
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    /**
+     * @return the index file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return whether the index knows no directory
+     */
+    public boolean isEmpty() {
+        return modificationTimes.isEmpty();
+    }
+
+    /**
+     * @param folder a relative directory path, empty for the cleaned directory
+     * @return its modification time as of the last clean, <code>null</code> if unknown
+     */
+    public Long getModificationTime(String folder) {
+        return modificationTimes.get(folder);
+    }
+
+    /**
+     * @param folder a relative directory path
+     * @return the relative paths of its sub directories as of the last clean
+     */
+    public List<String> getChildren(String folder) {
+        List<String> folderChildren = children.get(folder);
+        return folderChildren == null ? new ArrayList<String>() : new ArrayList<String>(folderChildren);
+    }
+
+    /**
+     * Records a cleaned directory. Sub directories it no longer has are forgotten.
+     * @param folder the relative directory path
+     * @param modificationTime its modification time after the clean
+     * @param folderChildren the relative paths of its sub directories
+     */
+    public void update(String folder, long modificationTime, List<String> folderChildren) {
+        for (String child : getChildren(folder)) {
+            if (!folderChildren.contains(child)) {
+                remove(child);
+            }
+        }
+        modificationTimes.put(folder, modificationTime);
+        children.put(folder, new ArrayList<String>(folderChildren));
+        modified = true;
+    }
+
+    /**
+     * Forgets a directory and its sub directories.
+     * @param folder the relative directory path
+     */
+    public void remove(String folder) {
+        for (String child : getChildren(folder)) {
+            remove(child);
+        }
+        modificationTimes.remove(folder);
+        children.remove(folder);
+        modified = true;
+    }
+
+    /**
+     * Writes the index, if it changed.
+     * @throws IOException if the index cannot be written
+     */
+    public void save() throws IOException {
+        if (!modified) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String, Long> entry : modificationTimes.entrySet()) {
+            properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        OutputStream output = FileUtils.openOutputStream(file);
+        try {
+            properties.store(output, "directory modification times as of the last vlt:clean");
+        } finally {
+            IOUtils.closeQuietly(output);
+        }
+        modified = false;
+    }
+
+    private void load() throws IOException {
+        Properties properties = new Properties();
+        InputStream input = new FileInputStream(file);
+        try {
+            properties.load(input);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+        for (String folder : properties.stringPropertyNames()) {
+            try {
+                modificationTimes.put(folder, Long.valueOf(properties.getProperty(folder)));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (folder.length() > 0) {
+                int separator = folder.lastIndexOf('/');
+                String parent = separator < 0 ? "" : folder.substring(0, separator);
+                List<String> parentChildren = children.get(parent);
+                if (parentChildren == null) {
+                    parentChildren = new ArrayList<String>();
+                    children.put(parent, parentChildren);
+                }
+                parentChildren.add(folder);
+            }
+        }
+        for (String folder : modificationTimes.keySet()) {
+            if (!children.containsKey(folder)) {
+                children.put(folder, new ArrayList<String>());
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.tacitknowledge.maven.plugin.vlt;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Watches a cleaned directory tree and removes <code>.vlt</code> files as
+ * soon as they appear, until the thread is interrupted. Directories created
+ * meanwhile are cleaned and watched as well.
+ */
+public class VltWatcher {
+
+    private final Log log;
+
+    private final VltCleaner cleaner;
+
+    private final Map<WatchKey, Path> folders = new HashMap<WatchKey, Path>();
+
+    private WatchService watchService;
+
+    /**
+     * @param log the log to report to
+     * @param cleaner the cleaner of the tree, for its excludes
+     */
+    public VltWatcher(Log log, VltCleaner cleaner) {
+        this.log = log;
+        this.cleaner = cleaner;
+    }
+
+    /**
+     * Watches the tree until the current thread is interrupted.
+     * @param startDirectory the root of the tree, already cleaned
+     * @throws IOException if the tree cannot be watched
+     */
+    public void watch(Path startDirectory) throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            register(startDirectory);
+            log.info("Watching " + folders.size() + " directories for .vlt files, interrupt to stop");
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key;
+                try {
+                    key = watchService.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                Path folder = folders.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (folder != null && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        created(folder.resolve((Path) event.context()));
+                    } else if (folder != null && event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        log.warn("Too many changes in " + folder + ", cleaning it again");
+                        cleaner.cleanSubtree(folder);
+                    }
+                }
+                if (!key.reset()) {
+                    folders.remove(key);
+                }
+            }
+        } finally {
+            watchService.close();
+        }
+    }
+
+    private void created(Path entry) throws IOException {
+        if (Files.isDirectory(entry)) {
+            if (!cleaner.isExcluded(entry)) {
+                // files may have been created before the directory was watched
+                register(entry);
+                cleaner.cleanSubtree(entry);
+            }
+        } else if (VltCleaner.isVltFile(entry.getFileName().toString())) {
+            cleaner.delete(entry);
+            log.info("removed " + entry);
+        }
+    }
+
+    private void register(final Path startDirectory) throws IOException {
+        Files.walkFileTree(startDirectory, new SimpleFileVisitor<Path>() {
+
+            public FileVisitResult preVisitDirectory(Path folder, BasicFileAttributes attributes) {
+                if (!folder.equals(startDirectory) && cleaner.isExcluded(folder)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                try {
+                    folders.put(folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE), folder);
+                } catch (IOException e) {
+                    log.warn("Cannot watch " + folder + ": " + e.getMessage());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                log.debug("Cannot read " + file + ": " + e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
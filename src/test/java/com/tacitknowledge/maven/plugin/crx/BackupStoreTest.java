@@ -0,0 +1,204 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class BackupStoreTest extends TestCase
+{
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	private File folder;
+
+	protected void setUp() throws Exception
+	{
+		folder = File.createTempFile("backups", "");
+		folder.delete();
+		folder.mkdirs();
+	}
+
+	protected void tearDown() throws Exception
+	{
+		FileUtils.deleteDirectory(folder);
+	}
+
+	public void testStoresEachContentOnce() throws IOException
+	{
+		BackupStore store = new BackupStore(folder, new SystemStreamLog());
+		File first = store.store(content("a"), name(System.currentTimeMillis() - DAY));
+		File second = store.store(content("a"), name(System.currentTimeMillis()));
+
+		assertTrue(first.isFile());
+		assertTrue(second.isFile());
+		assertEquals(1, blobs().length);
+		assertEquals("a", FileUtils.readFileToString(second));
+	}
+
+	public void testAgeComesFromTheBackupName() throws IOException
+	{
+		BackupStore store = new BackupStore(folder, new SystemStreamLog());
+		long now = System.currentTimeMillis();
+		File old = store.store(content("a"), name(now - 10 * DAY));
+		// the blob was first stored long ago, fresh backups of the same content link to it
+		blobs()[0].setLastModified(now - 30 * DAY);
+		File recent = store.store(content("a"), name(now - 2 * 60 * 60 * 1000));
+		File latest = store.store(content("a"), name(now));
+
+		store.prune("mypackage", 0, 7, 0);
+
+		assertFalse(old.exists());
+		assertTrue(recent.exists());
+		assertTrue(latest.exists());
+		assertEquals(1, blobs().length);
+	}
+
+	public void testKeepRemovesOldestAndUnreferencedBlobs() throws IOException
+	{
+		BackupStore store = new BackupStore(folder, new SystemStreamLog());
+		long now = System.currentTimeMillis();
+		File oldest = store.store(content("a"), name(now - 3 * DAY));
+		store.store(content("b"), name(now - 2 * DAY));
+		store.store(content("c"), name(now - DAY));
+		assertEquals(3, blobs().length);
+
+		store.prune("mypackage", 2, 0, 0);
+
+		assertFalse(oldest.exists());
+		assertEquals(2, blobs().length);
+	}
+
+	public void testMaxSizeKeepsLatestBackup() throws IOException
+	{
+		BackupStore store = new BackupStore(folder, new SystemStreamLog());
+		long now = System.currentTimeMillis();
+		store.store(content("aaaa"), name(now - 2 * DAY));
+		store.store(content("bbbb"), name(now - DAY));
+		File latest = store.store(content("cccc"), name(now));
+
+		store.prune("mypackage", 0, 0, 1);
+
+		assertTrue(latest.exists());
+		assertEquals(1, blobs().length);
+	}
+
+	public void testPruneLeavesOtherPackagesAlone() throws IOException
+	{
+		BackupStore store = new BackupStore(folder, new SystemStreamLog());
+		long now = System.currentTimeMillis();
+		File other = store.store(content("x"), "otherpackage_" + timestamp(now - 3 * DAY) + ".zip");
+		store.store(content("a"), name(now - 2 * DAY));
+		store.store(content("b"), name(now));
+
+		store.prune("mypackage", 1, 0, 0);
+
+		assertTrue(other.exists());
+		assertEquals(2, blobs().length);
+	}
+
+	public void testConcurrentStoresIntoOneFolder() throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try
+		{
+			final long now = System.currentTimeMillis();
+			List<Future<File>> futures = new ArrayList<Future<File>>();
+			for (int i = 0; i < 32; i++)
+			{
+				final int number = i;
+				futures.add(executor.submit(new Callable<File>()
+				{
+					public File call() throws IOException
+					{
+						// a store per call, as every deployer creates its own
+						BackupStore store = new BackupStore(folder, new SystemStreamLog());
+						File backup = store.store(content("content " + number), name(now - number * DAY));
+						store.prune("mypackage", 0, 0, 0);
+						return backup;
+					}
+				}));
+			}
+			for (Future<File> future : futures)
+			{
+				assertTrue(future.get().isFile());
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		assertEquals(32, blobs().length);
+		// a last prune sees every backup in the index
+		new BackupStore(folder, new SystemStreamLog()).prune("mypackage", 1, 0, 0);
+		assertEquals(1, blobs().length);
+	}
+
+	public void testBackupTime() throws IOException
+	{
+		Calendar time = Calendar.getInstance();
+		time.clear();
+		time.set(2012, Calendar.JANUARY, 1, 12, 0);
+		assertEquals(time.getTimeInMillis(), BackupStore.getBackupTime("my_package_20120101-1200.zip"));
+		try
+		{
+			BackupStore.getBackupTime("mypackage.zip");
+			fail("no timestamp");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+	}
+
+	private File[] blobs()
+	{
+		return new File(folder, "blobs").listFiles((FileFilter) new SuffixFileFilter(".zip"));
+	}
+
+	private static ByteArrayInputStream content(String text)
+	{
+		return new ByteArrayInputStream(text.getBytes());
+	}
+
+	private static String name(long time)
+	{
+		return "mypackage_" + timestamp(time) + ".zip";
+	}
+
+	private static String timestamp(long time)
+	{
+		return new SimpleDateFormat(CRXPackageInstallerPlugin.DATE_FORMAT_NOW).format(new Date(time));
+	}
+}
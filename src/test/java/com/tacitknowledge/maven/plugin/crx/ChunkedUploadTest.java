@@ -0,0 +1,314 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ChunkedUploadTest extends TestCase
+{
+	private static final int CHUNK_SIZE = 4096;
+
+	private static final int LENGTH = 10000;
+
+	private final UploadHandler handler = new UploadHandler();
+
+	private HttpServer server;
+
+	private String folderUrl;
+
+	private File file;
+
+	private byte[] content;
+
+	protected void setUp() throws Exception
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", handler);
+		server.start();
+		folderUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/etc/packages";
+
+		content = new byte[LENGTH];
+		new Random(1).nextBytes(content);
+		file = File.createTempFile("package", ".zip");
+		FileUtils.writeByteArrayToFile(file, content);
+	}
+
+	protected void tearDown() throws Exception
+	{
+		server.stop(0);
+		file.delete();
+	}
+
+	public void testUploadsEveryChunk() throws MojoExecutionException
+	{
+		upload(0);
+
+		assertTrue(Arrays.equals(content, handler.stored));
+		assertEquals(Arrays.asList(0L, 4096L, 8192L), handler.offsets);
+		// a fresh upload only checks the length
+		assertEquals(0, handler.downloads);
+	}
+
+	public void testResumesAtTheStoredLength() throws MojoExecutionException
+	{
+		handler.storePartial(Arrays.copyOf(content, 8192), LENGTH);
+
+		upload(0);
+
+		assertTrue(Arrays.equals(content, handler.stored));
+		assertEquals(Arrays.asList(8192L), handler.offsets);
+		assertEquals(1, handler.downloads);
+	}
+
+	public void testStartsOverForAPartialUploadOfAnotherLength() throws MojoExecutionException
+	{
+		handler.storePartial(Arrays.copyOf(content, 4096), LENGTH - 1);
+
+		upload(0);
+
+		assertTrue(Arrays.equals(content, handler.stored));
+		assertEquals(Arrays.asList(0L, 4096L, 8192L), handler.offsets);
+	}
+
+	public void testStartsOverForAPartialUploadOffTheChunks() throws MojoExecutionException
+	{
+		handler.storePartial(Arrays.copyOf(content, 5000), LENGTH);
+
+		upload(0);
+
+		assertEquals(Arrays.asList(0L, 4096L, 8192L), handler.offsets);
+	}
+
+	public void testUploadsAgainWhenTheResumedFileDiffers() throws MojoExecutionException
+	{
+		// chunks of another file of the same length
+		byte[] other = content.clone();
+		other[5] ^= 1;
+		handler.storePartial(Arrays.copyOf(other, 8192), LENGTH);
+
+		upload(0);
+
+		assertTrue(Arrays.equals(content, handler.stored));
+		assertEquals(Arrays.asList(8192L, 0L, 4096L, 8192L), handler.offsets);
+		assertEquals(2, handler.downloads);
+	}
+
+	public void testFailsWhenTheJoinedLengthDiffers()
+	{
+		handler.dropLastByte = true;
+		try
+		{
+			upload(0);
+			fail("the truncated file was accepted");
+		}
+		catch (MojoExecutionException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("9999 bytes instead of 10000"));
+		}
+		assertEquals(Arrays.asList(0L, 4096L, 8192L), handler.offsets);
+	}
+
+	public void testFailsWhenTheResumedLengthStillDiffers()
+	{
+		handler.storePartial(Arrays.copyOf(content, 8192), LENGTH);
+		handler.dropLastByte = true;
+		try
+		{
+			upload(0);
+			fail("the truncated file was accepted");
+		}
+		catch (MojoExecutionException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("9999 bytes instead of 10000"));
+		}
+		// the resumed file is sent again once, then the upload fails
+		assertEquals(Arrays.asList(8192L, 0L, 4096L, 8192L), handler.offsets);
+	}
+
+	public void testRetriesAFailedChunk() throws MojoExecutionException
+	{
+		handler.failures = 1;
+		DeploymentMetrics metrics = new DeploymentMetrics();
+		metrics.startPhase("upload");
+		new ChunkedUpload(new HttpClient(), new SystemStreamLog(), folderUrl, file, CHUNK_SIZE, 1, 1, metrics)
+				.upload();
+		metrics.endPhase(LENGTH);
+
+		assertTrue(Arrays.equals(content, handler.stored));
+		assertEquals(Arrays.asList(0L, 0L, 4096L, 8192L), handler.offsets);
+		assertEquals(1, metrics.getPhases().get(0).getInt("retries"));
+	}
+
+	public void testFailsOnceTheRetriesAreUsedUp()
+	{
+		handler.failures = 2;
+		try
+		{
+			upload(1);
+			fail("the failed chunk was accepted");
+		}
+		catch (MojoExecutionException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("chunk 1/3 failed after 1 retries"));
+		}
+	}
+
+	private void upload(int retries) throws MojoExecutionException
+	{
+		new ChunkedUpload(new HttpClient(), new SystemStreamLog(), folderUrl, file, CHUNK_SIZE, retries, 1,
+				new DeploymentMetrics()).upload();
+	}
+
+	/**
+	 * Joins the chunks posted with the Sling parameters, reports a partial
+	 * upload by its <code>sling:length</code> and <code>sling:fileLength</code>,
+	 * a joined file by the length of its <code>:jcr:data</code>.
+	 */
+	private static class UploadHandler implements HttpHandler
+	{
+		private final List<Long> offsets = new ArrayList<Long>();
+
+		private byte[] stored = new byte[0];
+
+		private long fileLength;
+
+		private boolean complete;
+
+		private boolean dropLastByte;
+
+		private int failures;
+
+		private int downloads;
+
+		void storePartial(byte[] partial, long length)
+		{
+			stored = partial;
+			fileLength = length;
+			complete = false;
+		}
+
+		public synchronized void handle(HttpExchange exchange) throws IOException
+		{
+			byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+			String path = exchange.getRequestURI().getPath();
+			int status = 200;
+			byte[] response;
+			if (exchange.getRequestMethod().equals("POST"))
+			{
+				post(exchange.getRequestHeaders().getFirst("Content-Type"), body);
+				if (failures > 0)
+				{
+					failures--;
+					status = 503;
+				}
+				response = "ok".getBytes("UTF-8");
+			}
+			else if (path.endsWith("/jcr:content.json"))
+			{
+				if (complete)
+				{
+					response = ("{\":jcr:data\":" + stored.length + "}").getBytes("UTF-8");
+				}
+				else if (stored.length > 0)
+				{
+					response = ("{\"sling:length\":" + stored.length + ",\"sling:fileLength\":" + fileLength + "}")
+							.getBytes("UTF-8");
+				}
+				else
+				{
+					status = 404;
+					response = "{}".getBytes("UTF-8");
+				}
+			}
+			else
+			{
+				downloads++;
+				response = stored;
+			}
+			exchange.sendResponseHeaders(status, response.length);
+			exchange.getResponseBody().write(response);
+			exchange.close();
+		}
+
+		private void post(String contentType, byte[] body) throws IOException
+		{
+			String boundary = "--" + contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+			long offset = -1;
+			long length = -1;
+			byte[] data = null;
+			for (String part : new String(body, "ISO-8859-1").split(Pattern.quote(boundary)))
+			{
+				int headerEnd = part.indexOf("\r\n\r\n");
+				if (headerEnd < 0)
+				{
+					continue;
+				}
+				String headers = part.substring(0, headerEnd);
+				String value = part.substring(headerEnd + 4, part.length() - 2);
+				if (headers.contains("@Offset"))
+				{
+					offset = Long.parseLong(value);
+				}
+				else if (headers.contains("@Length"))
+				{
+					length = Long.parseLong(value);
+				}
+				else if (headers.contains("filename"))
+				{
+					data = value.getBytes("ISO-8859-1");
+				}
+			}
+			offsets.add(offset);
+			if (offset == 0)
+			{
+				stored = new byte[0];
+				complete = false;
+			}
+			byte[] joined = Arrays.copyOf(stored, (int) offset + data.length);
+			System.arraycopy(data, 0, joined, (int) offset, data.length);
+			stored = joined;
+			fileLength = length;
+			if (stored.length == length)
+			{
+				complete = true;
+				if (dropLastByte)
+				{
+					stored = Arrays.copyOf(stored, stored.length - 1);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class CircuitBreakerTest extends TestCase
+{
+	public void testOpensAfterConsecutiveFailures() throws IOException
+	{
+		CircuitBreaker breaker = new CircuitBreaker("http://host", 3, 60000);
+		breaker.record(false);
+		breaker.record(false);
+		breaker.check();
+		assertFalse(breaker.isOpen());
+
+		breaker.record(false);
+
+		assertTrue(breaker.isOpen());
+		assertRejected(breaker);
+	}
+
+	public void testSuccessResetsTheCount() throws IOException
+	{
+		CircuitBreaker breaker = new CircuitBreaker("http://host", 2, 60000);
+		breaker.record(false);
+		breaker.record(true);
+		breaker.record(false);
+
+		assertFalse(breaker.isOpen());
+		breaker.check();
+	}
+
+	public void testLetsOneTrialThroughOnceTheOpenTimeElapsed() throws Exception
+	{
+		CircuitBreaker breaker = new CircuitBreaker("http://host", 1, 50);
+		breaker.record(false);
+		assertRejected(breaker);
+		Thread.sleep(100);
+
+		breaker.check();
+		// a second call waits for the outcome of the trial
+		assertRejected(breaker);
+		assertTrue(breaker.isOpen());
+
+		breaker.record(true);
+		assertFalse(breaker.isOpen());
+		breaker.check();
+	}
+
+	public void testFailedTrialOpensAgain() throws Exception
+	{
+		CircuitBreaker breaker = new CircuitBreaker("http://host", 1, 50);
+		breaker.record(false);
+		Thread.sleep(100);
+		breaker.check();
+
+		breaker.record(false);
+
+		assertTrue(breaker.isOpen());
+		assertRejected(breaker);
+	}
+
+	public void testSharedBreakerIsPerHostAndDisabledWithoutThreshold()
+	{
+		CrxTarget target = new CrxTarget("http://breaker-test:4502/crx", "admin", "admin", "crx.default");
+		CircuitBreaker breaker = CircuitBreaker.getShared(target, 5, 1000);
+
+		assertSame(breaker, CircuitBreaker.getShared(
+				new CrxTarget("http://breaker-test:4502/crx", "other", "other", "crx.default"), 5, 1000));
+		assertNotSame(breaker, CircuitBreaker.getShared(
+				new CrxTarget("http://breaker-test:4503/crx", "admin", "admin", "crx.default"), 5, 1000));
+		assertNull(CircuitBreaker.getShared(target, 0, 1000));
+	}
+
+	private static void assertRejected(CircuitBreaker breaker)
+	{
+		try
+		{
+			breaker.check();
+			fail("call let through an open breaker");
+		}
+		catch (IOException e)
+		{
+			assertTrue(e.getMessage().contains("http://host"));
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class DeltaPackageTest extends TestCase
+{
+	private static final String FILTER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<workspaceFilter version=\"1.0\">\n"
+			+ "  <filter root=\"/apps/site\"/>\n"
+			+ "  <filter root=\"/content/site\"/>\n"
+			+ "  <filter root=\"/etc/designs/site\"/>\n"
+			+ "</workspaceFilter>\n";
+
+	private File folder;
+
+	protected void setUp() throws Exception
+	{
+		folder = File.createTempFile("delta", "");
+		folder.delete();
+		folder.mkdirs();
+	}
+
+	protected void tearDown() throws Exception
+	{
+		FileUtils.deleteDirectory(folder);
+	}
+
+	public void testUnchangedPackageHasNoChangedRoots() throws IOException
+	{
+		DeltaPackage delta = new DeltaPackage(write("base", entries()), write("current", entries()), log());
+
+		assertTrue(delta.compare(Collections.<String>emptyList()));
+		assertTrue(delta.getChangedRoots().isEmpty());
+	}
+
+	public void testModifiedEntryChangesItsRoot() throws IOException
+	{
+		Map<String, String> current = entries();
+		current.put("jcr_root/content/site/en/.content.xml", "<changed/>");
+		DeltaPackage delta = new DeltaPackage(write("base", entries()), write("current", current), log());
+
+		assertTrue(delta.compare(Collections.<String>emptyList()));
+		assertEquals(Arrays.asList("/content/site"), delta.getChangedRoots());
+	}
+
+	public void testRemovedEntryChangesItsRoot() throws IOException
+	{
+		Map<String, String> current = entries();
+		current.remove("jcr_root/apps/site/components/page.jsp");
+		DeltaPackage delta = new DeltaPackage(write("base", entries()), write("current", current), log());
+
+		assertTrue(delta.compare(Collections.<String>emptyList()));
+		assertEquals(Arrays.asList("/apps/site"), delta.getChangedRoots());
+	}
+
+	public void testEscapedNodeNamesMapToTheirRoot() throws IOException
+	{
+		Map<String, String> current = entries();
+		current.put("jcr_root/etc/designs/site/_jcr_content/.content.xml", "<changed/>");
+		DeltaPackage delta = new DeltaPackage(write("base", entries()), write("current", current), log());
+
+		assertTrue(delta.compare(Collections.<String>emptyList()));
+		assertEquals(Arrays.asList("/etc/designs/site"), delta.getChangedRoots());
+	}
+
+	public void testTouchedPathsAreReinstalled() throws IOException
+	{
+		DeltaPackage delta = new DeltaPackage(write("base", entries()), write("current", entries()), log());
+
+		assertTrue(delta.compare(Arrays.asList("/content/site/en")));
+		assertEquals(Arrays.asList("/content/site"), delta.getChangedRoots());
+	}
+
+	public void testChangedFilterDefinitionChangesItsRoot() throws IOException
+	{
+		Map<String, String> current = entries();
+		current.put("META-INF/vault/filter.xml", FILTER.replace("<filter root=\"/apps/site\"/>",
+				"<filter root=\"/apps/site\"><exclude pattern=\"/apps/site/install\"/></filter>"));
+		DeltaPackage delta = new DeltaPackage(write("base", entries()), write("current", current), log());
+
+		assertTrue(delta.compare(Collections.<String>emptyList()));
+		assertEquals(Arrays.asList("/apps/site"), delta.getChangedRoots());
+	}
+
+	public void testChangedDefinitionNeedsFullPackage() throws IOException
+	{
+		Map<String, String> current = entries();
+		current.put("META-INF/vault/config.xml", "<vaultfs version=\"1.1\"/>");
+
+		assertFalse(new DeltaPackage(write("base", entries()), write("current", current), log()).compare(
+				Collections.<String>emptyList()));
+	}
+
+	public void testChangeOutsideFilterRootsNeedsFullPackage() throws IOException
+	{
+		Map<String, String> current = entries();
+		current.put("jcr_root/var/other/.content.xml", "<other/>");
+
+		assertFalse(new DeltaPackage(write("base", entries()), write("current", current), log()).compare(
+				Collections.<String>emptyList()));
+	}
+
+	public void testEveryRootChangedNeedsFullPackage() throws IOException
+	{
+		Map<String, String> current = entries();
+		current.put("jcr_root/apps/site/components/page.jsp", "changed");
+		current.put("jcr_root/content/site/en/.content.xml", "<changed/>");
+		current.put("jcr_root/etc/designs/site/.content.xml", "<changed/>");
+
+		assertFalse(new DeltaPackage(write("base", entries()), write("current", current), log()).compare(
+				Collections.<String>emptyList()));
+	}
+
+	public void testDeltaHoldsChangedRootsOnly() throws Exception
+	{
+		Map<String, String> current = entries();
+		current.put("jcr_root/content/site/en/.content.xml", "<changed/>");
+		DeltaPackage delta = new DeltaPackage(write("base", entries()), write("current", current), log());
+		assertTrue(delta.compare(Collections.<String>emptyList()));
+		File file = new File(folder, "mypackage-delta.zip");
+
+		delta.write(file);
+
+		ZipFile zip = new ZipFile(file);
+		try
+		{
+			List<String> names = new ArrayList<String>();
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements())
+			{
+				names.add(entries.nextElement().getName());
+			}
+			assertTrue(names.contains("jcr_root/content/site/en/.content.xml"));
+			assertTrue(names.contains("jcr_root/content/.content.xml"));
+			assertFalse(names.contains("jcr_root/apps/site/components/page.jsp"));
+			assertFalse(names.contains("jcr_root/etc/designs/site/.content.xml"));
+
+			String filter = read(zip, "META-INF/vault/filter.xml");
+			assertTrue(filter.contains("/content/site"));
+			assertFalse(filter.contains("/apps/site"));
+			assertFalse(filter.contains("/etc/designs/site"));
+
+			Properties properties = new Properties();
+			InputStream input = zip.getInputStream(zip.getEntry("META-INF/vault/properties.xml"));
+			try
+			{
+				properties.loadFromXML(input);
+			}
+			finally
+			{
+				IOUtils.closeQuietly(input);
+			}
+			assertEquals("mypackage-delta", properties.getProperty("name"));
+		}
+		finally
+		{
+			zip.close();
+		}
+	}
+
+	private static Map<String, String> entries()
+	{
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		entries.put("META-INF/vault/filter.xml", FILTER);
+		entries.put("META-INF/vault/properties.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n"
+				+ "<properties><entry key=\"name\">mypackage</entry></properties>\n");
+		entries.put("jcr_root/content/.content.xml", "<content/>");
+		entries.put("jcr_root/apps/site/components/page.jsp", "page");
+		entries.put("jcr_root/content/site/en/.content.xml", "<en/>");
+		entries.put("jcr_root/etc/designs/site/.content.xml", "<design/>");
+		entries.put("jcr_root/etc/designs/site/_jcr_content/.content.xml", "<design-content/>");
+		return entries;
+	}
+
+	private File write(String name, Map<String, String> entries) throws IOException
+	{
+		File file = new File(folder, name + ".zip");
+		ZipOutputStream output = new ZipOutputStream(FileUtils.openOutputStream(file));
+		try
+		{
+			for (Map.Entry<String, String> entry : entries.entrySet())
+			{
+				output.putNextEntry(new ZipEntry(entry.getKey()));
+				output.write(entry.getValue().getBytes("UTF-8"));
+				output.closeEntry();
+			}
+		}
+		finally
+		{
+			output.close();
+		}
+		return file;
+	}
+
+	private static String read(ZipFile zip, String name) throws IOException
+	{
+		InputStream input = zip.getInputStream(zip.getEntry(name));
+		try
+		{
+			return IOUtils.toString(input, "UTF-8");
+		}
+		finally
+		{
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	private static SystemStreamLog log()
+	{
+		return new SystemStreamLog();
+	}
+}
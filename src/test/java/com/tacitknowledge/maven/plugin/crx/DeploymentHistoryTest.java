@@ -0,0 +1,199 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class DeploymentHistoryTest extends TestCase
+{
+	private File folder;
+
+	protected void setUp() throws Exception
+	{
+		folder = File.createTempFile("history", "");
+		folder.delete();
+		folder.mkdirs();
+	}
+
+	protected void tearDown() throws Exception
+	{
+		FileUtils.deleteDirectory(folder);
+	}
+
+	public void testMedian()
+	{
+		assertEquals(3, DeploymentHistoryPlugin.median(Arrays.asList(5L, 1L, 3L)));
+		assertEquals(3, DeploymentHistoryPlugin.median(Arrays.asList(4L, 1L, 2L, 9L)));
+		assertEquals(7, DeploymentHistoryPlugin.median(Collections.singletonList(7L)));
+	}
+
+	public void testRecordsOneLinePerHostWithSummedPhases() throws IOException
+	{
+		DeploymentMetrics metrics = new DeploymentMetrics();
+		metrics.recordPhase("backup", 100, 0, 0);
+		metrics.recordPhase("upload", 300, 0, 0);
+		metrics.recordPhase("backup", 200, 0, 0);
+		CrxTarget target = new CrxTarget("http://author:4502/crx", "admin", "admin", "crx.default");
+		Map<File, String> packages = new LinkedHashMap<File, String>();
+		packages.put(new File(folder, "mypackage.zip"), "abc");
+		DeploymentHistory history = new DeploymentHistory(folder);
+
+		history.record(packages, Collections.singletonList(new DeploymentResult(target, 700, null, metrics)));
+		history.record(packages, Collections.singletonList(new DeploymentResult(target, 800,
+				new Exception("install failed"), metrics, Collections.singletonMap("mypackage.zip",
+						DeploymentResult.MODE_DELTA))));
+
+		assertEquals(Collections.singletonList(target.getId()), history.getHostIds());
+		List<JSONObject> records = history.read(target.getId(), new SystemStreamLog());
+		assertEquals(2, records.size());
+		assertTrue(records.get(0).getBoolean("success"));
+		assertEquals(300, records.get(0).getJSONObject("phases").getLong("backup"));
+		assertEquals("abc", records.get(0).getJSONArray("packages").getJSONObject(0).getString("sha256"));
+		assertEquals("full", records.get(0).getJSONArray("packages").getJSONObject(0).getString("mode"));
+		assertEquals("install failed", records.get(1).getString("error"));
+		assertEquals("delta", records.get(1).getJSONArray("packages").getJSONObject(0).getString("mode"));
+	}
+
+	public void testSkipsTruncatedLine() throws IOException
+	{
+		FileUtils.writeStringToFile(new File(folder, "host.jsonl"), record(true, 100, "a.zip").toString()
+				+ "\n{\"timestamp\":12\n", "UTF-8");
+
+		assertEquals(1, new DeploymentHistory(folder).read("host", new SystemStreamLog()).size());
+	}
+
+	public void testFlagsPhaseSlowerThanTheMedian()
+	{
+		List<JSONObject> records = new ArrayList<JSONObject>();
+		records.add(record(true, 10000, "a.zip"));
+		records.add(record(true, 12000, "a.zip"));
+		records.add(record(true, 11000, "a.zip"));
+		records.add(record(true, 30000, "a.zip"));
+		records.add(record(true, 20000, "a.zip"));
+		DeploymentHistoryPlugin plugin = new DeploymentHistoryPlugin();
+
+		assertTrue(plugin.findRegressions(records, 2).isEmpty());
+		List<String> regressions = plugin.findRegressions(records, 3);
+		assertEquals(1, regressions.size());
+		assertTrue(regressions.get(0), regressions.get(0).startsWith("upload took 30000 ms"));
+		// median of 10000, 12000, 11000 and 30000
+		assertTrue(plugin.findRegressions(records, 4).isEmpty());
+	}
+
+	public void testNeedsEnoughSuccessfulSamples()
+	{
+		List<JSONObject> records = new ArrayList<JSONObject>();
+		records.add(record(true, 1000, "a.zip"));
+		records.add(record(false, 1000, "a.zip"));
+		records.add(record(true, 1000, "a.zip"));
+		records.add(record(true, 50000, "a.zip"));
+
+		assertTrue(new DeploymentHistoryPlugin().findRegressions(records, 3).isEmpty());
+	}
+
+	public void testNeverFlagsAFailedDeployment()
+	{
+		List<JSONObject> records = new ArrayList<JSONObject>();
+		for (int i = 0; i < 3; i++)
+		{
+			records.add(record(true, 1000, "a.zip"));
+		}
+		records.add(record(false, 50000, "a.zip"));
+		records.add(record(true, 1100, "a.zip"));
+		DeploymentHistoryPlugin plugin = new DeploymentHistoryPlugin();
+
+		assertTrue(plugin.findRegressions(records, 3).isEmpty());
+		// nor is it part of the median
+		assertTrue(plugin.findRegressions(records, 4).isEmpty());
+	}
+
+	public void testIgnoresShortPhases()
+	{
+		List<JSONObject> records = new ArrayList<JSONObject>();
+		for (int i = 0; i < 3; i++)
+		{
+			records.add(record(true, 10, "a.zip"));
+		}
+		records.add(record(true, 900, "a.zip"));
+
+		assertTrue(new DeploymentHistoryPlugin().findRegressions(records, 3).isEmpty());
+	}
+
+	public void testGroupsByPackageSet()
+	{
+		List<JSONObject> records = new ArrayList<JSONObject>();
+		records.add(record(true, 1000, "a.zip"));
+		records.add(record(true, 9000, "b.zip", "a.zip"));
+		records.add(record(true, 1100, "a.zip"));
+		records.add(record(true, 9100, "a.zip", "b.zip"));
+
+		Map<String, List<JSONObject>> groups = DeploymentHistoryPlugin.groupByPackages(records);
+
+		assertEquals(Arrays.asList("a.zip:full", "a.zip:full,b.zip:full"), new ArrayList<String>(groups.keySet()));
+		assertEquals(Arrays.asList(records.get(0), records.get(2)), groups.get("a.zip:full"));
+		assertEquals(Arrays.asList(records.get(1), records.get(3)), groups.get("a.zip:full,b.zip:full"));
+	}
+
+	public void testGroupsByMode()
+	{
+		List<JSONObject> records = new ArrayList<JSONObject>();
+		records.add(record(true, 9000, "a.zip"));
+		records.add(record(true, 1000, "a.zip"));
+		records.get(1).getJSONArray("packages").getJSONObject(0).put("mode", "delta");
+		records.add(record(true, 9100, "a.zip"));
+		records.get(2).getJSONArray("packages").getJSONObject(0).put("mode", "full");
+
+		Map<String, List<JSONObject>> groups = DeploymentHistoryPlugin.groupByPackages(records);
+
+		// a record without a mode is a full deployment
+		assertEquals(Arrays.asList(records.get(0), records.get(2)), groups.get("a.zip:full"));
+		assertEquals(Collections.singletonList(records.get(1)), groups.get("a.zip:delta"));
+	}
+
+	private static JSONObject record(boolean success, long uploadMillis, String... packageNames)
+	{
+		JSONObject record = new JSONObject();
+		record.put("timestamp", System.currentTimeMillis());
+		record.put("success", success);
+		JSONArray packages = new JSONArray();
+		for (String name : packageNames)
+		{
+			JSONObject info = new JSONObject();
+			info.put("name", name);
+			packages.add(info);
+		}
+		record.put("packages", packages);
+		JSONObject phases = new JSONObject();
+		phases.put("upload", uploadMillis);
+		record.put("phases", phases);
+		return record;
+	}
+}
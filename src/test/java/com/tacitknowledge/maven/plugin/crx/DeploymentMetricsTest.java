@@ -0,0 +1,74 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import net.sf.json.JSONObject;
+
+public class DeploymentMetricsTest extends TestCase
+{
+	private final DeploymentMetrics metrics = new DeploymentMetrics();
+
+	public void testCallsBelongToTheCurrentPhase()
+	{
+		metrics.startPhase("upload");
+		metrics.recordCall("POST", "/crx/packmgr/service.jsp", 200, 10, 100, 0, 0);
+		metrics.addRetry();
+		metrics.endPhase(100);
+		metrics.recordCall("GET", "/crx/index.jsp", 200, 1, 0, 10, 0);
+
+		List<JSONObject> calls = metrics.getCalls();
+		assertEquals("upload", calls.get(0).getString("phase"));
+		assertEquals("none", calls.get(1).getString("phase"));
+		assertEquals(1, metrics.getPhases().get(0).getInt("retries"));
+	}
+
+	public void testThreadPhaseKeepsItsCallsAndRetries() throws InterruptedException
+	{
+		metrics.startPhase("upload");
+		Thread backup = new Thread()
+		{
+			public void run()
+			{
+				metrics.startThreadPhase("backup");
+				metrics.recordCall("GET", "/etc/packages/site.zip", 200, 10, 0, 500, 0);
+				metrics.addRetry();
+				metrics.recordCall("GET", "/etc/packages/site.zip", 200, 10, 0, 500, 1);
+				metrics.endThreadPhase(500);
+			}
+		};
+		backup.start();
+		backup.join();
+		metrics.recordCall("POST", "/crx/packmgr/service.jsp", 200, 10, 100, 0, 0);
+		metrics.endPhase(100);
+
+		List<JSONObject> calls = metrics.getCalls();
+		assertEquals("backup", calls.get(0).getString("phase"));
+		assertEquals("backup", calls.get(1).getString("phase"));
+		assertEquals("upload", calls.get(2).getString("phase"));
+
+		List<JSONObject> phases = metrics.getPhases();
+		assertEquals("backup", phases.get(0).getString("name"));
+		assertEquals(500, phases.get(0).getLong("bytes"));
+		assertEquals(1, phases.get(0).getInt("retries"));
+		assertEquals("upload", phases.get(1).getString("name"));
+		assertEquals(0, phases.get(1).getInt("retries"));
+	}
+}
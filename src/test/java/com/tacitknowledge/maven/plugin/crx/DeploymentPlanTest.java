@@ -0,0 +1,158 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class DeploymentPlanTest extends TestCase
+{
+	public void testIndependentPackagesShareOneLevel()
+	{
+		List<List<PlannedPackage>> levels = DeploymentPlan.getLevels(Arrays.asList(
+				planned("g:a", 0), planned("g:b", 1), planned("g:c", 2)));
+
+		assertEquals(1, levels.size());
+		assertEquals("[g:a, g:b, g:c]", levels.get(0).toString());
+	}
+
+	public void testDependenciesComeInLaterLevels()
+	{
+		List<List<PlannedPackage>> levels = DeploymentPlan.getLevels(Arrays.asList(
+				planned("g:core", 0),
+				planned("g:apps", 1, "g:core"),
+				planned("g:config", 2),
+				planned("g:content", 3, "g:apps", "g:config")));
+
+		assertEquals("[[g:core, g:config], [g:apps], [g:content]]", levels.toString());
+	}
+
+	public void testDependenciesOutsideThePlanAreIgnored()
+	{
+		List<List<PlannedPackage>> levels = DeploymentPlan.getLevels(Arrays.asList(
+				planned("g:a", 0, "commons-io:commons-io"), planned("g:b", 1, "g:a")));
+
+		assertEquals("[[g:a], [g:b]]", levels.toString());
+	}
+
+	public void testCycleStillPlacesEveryPackageOnce()
+	{
+		List<List<PlannedPackage>> levels = DeploymentPlan.getLevels(Arrays.asList(
+				planned("g:a", 0, "g:b"), planned("g:b", 1, "g:a")));
+
+		// only dependencies earlier in the build order count
+		assertEquals("[[g:a], [g:b]]", levels.toString());
+	}
+
+	public void testDrainSortsByBuildOrder()
+	{
+		DeploymentPlan plan = DeploymentPlan.getShared(new Object());
+		plan.add(planned("g:c", 2));
+		plan.add(planned("g:a", 0));
+		plan.add(planned("g:b", 1));
+
+		assertEquals("[g:a, g:b, g:c]", plan.drain("g:c").toString());
+	}
+
+	public void testRegistrationAfterDrainIsRefused()
+	{
+		DeploymentPlan plan = DeploymentPlan.getShared(new Object());
+		plan.add(planned("g:a", 0));
+		plan.drain("g:b");
+		try
+		{
+			plan.add(planned("g:c", 2));
+			fail("registered after the drain");
+		}
+		catch (IllegalStateException e)
+		{
+			assertTrue(e.getMessage().contains("g:b"));
+		}
+	}
+
+	public void testNewBuildGetsNewPlan()
+	{
+		Object build = new Object();
+		DeploymentPlan plan = DeploymentPlan.getShared(build);
+		assertSame(plan, DeploymentPlan.getShared(build));
+		assertNotSame(plan, DeploymentPlan.getShared(new Object()));
+	}
+
+	public void testAwaitReturnsWhenEveryModuleArrived() throws Exception
+	{
+		final DeploymentPlan plan = DeploymentPlan.getShared(new Object());
+		plan.expect(Arrays.asList("g:a", "g:b", "g:c"));
+		plan.add(planned("g:c", 2));
+		Thread late = new Thread()
+		{
+			public void run()
+			{
+				try
+				{
+					Thread.sleep(200);
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+				plan.add(planned("g:a", 0));
+				plan.arrive("g:b");
+			}
+		};
+		late.start();
+
+		long start = System.currentTimeMillis();
+		assertTrue(plan.awaitModules(10000, new SystemStreamLog()).isEmpty());
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertEquals("[g:a, g:c]", plan.drain("g:c").toString());
+		late.join();
+	}
+
+	public void testAwaitReportsMissingModules() throws Exception
+	{
+		DeploymentPlan plan = DeploymentPlan.getShared(new Object());
+		plan.expect(Arrays.asList("g:a", "g:b"));
+		plan.arrive("g:b");
+
+		assertEquals(Collections.singleton("g:a"), plan.awaitModules(100, new SystemStreamLog()));
+	}
+
+	public void testAwaitStopsOnFailure() throws Exception
+	{
+		DeploymentPlan plan = DeploymentPlan.getShared(new Object());
+		plan.expect(Arrays.asList("g:a", "g:b"));
+		plan.fail("g:a", "broken package");
+
+		long start = System.currentTimeMillis();
+		plan.awaitModules(10000, new SystemStreamLog());
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertEquals("broken package", plan.getFailures().get("g:a"));
+	}
+
+	private static PlannedPackage planned(String id, int order, String... dependencies)
+	{
+		Set<String> set = new HashSet<String>(Arrays.asList(dependencies));
+		return new PlannedPackage(id, order, set, new DeploymentOptions());
+	}
+}
@@ -0,0 +1,167 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class HostCoordinatorTest extends TestCase
+{
+	private static final long WAIT = 200;
+
+	private static final CrxTarget AUTHOR = new CrxTarget("http://author:4502/crx", "admin", "admin", "crx.default");
+
+	private final HostCoordinator coordinator = new HostCoordinator();
+
+	private ExecutorService executor;
+
+	protected void setUp() throws Exception
+	{
+		executor = Executors.newCachedThreadPool();
+	}
+
+	protected void tearDown() throws Exception
+	{
+		executor.shutdownNow();
+	}
+
+	public void testTransfersAreLimited() throws Exception
+	{
+		HostCoordinator.Slot first = coordinator.acquireTransfer(AUTHOR, 2, new SystemStreamLog());
+		HostCoordinator.Slot second = coordinator.acquireTransfer(AUTHOR, 2, new SystemStreamLog());
+		Future<HostCoordinator.Slot> third = acquireTransfer(AUTHOR, 2);
+
+		assertBlocked(third);
+		first.release();
+		third.get(WAIT, TimeUnit.MILLISECONDS).release();
+		second.release();
+	}
+
+	public void testFirstCallerSetsTheLimit() throws Exception
+	{
+		HostCoordinator.Slot first = coordinator.acquireTransfer(AUTHOR, 1, new SystemStreamLog());
+		// a later execution asking for more slots gets the first limit
+		Future<HostCoordinator.Slot> second = acquireTransfer(AUTHOR, 4);
+
+		assertBlocked(second);
+		first.release();
+		second.get(WAIT, TimeUnit.MILLISECONDS).release();
+	}
+
+	public void testLimitLeftUnsetIsSetByTheFirstCallerGivingOne() throws Exception
+	{
+		// the login creates the host without any write limit
+		coordinator.acquireLogin(AUTHOR, new SystemStreamLog()).release();
+		HostCoordinator.Slot first = coordinator.acquireWrite(AUTHOR, 1, "install", new SystemStreamLog());
+		Future<HostCoordinator.Slot> second = acquireWrite(AUTHOR, 3);
+
+		assertBlocked(second);
+		first.release();
+		second.get(WAIT, TimeUnit.MILLISECONDS).release();
+	}
+
+	public void testZeroMeansNoLimit() throws Exception
+	{
+		for (int i = 0; i < 10; i++)
+		{
+			coordinator.acquireTransfer(AUTHOR, 0, new SystemStreamLog());
+			coordinator.acquireWrite(AUTHOR, 0, "install", new SystemStreamLog());
+		}
+	}
+
+	public void testHostsHaveTheirOwnSlots() throws Exception
+	{
+		CrxTarget sameHost = new CrxTarget("http://author:4502/other", "other", "other", "crx.default");
+		CrxTarget otherHost = new CrxTarget("http://publish:4503/crx", "admin", "admin", "crx.default");
+		HostCoordinator.Slot first = coordinator.acquireWrite(AUTHOR, 1, "install", new SystemStreamLog());
+
+		// the slots belong to the host, whatever the application path and user
+		assertBlocked(acquireWrite(sameHost, 1));
+		coordinator.acquireWrite(otherHost, 1, "install", new SystemStreamLog()).release();
+		first.release();
+	}
+
+	public void testLoginSlotIsExclusive() throws Exception
+	{
+		HostCoordinator.Slot first = coordinator.acquireLogin(AUTHOR, new SystemStreamLog());
+		Future<HostCoordinator.Slot> second = executor.submit(new Callable<HostCoordinator.Slot>()
+		{
+			public HostCoordinator.Slot call() throws Exception
+			{
+				return coordinator.acquireLogin(AUTHOR, new SystemStreamLog());
+			}
+		});
+
+		assertBlocked(second);
+		first.release();
+		second.get(WAIT, TimeUnit.MILLISECONDS).release();
+	}
+
+	public void testSlotIsReleasedOnce() throws Exception
+	{
+		HostCoordinator.Slot first = coordinator.acquireTransfer(AUTHOR, 1, new SystemStreamLog());
+		first.release();
+		first.release();
+
+		HostCoordinator.Slot second = coordinator.acquireTransfer(AUTHOR, 1, new SystemStreamLog());
+		assertBlocked(acquireTransfer(AUTHOR, 1));
+		second.release();
+	}
+
+	private Future<HostCoordinator.Slot> acquireTransfer(final CrxTarget target, final int transfers)
+	{
+		return executor.submit(new Callable<HostCoordinator.Slot>()
+		{
+			public HostCoordinator.Slot call() throws Exception
+			{
+				return coordinator.acquireTransfer(target, transfers, new SystemStreamLog());
+			}
+		});
+	}
+
+	private Future<HostCoordinator.Slot> acquireWrite(final CrxTarget target, final int writes)
+	{
+		return executor.submit(new Callable<HostCoordinator.Slot>()
+		{
+			public HostCoordinator.Slot call() throws Exception
+			{
+				return coordinator.acquireWrite(target, writes, "install", new SystemStreamLog());
+			}
+		});
+	}
+
+	private static void assertBlocked(Future<HostCoordinator.Slot> slot) throws Exception
+	{
+		try
+		{
+			slot.get(WAIT, TimeUnit.MILLISECONDS);
+			fail("the slot was granted");
+		}
+		catch (TimeoutException e)
+		{
+			// still waiting
+		}
+	}
+}
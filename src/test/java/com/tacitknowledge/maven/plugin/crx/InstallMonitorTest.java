@@ -0,0 +1,179 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class InstallMonitorTest extends TestCase
+{
+	private HttpServer server;
+
+	private String url;
+
+	private volatile long lineDelay;
+
+	protected void setUp() throws Exception
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler()
+		{
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				IOUtils.toByteArray(exchange.getRequestBody());
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream output = exchange.getResponseBody();
+				try
+				{
+					for (int i = 0; i < 50; i++)
+					{
+						output.write(("A /content/node" + i + "\n").getBytes("UTF-8"));
+						output.flush();
+						Thread.sleep(lineDelay);
+					}
+					output.write("Package installed in 12ms.\n".getBytes("UTF-8"));
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				catch (IOException e)
+				{
+					// the client aborted
+				}
+				finally
+				{
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/crx/packmgr/unpack.jsp";
+	}
+
+	protected void tearDown() throws Exception
+	{
+		server.stop(0);
+	}
+
+	public void testDeadlineAbortsTheRequest() throws InterruptedException
+	{
+		final CountDownLatch aborted = new CountDownLatch(1);
+		GetMethod method = new GetMethod(url)
+		{
+			public void abort()
+			{
+				aborted.countDown();
+			}
+		};
+		InstallMonitor monitor = new InstallMonitor(new SystemStreamLog(), 1000, 500);
+		monitor.start(method);
+		try
+		{
+			// the deadline is checked with the progress, every second at most
+			assertTrue(aborted.await(5, TimeUnit.SECONDS));
+			assertTrue(monitor.isTimedOut());
+		}
+		finally
+		{
+			monitor.stop();
+		}
+	}
+
+	public void testNoDeadlineWithoutTimeout() throws InterruptedException
+	{
+		final CountDownLatch aborted = new CountDownLatch(1);
+		GetMethod method = new GetMethod(url)
+		{
+			public void abort()
+			{
+				aborted.countDown();
+			}
+		};
+		InstallMonitor monitor = new InstallMonitor(new SystemStreamLog(), 1000, 0);
+		monitor.start(method);
+		try
+		{
+			assertFalse(aborted.await(2500, TimeUnit.MILLISECONDS));
+			assertFalse(monitor.isTimedOut());
+		}
+		finally
+		{
+			monitor.stop();
+		}
+	}
+
+	public void testFollowFailsOnceTheDeadlineAborts() throws IOException
+	{
+		lineDelay = 100;
+		GetMethod method = new GetMethod(url);
+		InstallMonitor monitor = new InstallMonitor(new SystemStreamLog(), 1000, 500);
+		long start = System.currentTimeMillis();
+		monitor.start(method);
+		try
+		{
+			assertEquals(200, new HttpClient().executeMethod(method));
+			monitor.follow(method, "Package installed in");
+			fail("the install log was read past the deadline");
+		}
+		catch (MojoExecutionException e)
+		{
+			assertEquals(monitor.timeoutError().getMessage(), e.getMessage());
+			// well before the 5 s the whole log takes
+			assertTrue(System.currentTimeMillis() - start < 4000);
+		}
+		finally
+		{
+			monitor.stop();
+			method.releaseConnection();
+		}
+	}
+
+	public void testFollowReadsTheWholeLog() throws IOException, MojoExecutionException
+	{
+		GetMethod method = new GetMethod(url);
+		InstallMonitor monitor = new InstallMonitor(new SystemStreamLog(), 1000, 5000);
+		monitor.start(method);
+		try
+		{
+			assertEquals(200, new HttpClient().executeMethod(method));
+			ResponseScanner scanner = monitor.follow(method, "Package installed in");
+			assertTrue(scanner.isMarkerFound());
+			assertFalse(monitor.isTimedOut());
+		}
+		finally
+		{
+			monitor.stop();
+			method.releaseConnection();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import junit.framework.TestCase;
+
+public class NodeDefinitionCacheTest extends TestCase
+{
+	private static final CrxTarget AUTHOR = new CrxTarget("http://author:4502/crx", "admin", "admin", "crx.default");
+
+	private static final CrxTarget PUBLISH = new CrxTarget("http://publish:4503/crx", "admin", "admin", "crx.default");
+
+	private final NodeDefinitionCache cache = new NodeDefinitionCache();
+
+	public void testFlagIsKeyedByHostAndPath()
+	{
+		cache.setVersionable(AUTHOR, "/content/site", true);
+
+		assertEquals(Boolean.TRUE, cache.isVersionable(AUTHOR, "/content/site"));
+		assertNull(cache.isVersionable(PUBLISH, "/content/site"));
+		assertNull(cache.isVersionable(AUTHOR, "/content/site/en"));
+	}
+
+	public void testFlagSurvivesTheRemoval()
+	{
+		cache.setVersionable(AUTHOR, "/apps/site", false);
+		cache.setRemoved(AUTHOR, "/apps/site");
+		cache.clearRemoved(AUTHOR);
+
+		assertEquals(Boolean.FALSE, cache.isVersionable(AUTHOR, "/apps/site"));
+	}
+
+	public void testRemovalCoversTheSubtree()
+	{
+		cache.setRemoved(AUTHOR, "/apps/site");
+
+		assertTrue(cache.isRemoved(AUTHOR, "/apps/site"));
+		assertTrue(cache.isRemoved(AUTHOR, "/apps/site/components"));
+		assertFalse(cache.isRemoved(AUTHOR, "/apps/site2"));
+		assertFalse(cache.isRemoved(AUTHOR, "/apps"));
+		assertFalse(cache.isRemoved(PUBLISH, "/apps/site"));
+	}
+
+	public void testInstallForgetsTheRemovalsOfItsHost()
+	{
+		cache.setRemoved(AUTHOR, "/apps/site");
+		cache.setRemoved(PUBLISH, "/apps/site");
+		cache.clearRemoved(AUTHOR);
+
+		assertFalse(cache.isRemoved(AUTHOR, "/apps/site"));
+		assertTrue(cache.isRemoved(PUBLISH, "/apps/site"));
+	}
+}
@@ -0,0 +1,186 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class PackageValidatorTest extends TestCase
+{
+	private static final String FILTER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<workspaceFilter version=\"1.0\">\n" + "  <filter root=\"/apps/site\"/>\n"
+			+ "  <filter root=\"/etc/designs/site\"/>\n" + "</workspaceFilter>\n";
+
+	private static final String PROPERTIES = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n" + "<properties>\n"
+			+ "  <entry key=\"name\">site</entry>\n" + "</properties>\n";
+
+	private File file;
+
+	protected void setUp() throws Exception
+	{
+		file = File.createTempFile("package", ".zip");
+	}
+
+	protected void tearDown() throws Exception
+	{
+		file.delete();
+	}
+
+	public void testValidPackage() throws Exception
+	{
+		writePackage(entries(FILTER, PROPERTIES));
+
+		PackageValidator validator = new PackageValidator(file, new SystemStreamLog());
+		validator.validate("/apps/site/components;/etc/designs/site");
+
+		assertEquals(5, validator.getEntryCount());
+		assertEquals(3, validator.getContentEntryCount());
+		assertEquals(Arrays.asList("/apps/site", "/etc/designs/site"), validator.getFilterRoots());
+		assertTrue(validator.getContentSize() > 0);
+	}
+
+	public void testMissingFile()
+	{
+		file.delete();
+		assertInvalid("does not exist");
+	}
+
+	public void testTruncatedZip() throws Exception
+	{
+		writePackage(entries(FILTER, PROPERTIES));
+		// the central directory is at the end of the file
+		RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+		try
+		{
+			truncated.setLength(truncated.length() / 2);
+		}
+		finally
+		{
+			truncated.close();
+		}
+		assertInvalid("is not a complete zip file");
+	}
+
+	public void testNotAZip() throws Exception
+	{
+		FileOutputStream output = new FileOutputStream(file);
+		try
+		{
+			output.write("not a zip".getBytes("UTF-8"));
+		}
+		finally
+		{
+			output.close();
+		}
+		assertInvalid("is not a complete zip file");
+	}
+
+	public void testMissingProperties() throws Exception
+	{
+		Map<String, String> entries = entries(FILTER, PROPERTIES);
+		entries.remove("META-INF/vault/properties.xml");
+		writePackage(entries);
+		assertInvalid("has no META-INF/vault/properties.xml");
+	}
+
+	public void testMalformedProperties() throws Exception
+	{
+		writePackage(entries(FILTER, "<properties>"));
+		assertInvalid("Cannot parse META-INF/vault/properties.xml");
+	}
+
+	public void testMissingFilter() throws Exception
+	{
+		Map<String, String> entries = entries(FILTER, PROPERTIES);
+		entries.remove("META-INF/vault/filter.xml");
+		writePackage(entries);
+		assertInvalid("has no META-INF/vault/filter.xml");
+	}
+
+	public void testMalformedFilter() throws Exception
+	{
+		writePackage(entries("<workspaceFilter><filter root=\"/apps\"></workspaceFilter>", PROPERTIES));
+		assertInvalid("Cannot parse META-INF/vault/filter.xml");
+	}
+
+	public void testFilterWithoutFilters() throws Exception
+	{
+		writePackage(entries("<workspaceFilter version=\"1.0\"/>", PROPERTIES));
+		assertInvalid("defines no filter");
+	}
+
+	public void testFilterWithARelativeRoot() throws Exception
+	{
+		writePackage(entries("<workspaceFilter><filter root=\"apps/site\"/></workspaceFilter>", PROPERTIES));
+		assertInvalid("has a filter without an absolute root: apps/site");
+	}
+
+	private void assertInvalid(String message)
+	{
+		try
+		{
+			new PackageValidator(file, new SystemStreamLog()).validate(null);
+			fail("the package was accepted");
+		}
+		catch (MojoExecutionException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains(message));
+		}
+	}
+
+	private static Map<String, String> entries(String filter, String properties)
+	{
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		entries.put("META-INF/vault/filter.xml", filter);
+		entries.put("META-INF/vault/properties.xml", properties);
+		entries.put("jcr_root/apps/site/.content.xml", "<jcr:root jcr:primaryType=\"sling:Folder\"/>");
+		entries.put("jcr_root/apps/site/components/.content.xml", "<jcr:root jcr:primaryType=\"sling:Folder\"/>");
+		entries.put("jcr_root/etc/designs/site/.content.xml", "<jcr:root jcr:primaryType=\"cq:Page\"/>");
+		return entries;
+	}
+
+	private void writePackage(Map<String, String> entries) throws IOException
+	{
+		ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+		try
+		{
+			for (Map.Entry<String, String> entry : entries.entrySet())
+			{
+				zip.putNextEntry(new ZipEntry(entry.getKey()));
+				zip.write(entry.getValue().getBytes("UTF-8"));
+				zip.closeEntry();
+			}
+		}
+		finally
+		{
+			zip.close();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class ResponseScannerTest extends TestCase
+{
+	public void testFindsMarkerIgnoringCase() throws IOException
+	{
+		assertTrue(scan("<html>Package INSTALLED in 120ms.</html>", "package installed").isMarkerFound());
+		assertFalse(scan("<html>Package imported.</html>", "package installed").isMarkerFound());
+	}
+
+	public void testFindsMarkerSplitAtEveryPosition()
+	{
+		String body = "....Package installed....";
+		for (int split = 1; split < body.length(); split++)
+		{
+			ResponseScanner scanner = new ResponseScanner("package installed");
+			feed(scanner, body.substring(0, split), body.substring(split));
+			assertTrue("split at " + split, scanner.isMarkerFound());
+		}
+	}
+
+	public void testCollectsErrorSpans() throws IOException
+	{
+		ResponseScanner scanner = scan("<span class=\"error_line\">first</span> ok "
+				+ "<SPAN CLASS=\"error_line\">second</SPAN>", null);
+
+		assertEquals(Arrays.asList("first", "second"), scanner.getErrors());
+	}
+
+	public void testFindsErrorSpanSplitAtEveryPosition()
+	{
+		String body = "xx<span class=\"error_line\">broken node</span>yy";
+		for (int split = 1; split < body.length(); split++)
+		{
+			ResponseScanner scanner = new ResponseScanner(null);
+			feed(scanner, body.substring(0, split), body.substring(split));
+			assertEquals("split at " + split, Arrays.asList("broken node"), scanner.getErrors());
+		}
+	}
+
+	public void testFindsErrorSpanFedOneCharacterAtATime()
+	{
+		String body = "<span class=\"error_line\">a</span><span class=\"error_line\">bc</span>";
+		ResponseScanner scanner = new ResponseScanner(null);
+		for (int i = 0; i < body.length(); i++)
+		{
+			feed(scanner, body.substring(i, i + 1));
+		}
+		assertEquals(Arrays.asList("a", "bc"), scanner.getErrors());
+	}
+
+	public void testKeepsBoundedTail()
+	{
+		ResponseScanner scanner = new ResponseScanner(null);
+		char[] block = new char[1000];
+		Arrays.fill(block, 'x');
+		for (int i = 0; i < 100; i++)
+		{
+			scanner.update(block, 0, block.length);
+		}
+		feed(scanner, "end");
+
+		assertEquals(100003, scanner.getLength());
+		assertTrue(scanner.getTail().length() >= ResponseScanner.TAIL_SIZE);
+		assertTrue(scanner.getTail().length() <= 2 * ResponseScanner.TAIL_SIZE);
+		assertTrue(scanner.getTail().endsWith("xend"));
+	}
+
+	private static ResponseScanner scan(String body, String marker) throws IOException
+	{
+		return ResponseScanner.scan(new ByteArrayInputStream(body.getBytes("UTF-8")), "UTF-8", marker);
+	}
+
+	private static void feed(ResponseScanner scanner, String... parts)
+	{
+		for (String part : parts)
+		{
+			scanner.update(part.toCharArray(), 0, part.length());
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import junit.framework.TestCase;
+
+public class RetryPolicyTest extends TestCase
+{
+	public void testDelayGrowsUpToTheMaximum()
+	{
+		RetryPolicy policy = new RetryPolicy(5, 100, 1000);
+		for (int i = 0; i < 20; i++)
+		{
+			assertBetween(50, 100, policy.getDelay(0));
+			assertBetween(100, 200, policy.getDelay(1));
+			assertBetween(200, 400, policy.getDelay(2));
+			assertBetween(500, 1000, policy.getDelay(4));
+			assertBetween(500, 1000, policy.getDelay(30));
+		}
+	}
+
+	public void testOnlyGatewayAndAvailabilityErrorsAreTransient()
+	{
+		assertTrue(RetryPolicy.isTransient(502));
+		assertTrue(RetryPolicy.isTransient(503));
+		assertTrue(RetryPolicy.isTransient(504));
+		assertFalse(RetryPolicy.isTransient(500));
+		assertFalse(RetryPolicy.isTransient(404));
+		assertFalse(RetryPolicy.isTransient(200));
+	}
+
+	private static void assertBetween(long low, long high, long value)
+	{
+		assertTrue(value + " not in [" + low + ", " + high + "]", value >= low && value <= high);
+	}
+}
@@ -0,0 +1,168 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.Cookie;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class SessionCacheTest extends TestCase
+{
+	private static final Cookie[] SESSION = { new Cookie("127.0.0.1", "login-token", "cached", "/", null, false) };
+
+	private final SessionCache cache = new SessionCache();
+
+	private final List<String> requests = new ArrayList<String>();
+
+	private HttpServer server;
+
+	private CrxTarget target;
+
+	private int sessionStatus;
+
+	private int loginStatus;
+
+	protected void setUp() throws Exception
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler()
+		{
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				IOUtils.toByteArray(exchange.getRequestBody());
+				String request = exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath();
+				synchronized (requests)
+				{
+					requests.add(request);
+				}
+				// the login page answers the GET, the POST redirects once logged in
+				int status = request.endsWith("/definition.jsp") ? sessionStatus
+						: request.startsWith("POST") ? 302 : loginStatus;
+				if (request.startsWith("GET") && request.endsWith("/login.jsp"))
+				{
+					exchange.getResponseHeaders().add("Set-Cookie", "login-token=fresh; Path=/");
+				}
+				exchange.sendResponseHeaders(status, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+		target = new CrxTarget("http://127.0.0.1:" + server.getAddress().getPort() + "/crx", "admin", "admin",
+				"crx.default");
+	}
+
+	protected void tearDown() throws Exception
+	{
+		server.stop(0);
+	}
+
+	public void testKeyHoldsTheCredentials()
+	{
+		cache.put(target, SESSION);
+
+		assertSame(SESSION, cache.get(new CrxTarget(target.getCrxPath(), "admin", "admin", "crx.default")));
+		assertNull(cache.get(new CrxTarget(target.getCrxPath(), "admin", "changed", "crx.default")));
+		assertNull(cache.get(new CrxTarget(target.getCrxPath(), "author", "admin", "crx.default")));
+		assertNull(cache.get(new CrxTarget(target.getCrxPath(), "admin", "admin", "other")));
+		assertNull(cache.get(new CrxTarget("http://localhost:4502/crx", "admin", "admin", "crx.default")));
+		assertNull(cache.get(new CrxTarget(target.getCrxPath(), "admin", null, "crx.default")));
+	}
+
+	public void testRemoveForgetsTheSession()
+	{
+		cache.put(target, SESSION);
+		cache.remove(target);
+
+		assertNull(cache.get(target));
+	}
+
+	public void testValidSessionIsReused() throws MojoExecutionException
+	{
+		cache.put(target, SESSION);
+		sessionStatus = 200;
+
+		assertTrue(login());
+
+		assertEquals("[GET /crx/browser/definition.jsp]", requests.toString());
+		assertSame(SESSION, cache.get(target));
+	}
+
+	public void testExpiredSessionIsReplaced() throws MojoExecutionException
+	{
+		cache.put(target, SESSION);
+		sessionStatus = 302;
+		loginStatus = 200;
+
+		assertTrue(login());
+
+		assertEquals("[GET /crx/browser/definition.jsp, GET /crx/login.jsp, POST /crx/login.jsp]",
+				requests.toString());
+		Cookie[] cookies = cache.get(target);
+		assertNotNull(cookies);
+		assertEquals("fresh", cookies[0].getValue());
+	}
+
+	public void testSessionIsForgottenWhenItsRestoreFails()
+	{
+		cache.put(target, SESSION);
+		sessionStatus = 401;
+		loginStatus = 500;
+		try
+		{
+			login();
+			fail("the login page failed");
+		}
+		catch (MojoExecutionException e)
+		{
+			// the new login fails too
+		}
+
+		assertNull(cache.get(target));
+	}
+
+	private boolean login() throws MojoExecutionException
+	{
+		DeploymentOptions options = new DeploymentOptions();
+		options.setJarfile("package.zip");
+		options.setMaxConnections(1);
+		options.setSessionCache(cache);
+		CrxPackageDeployer deployer = new CrxPackageDeployer(target, options, new File("backups"),
+				new SystemStreamLog());
+		deployer.openClient();
+		try
+		{
+			return deployer.login();
+		}
+		finally
+		{
+			deployer.closeClient();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class SmokeCheckTest extends TestCase
+{
+	public void testSingleSampleIsEveryPercentile()
+	{
+		List<Long> sorted = Arrays.asList(42L);
+
+		assertEquals(42, SmokeCheck.percentile(sorted, 0));
+		assertEquals(42, SmokeCheck.percentile(sorted, 1));
+		assertEquals(42, SmokeCheck.percentile(sorted, 50));
+		assertEquals(42, SmokeCheck.percentile(sorted, 95));
+		assertEquals(42, SmokeCheck.percentile(sorted, 100));
+	}
+
+	public void testHundredthPercentileIsTheMaximum()
+	{
+		assertEquals(20, SmokeCheck.percentile(range(20), 100));
+		assertEquals(7, SmokeCheck.percentile(range(7), 100));
+	}
+
+	public void testLowestPercentilesAreTheMinimum()
+	{
+		assertEquals(1, SmokeCheck.percentile(range(20), 0));
+		assertEquals(1, SmokeCheck.percentile(range(20), 1));
+		assertEquals(1, SmokeCheck.percentile(range(20), 5));
+		assertEquals(2, SmokeCheck.percentile(range(20), 6));
+	}
+
+	public void testNearestRank()
+	{
+		// the rank is rounded up: 95% of 20 samples is the 19th
+		assertEquals(19, SmokeCheck.percentile(range(20), 95));
+		assertEquals(10, SmokeCheck.percentile(range(20), 50));
+		assertEquals(10, SmokeCheck.percentile(range(10), 95));
+		assertEquals(95, SmokeCheck.percentile(range(100), 95));
+		assertEquals(2, SmokeCheck.percentile(range(3), 50));
+		assertEquals(1, SmokeCheck.percentile(range(2), 50));
+	}
+
+	public void testRankIsNotRoundedUpPastAnExactProduct()
+	{
+		// 7 / 100.0 * 100 is slightly above 7 in floating point
+		assertEquals(7, SmokeCheck.percentile(range(100), 7));
+		assertEquals(57, SmokeCheck.percentile(range(100), 57));
+		for (int percent = 1; percent <= 100; percent++)
+		{
+			assertEquals(percent, SmokeCheck.percentile(range(100), percent));
+		}
+	}
+
+	private static List<Long> range(int count)
+	{
+		List<Long> sorted = new ArrayList<Long>();
+		for (long i = 1; i <= count; i++)
+		{
+			sorted.add(i);
+		}
+		return sorted;
+	}
+}
@@ -0,0 +1,98 @@
+package com.tacitknowledge.maven.plugin.crx;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class SubtreeExecutorTest extends TestCase
+{
+	public void testIndependentPathsGetOwnGroups()
+	{
+		assertEquals("[[/apps/a], [/apps/b], [/content/c]]",
+				SubtreeExecutor.groupBySubtree(Arrays.asList("/apps/a", "/apps/b", "/content/c")).toString());
+	}
+
+	public void testAncestorsShareGroupInConfigurationOrder()
+	{
+		assertEquals("[[/apps/a/x, /apps/a, /apps/a/y], [/apps/b]]", SubtreeExecutor.groupBySubtree(
+				Arrays.asList("/apps/a/x", "/apps/a", "/apps/b", "/apps/a/y")).toString());
+	}
+
+	public void testSiblingPrefixIsNotAnAncestor()
+	{
+		assertEquals("[[/apps/a], [/apps/ab]]",
+				SubtreeExecutor.groupBySubtree(Arrays.asList("/apps/a", "/apps/ab")).toString());
+	}
+
+	public void testPathLinkingTwoGroupsMergesThem()
+	{
+		assertEquals("[[/apps/a/x, /apps/a/y, /apps/a], [/content]]", SubtreeExecutor.groupBySubtree(
+				Arrays.asList("/apps/a/x", "/apps/a/y", "/content", "/apps/a")).toString());
+	}
+
+	public void testEveryPathIsAttemptedAndFailuresCollected() throws Exception
+	{
+		final List<String> applied = Collections.synchronizedList(new ArrayList<String>());
+		SubtreeExecutor executor = new SubtreeExecutor(new SystemStreamLog(), 4);
+		executor.execute(Arrays.asList("/a", "/a/b", "/c", "/d"), new SubtreeExecutor.PathOperation()
+		{
+			public void apply(String path) throws Exception
+			{
+				applied.add(path);
+				if (path.equals("/a") || path.equals("/c"))
+				{
+					throw new Exception(path + " failed");
+				}
+			}
+		});
+
+		assertEquals(4, applied.size());
+		assertTrue(applied.indexOf("/a") < applied.indexOf("/a/b"));
+		assertEquals(2, executor.getFailures().size());
+		assertEquals("/c failed", executor.getFailures().get("/c").getMessage());
+		assertEquals(4, executor.getTimings().size());
+	}
+
+	public void testIndependentSubtreesRunConcurrently() throws Exception
+	{
+		// each operation waits for the other, so it only ends if both run at the same time
+		final CountDownLatch started = new CountDownLatch(2);
+		SubtreeExecutor executor = new SubtreeExecutor(new SystemStreamLog(), 2);
+		executor.execute(Arrays.asList("/a", "/b"), new SubtreeExecutor.PathOperation()
+		{
+			public void apply(String path) throws Exception
+			{
+				started.countDown();
+				if (!started.await(10, TimeUnit.SECONDS))
+				{
+					throw new Exception("ran alone");
+				}
+			}
+		});
+
+		assertTrue(executor.getFailures().isEmpty());
+	}
+}
@@ -0,0 +1,144 @@
+package com.tacitknowledge.maven.plugin.vlt;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class VltCleanerTest extends TestCase {
+
+    private Path root;
+
+    protected void setUp() throws Exception {
+        root = Files.createTempDirectory("vlt");
+    }
+
+    protected void tearDown() throws Exception {
+        // commons-io follows links, the walk does not
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult postVisitDirectory(Path folder, IOException e) throws IOException {
+                Files.delete(folder);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public void testRemovesNestedVltFiles() throws IOException {
+        Path top = touch(".vlt");
+        Path nested = touch("a/.vlt");
+        Path deep = touch("a/b/c/.vlt");
+        Path kept = touch("a/b/content.xml");
+
+        VltCleaner cleaner = new VltCleaner(new SystemStreamLog(), 2, null);
+        cleaner.clean(root);
+
+        assertFalse(Files.exists(top));
+        assertFalse(Files.exists(nested));
+        assertFalse(Files.exists(deep));
+        assertTrue(Files.exists(kept));
+        assertEquals(3, cleaner.getDeletedCount());
+        assertEquals(4, cleaner.getDirectoryCount());
+        assertEquals(0, cleaner.getFailureCount());
+    }
+
+    public void testSkipsExcludedNamesAtAnyDepth() throws IOException {
+        Path top = touch("target/.vlt");
+        Path nested = touch("a/target/b/.vlt");
+        Path cleaned = touch("a/.vlt");
+
+        VltCleaner cleaner = new VltCleaner(new SystemStreamLog(), 2, new String[] {"target/"});
+        cleaner.clean(root);
+
+        assertTrue(Files.exists(top));
+        assertTrue(Files.exists(nested));
+        assertFalse(Files.exists(cleaned));
+        assertEquals(1, cleaner.getDeletedCount());
+    }
+
+    public void testSkipsExcludedPathsFromTheCleanedDirectory() throws IOException {
+        Path excluded = touch("a/b/.vlt");
+        Path elsewhere = touch("c/a/b/.vlt");
+        Path globbed = touch("d/e/.git/.vlt");
+
+        VltCleaner cleaner = new VltCleaner(new SystemStreamLog(), 2, new String[] {"a/b", "**/.git/"});
+        cleaner.clean(root);
+
+        assertTrue(Files.exists(excluded));
+        assertFalse(Files.exists(elsewhere));
+        assertTrue(Files.exists(globbed));
+    }
+
+    public void testVisitsLinkedDirectoriesOnce() throws IOException {
+        Path top = touch(".vlt");
+        Path nested = touch("a/.vlt");
+        // a loop back to the cleaned directory, and a second way into a
+        Files.createSymbolicLink(root.resolve("a/loop"), root);
+        Files.createSymbolicLink(root.resolve("link"), root.resolve("a"));
+
+        VltCleaner cleaner = new VltCleaner(new SystemStreamLog(), 2, null);
+        cleaner.clean(root);
+
+        assertFalse(Files.exists(top));
+        assertFalse(Files.exists(nested));
+        assertEquals(2, cleaner.getDeletedCount());
+        assertEquals(2, cleaner.getDirectoryCount());
+        assertEquals(0, cleaner.getFailureCount());
+    }
+
+    public void testIgnoresBrokenLinks() throws IOException {
+        Path nested = touch("a/.vlt");
+        Files.createSymbolicLink(root.resolve("a/broken"), root.resolve("missing"));
+
+        VltCleaner cleaner = new VltCleaner(new SystemStreamLog(), 1, null);
+        cleaner.clean(root);
+
+        assertFalse(Files.exists(nested));
+        assertEquals(0, cleaner.getFailureCount());
+    }
+
+    public void testCleansNothingOutsideADirectory() throws IOException {
+        Path file = touch("file.vlt");
+
+        VltCleaner cleaner = new VltCleaner(new SystemStreamLog(), 1, null);
+        cleaner.clean(file);
+
+        assertTrue(Files.exists(file));
+        assertEquals(0, cleaner.getDirectoryCount());
+    }
+
+    private Path touch(String relative) throws IOException {
+        File file = root.resolve(relative).toFile();
+        FileUtils.touch(file);
+        return file.toPath();
+    }
+}
@@ -0,0 +1,176 @@
+package com.tacitknowledge.maven.plugin.vlt;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class VltIndexTest extends TestCase {
+
+    private static final String[] EXCLUDES = {"target/"};
+
+    private Path root;
+
+    private File indexFolder;
+
+    protected void setUp() throws Exception {
+        root = Files.createTempDirectory("vlt");
+        indexFolder = Files.createTempDirectory("vlt-index").toFile();
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(root.toFile());
+        FileUtils.deleteDirectory(indexFolder);
+    }
+
+    public void testUpdateForgetsRemovedSubtrees() throws IOException {
+        VltIndex index = new VltIndex(indexFolder, root.toFile(), EXCLUDES);
+        index.update("", 1, Arrays.asList("a", "c"));
+        index.update("a", 1, Arrays.asList("a/b"));
+        index.update("a/b", 1, Arrays.asList("a/b/x"));
+        index.update("a/b/x", 1, Collections.<String>emptyList());
+        index.update("c", 1, Collections.<String>emptyList());
+
+        index.update("", 2, Arrays.asList("c"));
+
+        assertEquals(Long.valueOf(2), index.getModificationTime(""));
+        assertEquals(Arrays.asList("c"), index.getChildren(""));
+        assertNull(index.getModificationTime("a"));
+        assertNull(index.getModificationTime("a/b"));
+        assertNull(index.getModificationTime("a/b/x"));
+        assertTrue(index.getChildren("a").isEmpty());
+        assertEquals(Long.valueOf(1), index.getModificationTime("c"));
+    }
+
+    public void testLoadRebuildsTheChildren() throws IOException {
+        touch("a/b/x/content.xml");
+        touch("c/content.xml");
+        clean();
+
+        VltIndex index = new VltIndex(indexFolder, root.toFile(), EXCLUDES);
+        assertFalse(index.isEmpty());
+        assertEquals(Arrays.asList("a", "c"), sorted(index.getChildren("")));
+        assertEquals(Arrays.asList("a/b"), index.getChildren("a"));
+        assertEquals(Arrays.asList("a/b/x"), index.getChildren("a/b"));
+        assertTrue(index.getChildren("a/b/x").isEmpty());
+        assertEquals(Long.valueOf(Files.getLastModifiedTime(root.resolve("a/b")).toMillis()),
+                index.getModificationTime("a/b"));
+    }
+
+    public void testIndexDependsOnTheExcludes() throws IOException {
+        VltIndex index = new VltIndex(indexFolder, root.toFile(), EXCLUDES);
+        VltIndex other = new VltIndex(indexFolder, root.toFile(), new String[] {"dist/"});
+        assertFalse(index.getFile().equals(other.getFile()));
+    }
+
+    public void testSecondCleanListsNothingUnchanged() throws IOException {
+        touch("a/b/content.xml");
+        touch("c/content.xml");
+        assertEquals(4, clean().getDirectoryCount());
+
+        VltCleaner second = clean();
+        assertEquals(4, second.getDirectoryCount());
+        assertEquals(0, second.getScannedCount());
+    }
+
+    public void testSecondCleanListsAnAddedDirectory() throws IOException {
+        touch("a/b/content.xml");
+        touch("c/content.xml");
+        clean();
+
+        Path added = touch("a/d/e/.vlt");
+        Path unlisted = touch("c/.vlt");
+        // a change within the timestamp resolution would go unnoticed
+        later("a");
+        later("c");
+        VltCleaner second = clean();
+
+        assertFalse(Files.exists(added));
+        assertFalse(Files.exists(unlisted));
+        assertEquals(2, second.getDeletedCount());
+        VltIndex index = new VltIndex(indexFolder, root.toFile(), EXCLUDES);
+        assertEquals(Arrays.asList("a/b", "a/d"), sorted(index.getChildren("a")));
+        assertEquals(Arrays.asList("a/d/e"), index.getChildren("a/d"));
+    }
+
+    public void testSecondCleanForgetsARemovedDirectory() throws IOException {
+        touch("a/b/x/content.xml");
+        touch("c/content.xml");
+        clean();
+
+        FileUtils.deleteDirectory(root.resolve("a").toFile());
+        later("");
+        clean();
+
+        VltIndex index = new VltIndex(indexFolder, root.toFile(), EXCLUDES);
+        assertEquals(Arrays.asList("c"), index.getChildren(""));
+        assertNull(index.getModificationTime("a"));
+        assertNull(index.getModificationTime("a/b"));
+        assertNull(index.getModificationTime("a/b/x"));
+    }
+
+    public void testRemovedDirectoryOfAnUnchangedParentIsForgotten() throws IOException {
+        touch("a/b/content.xml");
+        clean();
+
+        // the parent keeps its time, the walk finds the directory gone
+        FileTime modified = Files.getLastModifiedTime(root);
+        FileUtils.deleteDirectory(root.resolve("a").toFile());
+        Files.setLastModifiedTime(root, modified);
+        clean();
+
+        VltIndex index = new VltIndex(indexFolder, root.toFile(), EXCLUDES);
+        assertNull(index.getModificationTime("a"));
+        assertNull(index.getModificationTime("a/b"));
+    }
+
+    private VltCleaner clean() throws IOException {
+        VltIndex index = new VltIndex(indexFolder, root.toFile(), EXCLUDES);
+        VltCleaner cleaner = new VltCleaner(new SystemStreamLog(), 2, EXCLUDES);
+        cleaner.clean(root, index);
+        index.save();
+        return cleaner;
+    }
+
+    private void later(String relative) throws IOException {
+        Path folder = root.resolve(relative);
+        Files.setLastModifiedTime(folder,
+                FileTime.fromMillis(Files.getLastModifiedTime(folder).toMillis() + 10000));
+    }
+
+    private Path touch(String relative) throws IOException {
+        File file = root.resolve(relative).toFile();
+        FileUtils.touch(file);
+        return file.toPath();
+    }
+
+    private static List<String> sorted(List<String> list) {
+        Collections.sort(list);
+        return list;
+    }
+}
@@ -0,0 +1,137 @@
+package com.tacitknowledge.maven.plugin.vlt;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class VltWatcherTest extends TestCase {
+
+    private static final long TIMEOUT = 10000;
+
+    private Path root;
+
+    private Thread watching;
+
+    protected void setUp() throws Exception {
+        root = Files.createTempDirectory("vlt");
+        touch("a/b/content.xml");
+        touch("target/content.xml");
+
+        final VltCleaner cleaner = new VltCleaner(new SystemStreamLog(), 1, new String[] {"target/"});
+        cleaner.clean(root);
+        watching = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    new VltWatcher(new SystemStreamLog(), cleaner).watch(root);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        watching.start();
+        awaitWatched("a/b");
+    }
+
+    protected void tearDown() throws Exception {
+        watching.interrupt();
+        watching.join(TIMEOUT);
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    public void testStopsWhenInterrupted() throws InterruptedException {
+        watching.interrupt();
+        watching.join(TIMEOUT);
+        assertFalse(watching.isAlive());
+    }
+
+    public void testRemovesVltFilesOfWatchedDirectories() throws Exception {
+        Path top = touch(".vlt");
+        Path nested = touch("a/b/.vlt");
+        Path kept = touch("a/b/other.xml");
+
+        assertTrue(awaitRemoved(top));
+        assertTrue(awaitRemoved(nested));
+        assertTrue(Files.exists(kept));
+    }
+
+    public void testWatchesCreatedDirectories() throws Exception {
+        // the files may be created before the directory is registered
+        Path early = touch("c/d/.vlt");
+        assertTrue(awaitRemoved(early));
+
+        awaitWatched("c/d");
+        Path late = touch("c/d/e/.vlt");
+        assertTrue(awaitRemoved(late));
+    }
+
+    public void testSkipsExcludedDirectories() throws Exception {
+        Path excluded = touch("target/.vlt");
+        Path createdExcluded = touch("c/target/.vlt");
+        // once this one is gone, the events of the others were handled
+        assertTrue(awaitRemoved(touch("c/.vlt")));
+
+        assertTrue(Files.exists(excluded));
+        assertTrue(Files.exists(createdExcluded));
+    }
+
+    /**
+     * Creates probe files in a directory until one is removed, the directory
+     * is then registered: the watcher only sees the files created after that.
+     */
+    private void awaitWatched(String relative) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+            Path probe = touch(relative + "/probe" + i + ".vlt");
+            if (awaitRemoved(probe, 200)) {
+                return;
+            }
+            Files.delete(probe);
+        }
+        fail(relative + " is not watched");
+    }
+
+    private boolean awaitRemoved(Path file) throws InterruptedException {
+        return awaitRemoved(file, TIMEOUT);
+    }
+
+    private boolean awaitRemoved(Path file, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (Files.exists(file)) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private Path touch(String relative) throws IOException {
+        // created without a later attribute change, the watcher may remove it right away
+        Path file = root.resolve(relative);
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[0]);
+        return file;
+    }
+}